@@ -1,13 +1,24 @@
 package com.example.samuraitravel;
 
+import org.springframework.boot.DefaultApplicationArguments;
 import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import com.example.samuraitravel.command.MaintenanceTask;
 
 @SpringBootApplication
+@EnableScheduling
 public class SamuraitravelApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(SamuraitravelApplication.class, args);
+		SpringApplication application = new SpringApplication(SamuraitravelApplication.class);
+		// 移行・修復用のコマンドを指定した場合は、Webサーバーを起動せずにコマンドだけを実行して終了する
+		if (!MaintenanceTask.requested(new DefaultApplicationArguments(args)).isEmpty()) {
+			application.setWebApplicationType(WebApplicationType.NONE);
+		}
+		application.run(args);
 	}
 
 }
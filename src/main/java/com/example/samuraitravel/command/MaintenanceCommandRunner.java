@@ -0,0 +1,70 @@
+package com.example.samuraitravel.command;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import com.example.samuraitravel.service.HouseService;
+import com.example.samuraitravel.service.ReservationService;
+import com.example.samuraitravel.service.ReviewService;
+
+// 起動時に指定されたMaintenanceTaskを順に実行し、終わったらアプリケーションを終了する
+// 失敗したコマンドがあれば、残りは実行せずに終了コード1で終了する
+@Component
+public class MaintenanceCommandRunner implements ApplicationRunner {
+	private static final Logger logger = LoggerFactory.getLogger(MaintenanceCommandRunner.class);
+	
+	private final ConfigurableApplicationContext applicationContext;
+	private final HouseService houseService;
+	private final ReviewService reviewService;
+	private final ReservationService reservationService;
+	
+	public MaintenanceCommandRunner(ConfigurableApplicationContext applicationContext, HouseService houseService, ReviewService reviewService, ReservationService reservationService) {
+		this.applicationContext = applicationContext;
+		this.houseService = houseService;
+		this.reviewService = reviewService;
+		this.reservationService = reservationService;
+	}
+	
+	@Override
+	public void run(ApplicationArguments args) {
+		List<MaintenanceTask> tasks = MaintenanceTask.requested(args);
+		if (tasks.isEmpty()) {
+			return;
+		}
+		
+		int exitCode = 0;
+		for (MaintenanceTask task : tasks) {
+			try {
+				logger.info("--{}: {}", task.getOption(), execute(task));
+			} catch (RuntimeException e) {
+				logger.error("--{}が失敗しました。", task.getOption(), e);
+				exitCode = 1;
+				break;
+			}
+		}
+		
+		int status = exitCode;
+		System.exit(SpringApplication.exit(applicationContext, () -> status));
+	}
+	
+	// コマンドを実行し、ログに出すメッセージを返す
+	private String execute(MaintenanceTask task) {
+		return switch (task) {
+			case REBUILD_REVIEW_STATS -> "レビュー集計を作り直しました。(" + reviewService.rebuildReviewStats() + "件の民宿)";
+			case GENERATE_IMAGE_VARIANTS -> "サイズ違いの画像を作りました。(" + houseService.generateMissingImageVariants() + "件の民宿)";
+			case REHASH_IMAGES -> {
+				int houseCount = houseService.rehashImages();
+				int generatedCount = houseService.generateMissingImageVariants();
+				yield "画像のファイル名を付け替えました。(" + houseCount + "件の民宿、サイズ違いを作った民宿: " + generatedCount + "件)";
+			}
+			case BACKFILL_RESERVATION_NIGHTS -> "予約の宿泊日を記録しました。(他の予約と重なっていた予約: " + reservationService.backfillNights() + "件)";
+		};
+	}
+}
@@ -0,0 +1,35 @@
+package com.example.samuraitravel.command;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.springframework.boot.ApplicationArguments;
+
+// 既存データを移行・修復するための、起動時に指定するコマンド
+// 例: java -jar target/samuraitravel.jar --rebuild-review-stats
+// 指定した場合はWebサーバーを起動せず、コマンドを実行したら終了する(MaintenanceCommandRunnerを参照)
+public enum MaintenanceTask {
+	// 民宿ごとのレビュー集計をreviewsテーブルから作り直す
+	REBUILD_REVIEW_STATS("rebuild-review-stats"),
+	// サイズ違いの画像がまだない民宿の分を作る
+	GENERATE_IMAGE_VARIANTS("generate-image-variants"),
+	// static/storageの画像を中身のハッシュのファイル名に付け替えてhouses.image_nameを書き換え、サイズ違いも続けて作る
+	REHASH_IMAGES("rehash-images"),
+	// reservation_nightsを追加する前に登録された予約(今日以降の夜を含むもの)の宿泊日を記録する
+	BACKFILL_RESERVATION_NIGHTS("backfill-reservation-nights");
+	
+	private final String option;
+	
+	private MaintenanceTask(String option) {
+		this.option = option;
+	}
+	
+	public String getOption() {
+		return option;
+	}
+	
+	// 起動時の引数で指定されたコマンドを、ここに並べた順に返す
+	public static List<MaintenanceTask> requested(ApplicationArguments args) {
+		return Arrays.stream(values()).filter(task -> args.containsOption(task.option)).toList();
+	}
+}
@@ -1,9 +1,17 @@
 package com.example.samuraitravel.controller;
 
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.time.LocalDate;
+import java.util.Map;
+
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort.Direction;
 import org.springframework.data.web.PageableDefault;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
@@ -14,33 +22,45 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import com.example.samuraitravel.dto.HouseSummary;
 import com.example.samuraitravel.entity.House;
 import com.example.samuraitravel.form.HouseEditForm;
+import com.example.samuraitravel.form.HousePriceRuleForm;
 import com.example.samuraitravel.form.HouseRegisterForm;
 import com.example.samuraitravel.repository.HouseRepository;
+import com.example.samuraitravel.service.HouseImageStorage;
+import com.example.samuraitravel.service.HousePricingService;
 import com.example.samuraitravel.service.HouseService;
+import com.example.samuraitravel.service.ImageUploadException;
+
+import jakarta.servlet.http.HttpServletRequest;
 
 @Controller
 @RequestMapping("/admin/houses")
 public class AdminHouseController {
 	private final HouseRepository houseRepository;
 	private final HouseService houseService;
+	private final HouseImageStorage houseImageStorage;
+	private final HousePricingService housePricingService;
 	
-	public AdminHouseController(HouseRepository houseRepository, HouseService houseService) {
+	public AdminHouseController(HouseRepository houseRepository, HouseService houseService, HouseImageStorage houseImageStorage, HousePricingService housePricingService) {
 		this.houseRepository = houseRepository;
 		this.houseService = houseService;
+		this.houseImageStorage = houseImageStorage;
+		this.housePricingService = housePricingService;
 	}
 	
 	@GetMapping
 	public String index(Model model, @PageableDefault(page = 0, size = 10, sort = "id", direction = Direction.ASC) Pageable pageable, @RequestParam(name = "keyword", required = false) String keyword) {
-		Page<House> housePage;
+		Page<HouseSummary> housePage;
 		
 		if (keyword != null && !keyword.isEmpty()) {
 			housePage = houseRepository.findByNameLike("%" + keyword + "%", pageable);
 		} else {
-			housePage = houseRepository.findAll(pageable);
+			housePage = houseRepository.findAllBy(pageable);
 		}
 		
 		model.addAttribute("housePage",housePage);
@@ -54,10 +74,40 @@ public class AdminHouseController {
 		House house = houseRepository.getReferenceById(id);
 		
 		model.addAttribute("house",house);
+		model.addAttribute("priceRules", housePricingService.findRules(id));
+		model.addAttribute("housePriceRuleForm", new HousePriceRuleForm());
 		
 		return "admin/houses/show";
 	}
 	
+	@PostMapping("/{id}/price-rules/create")
+	public String createPriceRule(@PathVariable(name = "id") Integer id, @ModelAttribute @Validated HousePriceRuleForm housePriceRuleForm, BindingResult bindingResult, RedirectAttributes redirectAttributes, Model model) {
+		LocalDate startDate = housePriceRuleForm.getStartDate();
+		LocalDate endDate = housePriceRuleForm.getEndDate();
+		if (startDate != null && endDate != null && endDate.isBefore(startDate)) {
+			bindingResult.rejectValue("endDate", "invalid", "終了日は開始日以降の日付を選択してください。");
+		}
+		
+		if (bindingResult.hasErrors()) {
+			model.addAttribute("house", houseRepository.getReferenceById(id));
+			model.addAttribute("priceRules", housePricingService.findRules(id));
+			return "admin/houses/show";
+		}
+		
+		housePricingService.createRule(id, housePriceRuleForm);
+		redirectAttributes.addFlashAttribute("successMessage", "料金ルールを追加しました。");
+		
+		return "redirect:/admin/houses/{id}";
+	}
+	
+	@PostMapping("/{id}/price-rules/{ruleId}/delete")
+	public String deletePriceRule(@PathVariable(name = "id") Integer id, @PathVariable(name = "ruleId") Integer ruleId, RedirectAttributes redirectAttributes) {
+		housePricingService.deleteRule(id, ruleId);
+		redirectAttributes.addFlashAttribute("successMessage", "料金ルールを削除しました。");
+		
+		return "redirect:/admin/houses/{id}";
+	}
+	
 	@GetMapping("/register")
 	public String register(Model model) {
 		model.addAttribute("houseRegisterForm", new HouseRegisterForm());
@@ -72,7 +122,12 @@ public class AdminHouseController {
 		return "admin/houses/register";
 	}
 		
-		houseService.create(houseRegisterForm);
+		try {
+			houseService.create(houseRegisterForm);
+		} catch (ImageUploadException e) {
+			bindingResult.rejectValue("imageFile", "invalid", e.getMessage());
+			return "admin/houses/register";
+		}
 		redirectAttributes.addFlashAttribute("successMessage", "民宿を登録しました。");
 		
 		return "redirect:/admin/houses";
@@ -82,7 +137,7 @@ public class AdminHouseController {
 	public String edit(@PathVariable(name = "id") Integer id, Model model) {
 		House house = houseRepository.getReferenceById(id);
 		String imageName = house.getImageName();
-		HouseEditForm houseEditForm = new HouseEditForm(house.getId(), house.getName(), null, house.getDescription(), house.getPrice(), house.getCapacity(), house.getPostalCode(), house.getAddress(), house.getPhoneNumber());
+		HouseEditForm houseEditForm = new HouseEditForm(house.getId(), house.getName(), null, house.getDescription(), house.getPrice(), house.getCapacity(), house.getPostalCode(), house.getAddress(), house.getPhoneNumber(), null);
 	
 		model.addAttribute("imageName", imageName);
 		model.addAttribute("houseEditForm",houseEditForm);
@@ -97,15 +152,34 @@ public class AdminHouseController {
 		
 		}
 		
-		houseService.update(houseEditForm);
+		try {
+			houseService.update(houseEditForm);
+		} catch (ImageUploadException e) {
+			bindingResult.rejectValue("imageFile", "invalid", e.getMessage());
+			return "admin/houses/edit";
+		}
 		redirectAttributes.addFlashAttribute("successMessage", "民宿情報を編集しました。");
 		
 		return"redirect:/admin/houses";
 	}
 	
+	// 民宿画像のアップロード。リクエスト本文(画像そのもの)を保存先のディレクトリに直接書き込み、保存したファイル名を返す
+	// 登録・編集フォームで画像を選択した時点で呼び出し、フォームの送信時にはファイル名だけを送る
+	@PostMapping("/images")
+	@ResponseBody
+	public ResponseEntity<Map<String, String>> uploadImage(HttpServletRequest httpServletRequest) throws IOException {
+		try (ReadableByteChannel source = Channels.newChannel(httpServletRequest.getInputStream())) {
+			String imageName = houseImageStorage.store(source, httpServletRequest.getContentLengthLong());
+			return ResponseEntity.ok(Map.of("imageName", imageName));
+		} catch (ImageUploadException e) {
+			HttpStatus status = e.isTooLarge() ? HttpStatus.PAYLOAD_TOO_LARGE : HttpStatus.BAD_REQUEST;
+			return ResponseEntity.status(status).body(Map.of("message", e.getMessage()));
+		}
+	}
+	
 	@PostMapping("/{id}/delete")
 	public String delete(@PathVariable(name = "id") Integer id, RedirectAttributes redirectAttributes) {
-		houseRepository.deleteById(id);
+		houseService.delete(id);
 		
 		redirectAttributes.addFlashAttribute("successMessage", "民宿を削除しました。");
 		
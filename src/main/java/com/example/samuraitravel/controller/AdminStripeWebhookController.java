@@ -0,0 +1,37 @@
+package com.example.samuraitravel.controller;
+
+import java.util.List;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.web.PageableDefault;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+import com.example.samuraitravel.entity.StripeWebhookEvent;
+import com.example.samuraitravel.repository.StripeWebhookEventRepository;
+
+// 予約と重なって返金したイベントと、処理を諦めたイベントを新しい順に表示する
+@Controller
+@RequestMapping("/admin/stripe-webhooks")
+public class AdminStripeWebhookController {
+	private static final List<String> STATUSES = List.of(StripeWebhookEvent.STATUS_REFUNDED, StripeWebhookEvent.STATUS_FAILED);
+	
+	private final StripeWebhookEventRepository stripeWebhookEventRepository;
+	
+	public AdminStripeWebhookController(StripeWebhookEventRepository stripeWebhookEventRepository) {
+		this.stripeWebhookEventRepository = stripeWebhookEventRepository;
+	}
+	
+	@GetMapping
+	public String index(@PageableDefault(page = 0, size = 10, sort = "id", direction = Direction.DESC) Pageable pageable, Model model) {
+		Page<StripeWebhookEvent> stripeWebhookEventPage = stripeWebhookEventRepository.findByStatusIn(STATUSES, pageable);
+		
+		model.addAttribute("stripeWebhookEventPage", stripeWebhookEventPage);
+		
+		return "admin/stripe-webhooks/index";
+	}
+}
@@ -13,14 +13,17 @@ import org.springframework.web.bind.annotation.RequestParam;
 
 import com.example.samuraitravel.entity.User;
 import com.example.samuraitravel.repository.UserRepository;
+import com.example.samuraitravel.service.UserSearchService;
 
 @Controller
 @RequestMapping("/admin/users")
 public class AdminUserController {
 	private final UserRepository userRepository;
+	private final UserSearchService userSearchService;
 	
-	public AdminUserController(UserRepository userRepository) {
+	public AdminUserController(UserRepository userRepository, UserSearchService userSearchService) {
 		this.userRepository = userRepository;
+		this.userSearchService = userSearchService;
 	}
 	
 	@GetMapping
@@ -28,7 +31,11 @@ public class AdminUserController {
 		Page<User> userPage;
 		
 		if(keyword != null && !keyword.isEmpty()) {
-			userPage = userRepository.findByNameLikeOrFuriganaLike("%" + keyword + "%", "%" + keyword + "%", pageable);
+			userPage = userSearchService.search(keyword, pageable);
+			// 一致する会員が多すぎる場合は、先頭の分だけを表示していることを知らせる
+			if (userPage.getTotalElements() >= UserSearchService.MAX_HITS) {
+				model.addAttribute("searchMessage", "一致する会員が" + UserSearchService.MAX_HITS + "件以上あるため、先頭の" + UserSearchService.MAX_HITS + "件を表示しています。キーワードを詳しくして絞り込んでください。");
+			}
 		} else {
 			userPage = userRepository.findAll(pageable);
 		}
@@ -12,7 +12,6 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 import com.example.samuraitravel.entity.User;
-import com.example.samuraitravel.entity.VerificationToken;
 import com.example.samuraitravel.event.SignupEventPublisher;
 import com.example.samuraitravel.form.SignupForm;
 import com.example.samuraitravel.service.UserService;
@@ -75,11 +74,7 @@ public class AuthController {
 	
 	@GetMapping("/signup/verify")
 	public String verify(@RequestParam(name = "token")String token, Model model) {
-		VerificationToken verificationToken = verificationTokenService.getVerificationToken(token);
-		
-		if(verificationToken != null) {
-			User user = verificationToken.getUser();
-			userService.enableUser(user);
+		if(verificationTokenService.verify(token)) {
 			String successMessage = "会員登録が完了しました。";
 			model.addAttribute("successMessage", successMessage);
 		}else {
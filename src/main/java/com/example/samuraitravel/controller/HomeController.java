@@ -6,21 +6,22 @@ import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 
-import com.example.samuraitravel.entity.House;
-import com.example.samuraitravel.repository.HouseRepository;
+import com.example.samuraitravel.dto.HouseSummary;
+import com.example.samuraitravel.service.NewHouseFeedService;
 	
 
 @Controller
 public class HomeController {
-	private final HouseRepository houseRepository;
+	private final NewHouseFeedService newHouseFeedService;
 	
-	public HomeController(HouseRepository houseRepository) {
-		this.houseRepository = houseRepository;
+	public HomeController(NewHouseFeedService newHouseFeedService) {
+		this.newHouseFeedService = newHouseFeedService;
 	}
 	
 	 @GetMapping("/")
 	 public String index(Model model) {
-		 List<House> newHouses = houseRepository.findTop10ByOrderByCreatedAtDesc();
+		 // 新着の民宿はキャッシュから取得する(民宿が変更されたときだけ作り直される)
+		 List<HouseSummary> newHouses = newHouseFeedService.getNewHouses();
 		 model.addAttribute("newHouses",newHouses);
 		 
 	    return "index";
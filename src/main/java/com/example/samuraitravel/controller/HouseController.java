@@ -1,12 +1,13 @@
 package com.example.samuraitravel.controller;
 
-import java.util.List;
+import java.time.LocalDate;
 import java.util.Optional;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort.Direction;
 import org.springframework.data.web.PageableDefault;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -16,77 +17,100 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
-import com.example.samuraitravel.entity.Favorite;
-import com.example.samuraitravel.entity.House;
-import com.example.samuraitravel.entity.Review;
+import com.example.samuraitravel.dto.HouseCursorPage;
+import com.example.samuraitravel.dto.HouseDetail;
+import com.example.samuraitravel.dto.HouseSearchCriteria;
+import com.example.samuraitravel.dto.HouseSummary;
 import com.example.samuraitravel.entity.User;
 import com.example.samuraitravel.form.ReservationInputForm;
 import com.example.samuraitravel.repository.HouseRepository;
-import com.example.samuraitravel.repository.ReviewRepository;
 import com.example.samuraitravel.security.UserDetailsImpl;
-import com.example.samuraitravel.service.FavoriteService;
+import com.example.samuraitravel.service.HouseAvailabilityService;
+import com.example.samuraitravel.service.HouseDetailService;
+import com.example.samuraitravel.service.HouseFacetService;
+import com.example.samuraitravel.service.HouseSearchService;
 import com.example.samuraitravel.service.HouseService;
-import com.example.samuraitravel.service.ReviewService;
+import com.example.samuraitravel.service.UserHouseMembershipService;
 
 @Controller
 @RequestMapping("/houses")
 public class HouseController {
 	private final HouseService houseService;
 	private final HouseRepository houseRepository;
-	private final ReviewRepository reviewRepository;
-	private final ReviewService reviewService;
-	private final FavoriteService favoriteService;
+	private final HouseDetailService houseDetailService;
+	private final HouseSearchService houseSearchService;
+	private final HouseAvailabilityService houseAvailabilityService;
+	private final HouseFacetService houseFacetService;
+	private final UserHouseMembershipService userHouseMembershipService;
 	
-	public HouseController(HouseService houseService, HouseRepository houseRepository, ReviewRepository reviewRepository, ReviewService reviewService,  FavoriteService favoriteService) {
+	public HouseController(HouseService houseService, HouseRepository houseRepository, HouseDetailService houseDetailService, HouseSearchService houseSearchService, HouseAvailabilityService houseAvailabilityService, HouseFacetService houseFacetService, UserHouseMembershipService userHouseMembershipService) {
 		this.houseService = houseService;
 		this.houseRepository = houseRepository;
-		this.reviewRepository = reviewRepository;
-		this.reviewService = reviewService;
-		this.favoriteService = favoriteService;
+		this.houseDetailService = houseDetailService;
+		this.houseSearchService = houseSearchService;
+		this.houseAvailabilityService = houseAvailabilityService;
+		this.houseFacetService = houseFacetService;
+		this.userHouseMembershipService = userHouseMembershipService;
 	}
 	
 	@GetMapping
 	public String index(@RequestParam(name = "keyword", required = false)String keyword,
 						@RequestParam(name = "area", required = false)String area,
 						@RequestParam(name = "price", required = false)Integer price,
+						@RequestParam(name = "capacity", required = false)Integer capacity,
+						@RequestParam(name = "checkin", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate checkin,
+						@RequestParam(name = "checkout", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate checkout,
 						@RequestParam(name = "order", required = false)String order,
+						@RequestParam(name = "cursor", required = false)String cursor,
 						@PageableDefault(page = 0, size = 10, sort = "id", direction = Direction.ASC) Pageable pageable,
+						@AuthenticationPrincipal UserDetailsImpl userDetailsImpl,
 						Model model) 
 	{
-		Page<House> housePage;
-		
-		if (keyword != null && !keyword.isEmpty()) {
-			if(order != null && order.equals("priceAsc")) {
-				housePage = houseRepository.findByNameLikeOrAddressLikeOrderByPriceAsc("%" + keyword + "%", "%" + keyword + "%", pageable);			
-			} else {
-				housePage = houseRepository.findByNameLikeOrAddressLikeOrderByCreatedAtDesc("%" + keyword + "%", "%" + keyword + "%", pageable);
-			}
-		} else if (area != null && !area.isEmpty()) {
-			if (order != null && order.equals("priceAsc")) {
-				housePage = houseRepository.findByAddressLikeOrderByPriceAsc("%" + area + "%", pageable);
-			} else {
-				housePage = houseRepository.findByAddressLikeOrderByCreatedAtDesc("%" + area + "%", pageable);
-			}
-		} else if(price != null) {
-			if (order != null && order.equals("priceAsc")) {
-				housePage = houseRepository.findByPriceLessThanEqualOrderByPriceAsc(price, pageable);
-			} else {
-				housePage = houseRepository.findByPriceLessThanEqualOrderByCreatedAtDesc(price, pageable);
-			}
-		} else {
-			if (order != null && order.equals("priceAsc")) {
-				housePage = houseRepository.findAllByOrderByPriceAsc(pageable);
-			} else {
-				housePage = houseRepository.findAllByOrderByCreatedAtDesc(pageable);
-			}
+		// キーワード・エリア・予算・人数・宿泊日・並び順は自由に組み合わせられる
+		HouseSearchCriteria criteria = new HouseSearchCriteria();
+		criteria.setMaxPrice(price);
+		criteria.setMinCapacity(capacity);
+		criteria.setOrder(order);
+		// キーワード・エリアはメモリ上の検索インデックスで民宿IDに絞り込んでからSQLの条件に加える
+		int[] houseIds = houseSearchService.findMatchingIds(keyword, area);
+		// サイドバーの件数はエリア・予算・人数を除いた条件(キーワード・宿泊日)の民宿から数える
+		int[] facetHouseIds = houseSearchService.findMatchingIds(keyword, null);
+		criteria.setHouseIds(houseIds);
+		// 宿泊日を指定した場合は、その日程に空いている民宿にSQLで絞り込む(reservation_nightsに夜が記録されていない民宿)
+		// サイドバーの件数だけは、空室インデックスでその日程に空いている民宿IDに絞り込んでから数える
+		if (checkin != null && checkout != null && checkin.isBefore(checkout)) {
+			criteria.setCheckinDate(checkin);
+			criteria.setCheckoutDate(checkout);
+			facetHouseIds = houseAvailabilityService.findAvailableHouseIds(facetHouseIds, checkin, checkout, null);
 		}
 		
-		model.addAttribute("housePage",housePage);
+		// エリア・予算・人数の選択肢ごとの件数
+		model.addAttribute("facetCounts", houseFacetService.count(facetHouseIds, area, price, capacity));
+		
 		model.addAttribute("keyword", keyword);
 		model.addAttribute("area",area);
 		model.addAttribute("price",price);
+		model.addAttribute("capacity", capacity);
+		model.addAttribute("checkin", checkin);
+		model.addAttribute("checkout", checkout);
 		model.addAttribute("order", order);
 		
+		// ログインしている場合は、カードごとのお気に入り表示にユーザーのお気に入りの民宿IDの集合を渡す(追加のクエリは発行しない)
+		if (userDetailsImpl != null) {
+			model.addAttribute("membership", userHouseMembershipService.getMembership(userDetailsImpl.getUser()));
+		}
+		
+		// cursorパラメータがある場合(空文字は先頭ページ)はキーセットページングで取得する。クローラーや無限スクロール向け
+		if (cursor != null) {
+			HouseCursorPage houseCursorPage = houseService.findHousesAfter(criteria, cursor, pageable.getPageSize());
+			model.addAttribute("houseCursorPage", houseCursorPage);
+			
+			return "houses/index";
+		}
+		
+		Page<HouseSummary> housePage = houseRepository.search(criteria, pageable);
+		model.addAttribute("housePage",housePage);
+		
 		return "houses/index";
 	}
 	
@@ -96,56 +120,28 @@ public class HouseController {
 						@AuthenticationPrincipal UserDetailsImpl userDetailsImpl, 
 						RedirectAttributes redirectAttributes,  
 						Model model) {
-		// IDで民宿を検索、必要な情報を取り出す(Houseを定義する) 
-		Optional<House> optionalHouse  = houseService.findHouseById(houseId);
+		// 民宿・最新レビュー・レビュー集計・ログインユーザーのお気に入り/レビュー状態をまとめて取得する
+		User user = userDetailsImpl != null ? userDetailsImpl.getUser() : null;
+		Optional<HouseDetail> optionalHouseDetail = houseDetailService.loadHouseDetail(houseId, user);
 		
 		// 民宿情報がもしないときの処理
-		if (optionalHouse.isEmpty()) {
+		if (optionalHouseDetail.isEmpty()) {
 			redirectAttributes.addFlashAttribute("error", "指定された民宿が見つかりません。");
 			return "redirect:/houses";
 		}
 		
-		// houseを使えるようにする
-		House house = optionalHouse.get();
-		boolean hasUserAlreadyReviewed = false; 
-		
-		Favorite favorite = null;
-		boolean isFavorite = false;
+		HouseDetail houseDetail = optionalHouseDetail.get();
 		
-		// ユーザーが存在する場合
-		if (userDetailsImpl != null) {
-			User user = userDetailsImpl.getUser();
-			// そのユーザーのレビューがあるかどうかチェックする
-			hasUserAlreadyReviewed = reviewService.hasUserAlreadyReviewed(house, user);
-			// ログインユーザーがその民宿をお気に入り登録しているかどうかチェック
-			isFavorite = favoriteService.isFavorite(house,user);
-			
-			if (isFavorite) {
-				favorite = favoriteService.findFavoriteByHouseAndUser(house, user);
-			} else {
-				// ユーザーではない場合エラーを表示してログインページにリダイレクト
-				redirectAttributes.addFlashAttribute("error", "ログインが必要です。");
-				return "redirect:/login"; 
-			}
-		}
-
-		model.addAttribute("favorite", favorite);
-		model.addAttribute("isFavorite", isFavorite);
 		// 取得した民宿情報(house)をビューに渡すためにModelに追加する
-		model.addAttribute("house", house);
-		model.addAttribute("hasUserAlreadyReviewed", hasUserAlreadyReviewed);
-
-		
-		// 特定の民宿に対する最新のレビュー6件だけを取得し、リスト形式で出力する。
-		// ページングが不要で6件固定のため戻り値にList<Review>を使う
-		List<Review> newReviews = reviewRepository.findTop6ByHouseOrderByCreatedAtDesc(house); 
-		model.addAttribute("newReviews", newReviews); 
-		
-		
-		// 指定したレビュー件数の取得する
-		// // 大量の件数に対応するためlong型にする(Spring Data JPAの仕様)
-		long totalReviewCount = reviewRepository.countByHouse(house);
-		model.addAttribute("totalReviewCount", totalReviewCount);  
+		model.addAttribute("house", houseDetail.getHouse());
+		model.addAttribute("favoriteId", houseDetail.getFavoriteId());
+		model.addAttribute("isFavorite", houseDetail.isFavorite());
+		model.addAttribute("hasUserAlreadyReviewed", houseDetail.isHasUserAlreadyReviewed());
+		// 特定の民宿に対する最新のレビュー6件
+		model.addAttribute("newReviews", houseDetail.getNewReviews());
+		// レビューの集計(件数・平均評価・星の数ごとの件数)
+		model.addAttribute("reviewStats", houseDetail.getReviewStats());
+		model.addAttribute("totalReviewCount", houseDetail.getReviewStats().getReviewCount());
 		
 		// ユーザーが予約するときに情報をいれるフォーム
 		model.addAttribute("reservationInputForm", new ReservationInputForm());
@@ -1,11 +1,13 @@
 package com.example.samuraitravel.controller;
 
 import java.time.LocalDate;
+import java.util.List;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort.Direction;
 import org.springframework.data.web.PageableDefault;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -15,16 +17,22 @@ import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import com.example.samuraitravel.dto.BookedRange;
+import com.example.samuraitravel.dto.ReservationHistory;
+import com.example.samuraitravel.dto.StayQuote;
 import com.example.samuraitravel.entity.House;
-import com.example.samuraitravel.entity.Reservation;
 import com.example.samuraitravel.entity.User;
 import com.example.samuraitravel.form.ReservationInputForm;
 import com.example.samuraitravel.form.ReservationRegisterForm;
 import com.example.samuraitravel.repository.HouseRepository;
 import com.example.samuraitravel.repository.ReservationRepository;
 import com.example.samuraitravel.security.UserDetailsImpl;
+import com.example.samuraitravel.service.HouseAvailabilityService;
+import com.example.samuraitravel.service.HousePricingService;
 import com.example.samuraitravel.service.ReservationService;
 import com.example.samuraitravel.service.StripeService;
 
@@ -36,19 +44,24 @@ public class ReservationController {
 	private final HouseRepository houseRepository;
 	private final ReservationService reservationService;
 	private final StripeService stripeService;
+	private final HouseAvailabilityService houseAvailabilityService;
+	private final HousePricingService housePricingService;
 	
-	public ReservationController(ReservationRepository reservationRepository, HouseRepository houseRepository, ReservationService reservationService, StripeService stripeService) {
+	public ReservationController(ReservationRepository reservationRepository, HouseRepository houseRepository, ReservationService reservationService, StripeService stripeService, HouseAvailabilityService houseAvailabilityService, HousePricingService housePricingService) {
 		this.reservationRepository = reservationRepository;
 		this.houseRepository = houseRepository;
 		this.reservationService = reservationService;
 		this.stripeService = stripeService;
+		this.houseAvailabilityService = houseAvailabilityService;
+		this.housePricingService = housePricingService;
 		
 	}
 	
 	@GetMapping("/reservations")
-	public String index(@AuthenticationPrincipal UserDetailsImpl userDetailsImpl, @PageableDefault(page = 0, size = 10, sort = "id", direction = Direction.ASC)Pageable pageable,Model model) {
+	public String index(@AuthenticationPrincipal UserDetailsImpl userDetailsImpl, @PageableDefault(page = 0, size = 10)Pageable pageable,Model model) {
 		User user = userDetailsImpl.getUser();
-		Page<Reservation> reservationPage = reservationRepository.findByUserOrderByCreatedAtDesc(user, pageable);
+		// 民宿を読み込まずに、予約した時点の民宿名・画像・料金を1回のクエリで取得する
+		Page<ReservationHistory> reservationPage = reservationRepository.findHistoryByUserId(user.getId(), pageable);
 		
 		model.addAttribute("reservationPage", reservationPage);
 		
@@ -73,6 +86,17 @@ public class ReservationController {
 			}
 		}
 		
+		// 選択した日程が予約を受け付ける期間内か、すでに予約で埋まっている夜が含まれていないかチェックする
+		if(!bindingResult.hasFieldErrors("fromCheckinDateToCheckoutDate")) {
+			if(!housePricingService.isBookable(reservationInputForm.getCheckinDate(), reservationInputForm.getCheckoutDate())) {
+				FieldError fieldError = new FieldError(bindingResult.getObjectName(), "fromCheckinDateToCheckoutDate", "選択した日程は予約できません。");
+				bindingResult.addError(fieldError);
+			} else if(!houseAvailabilityService.isAvailableInDatabase(id, reservationInputForm.getCheckinDate(), reservationInputForm.getCheckoutDate())) {
+				FieldError fieldError = new FieldError(bindingResult.getObjectName(), "fromCheckinDateToCheckoutDate", "選択した日程にはすでに予約が入っています。");
+				bindingResult.addError(fieldError);
+			}
+		}
+		
 		if(bindingResult.hasErrors()) {
 			model.addAttribute("house", house);
 			model.addAttribute("errorMessage", "予約内容に不備があります。");
@@ -84,11 +108,33 @@ public class ReservationController {
 		
 	}
 	
+	// 予約フォームのカレンダーで選べなくする日(予約で埋まっている夜)を返す
+	@GetMapping("/houses/{id}/reservations/booked-ranges")
+	@ResponseBody
+	public List<BookedRange> bookedRanges(@PathVariable(name = "id") Integer id) {
+		return houseAvailabilityService.findBookedRanges(id);
+	}
+	
+	// 予約フォームのカレンダーに表示する、今日から90日分の1泊の料金と、checkin(指定した場合)からの宿泊料金
+	@GetMapping("/houses/{id}/reservations/quotes")
+	@ResponseBody
+	public ResponseEntity<List<StayQuote>> quotes(@PathVariable(name = "id") Integer id,
+													@RequestParam(name = "checkin", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate checkin)
+	{
+		// チェックイン日はカレンダーで選べる期間に限る(誰でも呼び出せるため、遠い日付で料金の計算を長引かせない)
+		LocalDate today = LocalDate.now();
+		if (checkin != null && (checkin.isBefore(today) || checkin.isAfter(today.plusDays(HousePricingService.QUOTE_DAYS)))) {
+			return ResponseEntity.badRequest().build();
+		}
+		return ResponseEntity.ok(housePricingService.quote(id, checkin, today, HousePricingService.QUOTE_DAYS));
+	}
+	
 	@GetMapping("/houses/{id}/reservations/confirm")
 	public String confirm(@PathVariable(name = "id") Integer id,
 							@ModelAttribute ReservationInputForm reservationInputForm,
 							@AuthenticationPrincipal UserDetailsImpl userDetailsImpl,
 							HttpServletRequest httpServletRequest,
+							RedirectAttributes redirectAttributes,
 							Model model)
 	{
 		House house = houseRepository.getReferenceById(id);
@@ -98,9 +144,21 @@ public class ReservationController {
 		LocalDate checkinDate = reservationInputForm.getCheckinDate();
 		LocalDate checkoutDate = reservationInputForm.getCheckoutDate();
 		
-		// 宿泊料金を計算する
-		Integer price = house.getPrice();
-		Integer amount = reservationService.calculateAmount(checkinDate, checkoutDate, price);
+		// 予約フォームを通さずに日程を指定された場合も、受け付ける期間の外の日程は料金を計算せずに民宿の詳細ページに戻す
+		if (!housePricingService.isBookable(checkinDate, checkoutDate)) {
+			redirectAttributes.addFlashAttribute("errorMessage", "選択した日程は予約できません。");
+			return "redirect:/houses/{id}";
+		}
+		
+		// 予約の入力から確認までの間に他の予約で埋まっていないか、決済画面を作る前にもう一度確かめる
+		// (決済の後に重なった場合はStripeServiceが返金する)
+		if (!houseAvailabilityService.isAvailableInDatabase(id, checkinDate, checkoutDate)) {
+			redirectAttributes.addFlashAttribute("errorMessage", "選択した日程にはすでに予約が入っています。");
+			return "redirect:/houses/{id}";
+		}
+		
+		// 宿泊料金を計算する(期間・曜日ごとの料金ルールを反映する)
+		Integer amount = housePricingService.calculateAmount(id, checkinDate, checkoutDate);
 		
 		ReservationRegisterForm reservationRegisterForm = new ReservationRegisterForm(house.getId(), user.getId(), checkinDate.toString(), checkoutDate.toString(), reservationInputForm.getNumberOfPeople(), amount);
 		
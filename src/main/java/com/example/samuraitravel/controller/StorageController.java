@@ -0,0 +1,198 @@
+package com.example.samuraitravel.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Controller;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import com.example.samuraitravel.service.HouseImageStorage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+// /storage/**(民宿画像)の配信
+// 保存先のディレクトリ(samuraitravel.storage.root)から探し、なければjarに同梱した初期データの画像(static/storage)を返す
+// ファイルの中身はヒープにコピーせず、Tomcatのsendfileか FileChannel.transferTo() でそのまま送る
+@Controller
+public class StorageController {
+	private static final Pattern IMAGE_NAME = Pattern.compile("[A-Za-z0-9][A-Za-z0-9._-]*");
+	private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+	// ファイル名は中身のハッシュのため、同じURLの中身が変わることはない
+	private static final String CACHE_CONTROL = CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable().getHeaderValue();
+	
+	private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+	private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+	private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+	private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+	
+	private final HouseImageStorage houseImageStorage;
+	
+	private final AtomicInteger openFiles = new AtomicInteger();
+	private final Counter sentBytesCounter;
+	
+	public StorageController(HouseImageStorage houseImageStorage, MeterRegistry meterRegistry) {
+		this.houseImageStorage = houseImageStorage;
+		meterRegistry.gauge("samuraitravel.storage.open_files", openFiles);
+		this.sentBytesCounter = meterRegistry.counter("samuraitravel.storage.sent_bytes");
+	}
+	
+	@GetMapping("/storage/{imageName:.+}")
+	public void serve(@PathVariable(name = "imageName") String imageName, HttpServletRequest request, HttpServletResponse response) throws IOException {
+		Resource resource = findImage(imageName);
+		if (resource == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		
+		long length = resource.contentLength();
+		String etag = etagOf(imageName);
+		response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL);
+		response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+		
+		// If-None-Match・If-Modified-Sinceに一致すれば304を返す(ETagとLast-Modifiedのヘッダーもここで付く)
+		if (new ServletWebRequest(request, response).checkNotModified(etag, resource.lastModified())) {
+			return;
+		}
+		
+		long start = 0;
+		long end = length - 1;
+		String range = request.getHeader(HttpHeaders.RANGE);
+		if (range != null && matchesIfRange(request, etag)) {
+			long[] requestedRange = parseRange(range, length);
+			if (requestedRange == null) {
+				response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+				response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
+			if (requestedRange.length == 2) {
+				start = requestedRange[0];
+				end = requestedRange[1];
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+			}
+		}
+		
+		long count = end - start + 1;
+		response.setContentType(MediaTypeFactory.getMediaType(imageName).orElse(MediaType.APPLICATION_OCTET_STREAM).toString());
+		response.setContentLengthLong(count);
+		if ("HEAD".equals(request.getMethod()) || count <= 0) {
+			return;
+		}
+		
+		if (resource.isFile()) {
+			sendFile(resource.getFile().toPath(), start, count, request, response);
+		} else {
+			// jarの中の画像はファイルとして開けないため、固定長のバッファで必要な範囲だけコピーする
+			try (InputStream inputStream = resource.getInputStream()) {
+				StreamUtils.copyRange(inputStream, response.getOutputStream(), start, end);
+			}
+			sentBytesCounter.increment(count);
+		}
+	}
+	
+	private Resource findImage(String imageName) {
+		if (!IMAGE_NAME.matcher(imageName).matches()) {
+			return null;
+		}
+		
+		Path path = houseImageStorage.resolve(imageName);
+		if (path != null && Files.isRegularFile(path)) {
+			return new FileSystemResource(path);
+		}
+		
+		Resource bundledImage = new ClassPathResource("static/storage/" + imageName);
+		return bundledImage.exists() ? bundledImage : null;
+	}
+	
+	// Tomcatがsendfileに対応していれば任せ(カーネル内でソケットに送られる)、そうでなければtransferTo()で送る
+	private void sendFile(Path path, long start, long count, HttpServletRequest request, HttpServletResponse response) throws IOException {
+		if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+			request.setAttribute(SENDFILE_FILENAME, path.toRealPath().toString());
+			request.setAttribute(SENDFILE_START, start);
+			request.setAttribute(SENDFILE_END, start + count);
+			sentBytesCounter.increment(count);
+			return;
+		}
+		
+		openFiles.incrementAndGet();
+		try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+			WritableByteChannel outputChannel = Channels.newChannel(response.getOutputStream());
+			long position = start;
+			long remaining = count;
+			while (remaining > 0) {
+				long transferred = fileChannel.transferTo(position, remaining, outputChannel);
+				if (transferred <= 0) {
+					break;
+				}
+				position += transferred;
+				remaining -= transferred;
+			}
+			sentBytesCounter.increment(count - remaining);
+		} finally {
+			openFiles.decrementAndGet();
+		}
+	}
+	
+	// ETagは拡張子を除いたファイル名(中身のハッシュ)
+	private static String etagOf(String imageName) {
+		int dot = imageName.lastIndexOf('.');
+		return "\"" + (dot > 0 ? imageName.substring(0, dot) : imageName) + "\"";
+	}
+	
+	// If-Rangeがない場合と、ETagが一致する場合だけRangeに従う(日付での指定は全体を返す)
+	private static boolean matchesIfRange(HttpServletRequest request, String etag) {
+		String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+		return ifRange == null || ifRange.equals(etag);
+	}
+	
+	// 「bytes=開始-終了」「bytes=開始-」「bytes=-末尾からの長さ」の1範囲だけに対応する
+	// [開始, 終了]を返す。満たせない範囲の場合はnull、解釈できない指定(複数範囲など)の場合は空の配列を返す(全体を返す)
+	private static long[] parseRange(String range, long length) {
+		Matcher matcher = RANGE.matcher(range.trim());
+		if (!matcher.matches() || (matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+			return new long[0];
+		}
+		
+		try {
+			if (matcher.group(1).isEmpty()) {
+				long suffixLength = Long.parseLong(matcher.group(2));
+				if (suffixLength == 0 || length == 0) {
+					return null;
+				}
+				return new long[] { Math.max(0, length - suffixLength), length - 1 };
+			}
+			
+			long start = Long.parseLong(matcher.group(1));
+			long end = matcher.group(2).isEmpty() ? length - 1 : Math.min(Long.parseLong(matcher.group(2)), length - 1);
+			if (start >= length || start > end) {
+				return null;
+			}
+			return new long[] { start, end };
+		} catch (NumberFormatException e) {
+			return new long[0];
+		}
+	}
+}
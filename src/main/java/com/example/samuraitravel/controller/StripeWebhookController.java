@@ -1,6 +1,5 @@
 package com.example.samuraitravel.controller;
 
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
@@ -8,39 +7,34 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 
-import com.example.samuraitravel.service.StripeService;
-import com.stripe.Stripe;
+import com.example.samuraitravel.service.StripeGateway;
+import com.example.samuraitravel.service.StripeWebhookInbox;
 import com.stripe.exception.SignatureVerificationException;
 import com.stripe.model.Event;
-import com.stripe.net.Webhook;
 
 @Controller
 public class StripeWebhookController {
-	private final StripeService stripeService;
+	private final StripeGateway stripeGateway;
+	private final StripeWebhookInbox stripeWebhookInbox;
 	
-	@Value("${stripe.api-key}")
-	private String stripeApiKey;
-	
-	@Value("${stripe.webhook-secret}")
-	private String webhookSecret;
-	
-	public StripeWebhookController(StripeService stripeService) {
-		this.stripeService = stripeService;
+	public StripeWebhookController(StripeGateway stripeGateway, StripeWebhookInbox stripeWebhookInbox) {
+		this.stripeGateway = stripeGateway;
+		this.stripeWebhookInbox = stripeWebhookInbox;
 	}
 	
 	@PostMapping("/stripe/webhook")
     public ResponseEntity<String> webhook(@RequestBody String payload, @RequestHeader("Stripe-Signature") String sigHeader){
-		Stripe.apiKey = stripeApiKey;
 		Event event = null;
 		
 		try {
-			event = Webhook.constructEvent(payload, sigHeader, webhookSecret);
+			event = stripeGateway.constructEvent(payload, sigHeader);
 		}catch (SignatureVerificationException e) {
 			return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
 		}
 		
+		// 受信箱に保存した時点で応答し、予約の登録はワーカーに任せる(Stripeは応答が遅いと再送してくる)
 		if("checkout.session.completed".equals(event.getType())) {
-			stripeService.processSessionCompleted(event);
+			stripeWebhookInbox.receive(event, payload);
 		}
 		
 		return new ResponseEntity<>("Success", HttpStatus.OK);
@@ -14,24 +14,24 @@ import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 import com.example.samuraitravel.entity.User;
 import com.example.samuraitravel.form.UserEditForm;
-import com.example.samuraitravel.repository.UserRepository;
 import com.example.samuraitravel.security.UserDetailsImpl;
+import com.example.samuraitravel.service.UserPrincipalCache;
 import com.example.samuraitravel.service.UserService;
 
 @Controller
 @RequestMapping("/user")
 public class UserController {
-	private final UserRepository userRepository;
+	private final UserPrincipalCache userPrincipalCache;
 	private final UserService userService;
 	
-	public UserController(UserRepository userRepository,UserService userService) {
-		this.userRepository = userRepository;
+	public UserController(UserPrincipalCache userPrincipalCache,UserService userService) {
+		this.userPrincipalCache = userPrincipalCache;
 		this.userService = userService;
 	}
 	
 	@GetMapping
 	public String index(@AuthenticationPrincipal UserDetailsImpl userDetailsImpl,Model model) {
-		User user = userRepository.getReferenceById(userDetailsImpl.getUser().getId());
+		User user = userPrincipalCache.findById(userDetailsImpl.getUser().getId());
 		
 		model.addAttribute("user",user);
 		
@@ -40,7 +40,7 @@ public class UserController {
 	
 	@GetMapping("/edit")
 	public String edit(@AuthenticationPrincipal UserDetailsImpl userDetailsImpl, Model model) {
-		User user = userRepository.getReferenceById(userDetailsImpl.getUser().getId());
+		User user = userPrincipalCache.findById(userDetailsImpl.getUser().getId());
 		UserEditForm userEditForm = new UserEditForm(user.getId(), user.getName(), user.getFurigana(), user.getPostalCode(), user.getAddress(), user.getPhoneNumber(), user.getEmail());
 		
 		model.addAttribute("userEditForm",userEditForm);
@@ -0,0 +1,8 @@
+package com.example.samuraitravel.dto;
+
+import java.time.LocalDate;
+
+// 予約で埋まっている連続した宿泊日(fromからtoまでの各日の夜。toも含む)
+// 予約フォームのカレンダー(flatpickr)のdisableにそのまま渡せる形
+public record BookedRange(LocalDate from, LocalDate to) {
+}
@@ -0,0 +1,42 @@
+package com.example.samuraitravel.dto;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Optional;
+
+// 民宿一覧のキーセット(シーク)ページング用のカーソル
+// 並び順のキー(新着順なら作成日時、料金順なら料金、評価順なら平均評価)と民宿IDの組を、中身を意識させない文字列にして受け渡す
+public record HouseCursor(HouseOrder order, long key, int id) {
+	
+	// 最後に表示した民宿から次ページ用のカーソルを作る
+	public static HouseCursor after(HouseSummary house, HouseOrder order) {
+		long key = switch (order) {
+			case PRICE_ASC -> house.getPrice();
+			case RATING_DESC -> HouseOrder.ratingKey(house.getReviewCount(), house.getRatingSum());
+			default -> house.getCreatedAt().getTime();
+		};
+		return new HouseCursor(order, key, house.getId());
+	}
+	
+	public String encode() {
+		String value = order.getCode() + ":" + key + ":" + id;
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	// 文字列からカーソルを復元する。空文字や壊れたカーソル、並び順が一致しないカーソルは先頭ページとして扱う
+	public static Optional<HouseCursor> decode(String cursor, HouseOrder order) {
+		if (cursor == null || cursor.isEmpty()) {
+			return Optional.empty();
+		}
+		
+		try {
+			String[] values = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+			if (values.length != 3 || !values[0].equals(order.getCode())) {
+				return Optional.empty();
+			}
+			return Optional.of(new HouseCursor(order, Long.parseLong(values[1]), Integer.parseInt(values[2])));
+		} catch (IllegalArgumentException e) {
+			return Optional.empty();
+		}
+	}
+}
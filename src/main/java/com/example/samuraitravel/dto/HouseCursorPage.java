@@ -0,0 +1,21 @@
+package com.example.samuraitravel.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+// キーセットページングで取得した民宿一覧の1ページ分
+// 総件数は数えず、次のページがあるかどうかと次ページ用のカーソルだけを持つ
+@Getter
+@AllArgsConstructor
+public class HouseCursorPage {
+	private List<HouseSummary> content;
+	
+	// 次のページがない場合はnull
+	private String nextCursor;
+	
+	public boolean hasNext() {
+		return nextCursor != null;
+	}
+}
@@ -0,0 +1,40 @@
+package com.example.samuraitravel.dto;
+
+import java.util.List;
+
+import com.example.samuraitravel.entity.House;
+import com.example.samuraitravel.entity.HouseReviewStats;
+import com.example.samuraitravel.entity.Review;
+
+import lombok.Getter;
+
+// 民宿詳細ページの表示に必要な情報をまとめたもの(HouseDetailServiceが作る)
+// 作ったあとは変更しない
+@Getter
+public class HouseDetail {
+	private final House house;
+	
+	// 最新のレビュー6件(投稿者を取得済み)
+	private final List<Review> newReviews;
+	
+	// レビューの集計。レビューがない民宿は件数0の集計
+	private final HouseReviewStats reviewStats;
+	
+	// 閲覧しているユーザーのお気に入りのID。お気に入り登録していない場合と未ログインの場合はnull
+	private final Integer favoriteId;
+	
+	// 閲覧しているユーザーがレビューを投稿済みかどうか。未ログインの場合はfalse
+	private final boolean hasUserAlreadyReviewed;
+	
+	public HouseDetail(House house, List<Review> newReviews, HouseReviewStats reviewStats, Integer favoriteId, boolean hasUserAlreadyReviewed) {
+		this.house = house;
+		this.newReviews = List.copyOf(newReviews);
+		this.reviewStats = reviewStats;
+		this.favoriteId = favoriteId;
+		this.hasUserAlreadyReviewed = hasUserAlreadyReviewed;
+	}
+	
+	public boolean isFavorite() {
+		return favoriteId != null;
+	}
+}
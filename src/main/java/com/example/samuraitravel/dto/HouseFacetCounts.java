@@ -0,0 +1,29 @@
+package com.example.samuraitravel.dto;
+
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+
+// 民宿一覧のサイドバーの選択肢ごとの件数(HouseFacetServiceが作る)
+// それぞれの件数は、その選択肢以外の条件(キーワード・宿泊日・ほかの選択肢)をそのまま適用したときの検索結果の件数
+@AllArgsConstructor
+public class HouseFacetCounts {
+	// 都道府県 → 件数
+	private final Map<String, Integer> areaCounts;
+	// 1泊あたりの予算(〇円以内) → 件数
+	private final Map<Integer, Integer> priceCounts;
+	// 宿泊人数(〇名以上) → 件数
+	private final Map<Integer, Integer> capacityCounts;
+	
+	public int getAreaCount(String area) {
+		return areaCounts.getOrDefault(area, 0);
+	}
+	
+	public int getPriceCount(int price) {
+		return priceCounts.getOrDefault(price, 0);
+	}
+	
+	public int getCapacityCount(int capacity) {
+		return capacityCounts.getOrDefault(capacity, 0);
+	}
+}
@@ -0,0 +1,39 @@
+package com.example.samuraitravel.dto;
+
+// 民宿一覧の並び順
+// codeはキーセットページングのカーソルに埋め込み、別の並び順のカーソルを取り違えないようにするために使う
+public enum HouseOrder {
+	CREATED_AT_DESC("c"),
+	PRICE_ASC("p"),
+	RATING_DESC("r");
+	
+	private final String code;
+	
+	private HouseOrder(String code) {
+		this.code = code;
+	}
+	
+	public String getCode() {
+		return code;
+	}
+	
+	// リクエストパラメータのorder(priceAsc, ratingDesc, それ以外は新着順)から並び順を決める
+	public static HouseOrder from(String order) {
+		if ("priceAsc".equals(order)) {
+			return PRICE_ASC;
+		}
+		if ("ratingDesc".equals(order)) {
+			return RATING_DESC;
+		}
+		return CREATED_AT_DESC;
+	}
+	
+	// 評価順で並べるときのキー。平均評価を100万倍した整数(小数点以下切り捨て)で、レビューがなければ0
+	// house_review_stats.rating_key(「rating_sum * 1000000 DIV review_count」の生成列)と同じ値になるよう整数で計算する
+	public static long ratingKey(Integer reviewCount, Integer ratingSum) {
+		if (reviewCount == null || reviewCount == 0 || ratingSum == null) {
+			return 0L;
+		}
+		return ratingSum * 1_000_000L / reviewCount;
+	}
+}
@@ -0,0 +1,29 @@
+package com.example.samuraitravel.dto;
+
+import java.time.LocalDate;
+
+import lombok.Data;
+
+// 民宿一覧の検索条件。指定されていない(null)条件は絞り込みに使わない
+@Data
+public class HouseSearchCriteria {
+	// キーワード・エリアを検索インデックスで絞り込んだ民宿ID(nullなら絞り込まない)
+	private int[] houseIds;
+	
+	// 1泊あたりの予算(この金額以下)
+	private Integer maxPrice;
+	
+	// 宿泊人数(定員がこの人数以上)
+	private Integer minCapacity;
+	
+	// 宿泊日(チェックイン日からチェックアウト日の前日までの夜が空いている民宿に絞り込む。どちらかがnullなら絞り込まない)
+	private LocalDate checkinDate;
+	private LocalDate checkoutDate;
+	
+	// 並び順(priceAscなら料金の安い順、ratingDescなら評価の高い順、それ以外は新着順)
+	private String order;
+	
+	public HouseOrder getHouseOrder() {
+		return HouseOrder.from(order);
+	}
+}
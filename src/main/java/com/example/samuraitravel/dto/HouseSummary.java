@@ -0,0 +1,43 @@
+package com.example.samuraitravel.dto;
+
+import java.sql.Timestamp;
+
+// 民宿一覧・検索・トップページのカード表示に必要な項目だけを持つ読み取り専用の型
+// Spring Data JPAのインターフェースベースのプロジェクションとして使い、予約・レビュー・お気に入りは読み込まない
+public interface HouseSummary {
+	public Integer getId();
+	public String getName();
+	public String getImageName();
+	public Boolean getImageVariantsReady();
+	public String getDescription();
+	public Integer getPrice();
+	public Integer getCapacity();
+	public String getPostalCode();
+	public String getAddress();
+	public String getPhoneNumber();
+	public Timestamp getCreatedAt();
+	
+	// レビューの件数と評価の合計(house_review_statsを結合しない取得方法ではnull)
+	public default Integer getReviewCount() {
+		return null;
+	}
+	
+	public default Integer getRatingSum() {
+		return null;
+	}
+	
+	// variant("thumbnail"・"card"・"detail")のサイズ違いの画像のファイル名(まだできていない場合は元画像)
+	public default String getImageNameFor(String variant) {
+		return ImageVariant.imageNameFor(getImageName(), getImageVariantsReady(), variant);
+	}
+	
+	// 平均評価(レビューがない場合はnull)
+	public default Double getAverageRating() {
+		Integer reviewCount = getReviewCount();
+		Integer ratingSum = getRatingSum();
+		if (reviewCount == null || reviewCount == 0 || ratingSum == null) {
+			return null;
+		}
+		return (double)ratingSum / reviewCount;
+	}
+}
@@ -0,0 +1,31 @@
+package com.example.samuraitravel.dto;
+
+import java.sql.Timestamp;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+// HouseSummaryの実装クラス。ネイティブクエリの結果など、Spring Data JPAのプロジェクションを使えない場合に使う
+@Getter
+@AllArgsConstructor
+public class HouseSummaryView implements HouseSummary {
+	private Integer id;
+	private String name;
+	private String imageName;
+	private Boolean imageVariantsReady;
+	private String description;
+	private Integer price;
+	private Integer capacity;
+	private String postalCode;
+	private String address;
+	private String phoneNumber;
+	private Timestamp createdAt;
+	private Integer reviewCount;
+	private Integer ratingSum;
+	
+	// プロジェクションの値をコピーして、トランザクションの外でも安全に使い回せるようにする
+	public static HouseSummaryView of(HouseSummary house) {
+		return new HouseSummaryView(house.getId(), house.getName(), house.getImageName(), house.getImageVariantsReady(), house.getDescription(), house.getPrice(), house.getCapacity(),
+				house.getPostalCode(), house.getAddress(), house.getPhoneNumber(), house.getCreatedAt(), house.getReviewCount(), house.getRatingSum());
+	}
+}
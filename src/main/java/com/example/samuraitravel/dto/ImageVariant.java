@@ -0,0 +1,41 @@
+package com.example.samuraitravel.dto;
+
+// 民宿画像のサイズ違い(HouseImagePipelineが元画像から作る)
+// ファイル名は元画像の拡張子を除いた名前に「-サイズ名.jpg」を付けたもの(例: abc.png → abc-card.jpg)
+public enum ImageVariant {
+	THUMBNAIL("thumbnail", 160),
+	CARD("card", 480),
+	DETAIL("detail", 1280);
+	
+	private final String suffix;
+	private final int width;
+	
+	private ImageVariant(String suffix, int width) {
+		this.suffix = suffix;
+		this.width = width;
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+	
+	public String fileNameOf(String imageName) {
+		int dot = imageName.lastIndexOf('.');
+		String baseName = dot > 0 ? imageName.substring(0, dot) : imageName;
+		return baseName + "-" + suffix + ".jpg";
+	}
+	
+	// テンプレートから使う。サイズ違いがまだできていない場合は元画像のファイル名を返す
+	// variantには"thumbnail"・"card"・"detail"のいずれかを渡す
+	public static String imageNameFor(String imageName, Boolean variantsReady, String variant) {
+		if (imageName == null || !Boolean.TRUE.equals(variantsReady)) {
+			return imageName;
+		}
+		for (ImageVariant imageVariant : values()) {
+			if (imageVariant.suffix.equals(variant)) {
+				return imageVariant.fileNameOf(imageName);
+			}
+		}
+		return imageName;
+	}
+}
@@ -0,0 +1,24 @@
+package com.example.samuraitravel.dto;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+// 予約一覧の1行。民宿名・画像・料金は予約した時点のもの(ReservationRepositoryCustomのfindHistoryByUserId()で取得する)
+@Getter
+@AllArgsConstructor
+public class ReservationHistory {
+	private Integer id;
+	private Integer houseId;
+	private String houseName;
+	// サムネイルができていればサムネイルのファイル名
+	private String houseImageName;
+	private Integer housePrice;
+	private LocalDate checkinDate;
+	private LocalDate checkoutDate;
+	private Integer numberOfPeople;
+	private Integer amount;
+	private Timestamp createdAt;
+}
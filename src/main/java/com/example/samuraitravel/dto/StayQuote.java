@@ -0,0 +1,8 @@
+package com.example.samuraitravel.dto;
+
+import java.time.LocalDate;
+
+// 予約フォームのカレンダーに表示する1日分の料金
+// priceはdateの夜の1泊の料金、amountはチェックイン日からdateにチェックアウトした場合の宿泊料金(チェックイン日を指定しない場合や、dateがチェックイン日以前の場合はnull)
+public record StayQuote(LocalDate date, int price, Integer amount) {
+}
@@ -3,6 +3,10 @@ package com.example.samuraitravel.entity;
 import java.sql.Timestamp;
 import java.util.List;
 
+import org.hibernate.annotations.BatchSize;
+
+import com.example.samuraitravel.dto.ImageVariant;
+
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
@@ -19,7 +23,7 @@ import lombok.ToString;
 @Entity
 @Table(name = "houses")
 @Data
-@ToString(exclude = {"reservations", "reviews"})
+@ToString(exclude = {"reservations", "reviews", "favorites"})
 public class House {
 	@Id
 	@GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -32,6 +36,10 @@ public class House {
 	@Column(name = "image_name")
 	private String imageName;
 	
+	// 画像のサイズ違い(ImageVariant)ができているかどうか
+	@Column(name = "image_variants_ready")
+	private Boolean imageVariantsReady;
+	
 	@Column(name = "description")
 	private String description;
 	
@@ -56,15 +64,23 @@ public class House {
 	@Column(name = "updated_at", insertable = false, updatable = false)
 	private Timestamp updatedAt;
 	
-	// 1つのHouseに対して複数のReservation。民宿を取り出したときに紐づく予約もすぐに一緒に取り出す
+	// 1つのHouseに対して複数のReservation。一覧表示で大量の子レコードを読み込まないよう、必要になったときにまとめて取り出す
 	// 民宿が削除されたらその民宿も一緒に削除される
-	@OneToMany(mappedBy = "house", fetch = FetchType.EAGER, cascade = CascadeType.REMOVE)
+	@OneToMany(mappedBy = "house", fetch = FetchType.LAZY, cascade = CascadeType.REMOVE)
+	@BatchSize(size = 20)
 	private List<Reservation> reservations;
-	// 1つのHouseに対して複数のReview。民宿を取り出したときにひもづくレビューもすぐに一緒に取り出す
+	// 1つのHouseに対して複数のReview。必要になったときにまとめて取り出す
 	// 民宿が削除されたらそのレビューも一緒に削除される
-	@OneToMany(mappedBy = "house", fetch = FetchType.EAGER, cascade = CascadeType.REMOVE)
+	@OneToMany(mappedBy = "house", fetch = FetchType.LAZY, cascade = CascadeType.REMOVE)
+	@BatchSize(size = 20)
 	private List<Review> reviews;
 	
-	@OneToMany(mappedBy = "house", fetch = FetchType.EAGER, cascade = CascadeType.REMOVE)
+	@OneToMany(mappedBy = "house", fetch = FetchType.LAZY, cascade = CascadeType.REMOVE)
+	@BatchSize(size = 20)
 	private List<Favorite> favorites; 
+	
+	// テンプレートから使う。variant("thumbnail"・"card"・"detail")のサイズ違いの画像のファイル名を返す
+	public String getImageNameFor(String variant) {
+		return ImageVariant.imageNameFor(imageName, imageVariantsReady, variant);
+	}
 }
@@ -0,0 +1,57 @@
+package com.example.samuraitravel.entity;
+
+import java.sql.Timestamp;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Data;
+
+// 民宿の1泊の料金を期間・曜日ごとに変えるルール(繁忙期・週末料金など)
+// 当てはまるルールがない夜は民宿の宿泊料金になり、複数のルールが当てはまる夜は後から追加したルールの料金になる
+@Entity
+@Table(name = "house_price_rules")
+@Data
+public class HousePriceRule {
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@Column(name = "id")
+	private Integer id;
+	
+	@Column(name = "house_id")
+	private Integer houseId;
+	
+	// 適用する最初の夜と最後の夜(どちらも含む)。nullの場合は期限なし
+	@Column(name = "start_date")
+	private LocalDate startDate;
+	
+	@Column(name = "end_date")
+	private LocalDate endDate;
+	
+	// 適用する曜日。月曜日を1ビット目、日曜日を7ビット目とするビットの集まりで、0の場合は毎日
+	@Column(name = "days_of_week")
+	private Integer daysOfWeek = 0;
+	
+	@Column(name = "price")
+	private Integer price;
+	
+	@Column(name = "created_at", insertable = false, updatable = false)
+	private Timestamp createdAt;
+	
+	@Column(name = "updated_at", insertable = false, updatable = false)
+	private Timestamp updatedAt;
+	
+	public static int bitOf(DayOfWeek dayOfWeek) {
+		return 1 << (dayOfWeek.getValue() - 1);
+	}
+	
+	// テンプレートから使う
+	public boolean appliesOn(DayOfWeek dayOfWeek) {
+		return daysOfWeek == 0 || (daysOfWeek & bitOf(dayOfWeek)) != 0;
+	}
+}
@@ -0,0 +1,65 @@
+package com.example.samuraitravel.entity;
+
+import java.sql.Timestamp;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Data;
+
+// 民宿ごとのレビュー集計(件数・評価の合計・星の数ごとの件数)
+// レビューの投稿・編集・削除と同じトランザクションでReviewServiceが更新する
+@Entity
+@Table(name = "house_review_stats")
+@Data
+public class HouseReviewStats {
+	@Id
+	@Column(name = "house_id")
+	private Integer houseId;
+	
+	@Column(name = "review_count")
+	private Integer reviewCount = 0;
+	
+	@Column(name = "rating_sum")
+	private Integer ratingSum = 0;
+	
+	@Column(name = "star1_count")
+	private Integer star1Count = 0;
+	
+	@Column(name = "star2_count")
+	private Integer star2Count = 0;
+	
+	@Column(name = "star3_count")
+	private Integer star3Count = 0;
+	
+	@Column(name = "star4_count")
+	private Integer star4Count = 0;
+	
+	@Column(name = "star5_count")
+	private Integer star5Count = 0;
+	
+	// 評価順のキー(MySQLが生成する列)
+	@Column(name = "rating_key", insertable = false, updatable = false)
+	private Long ratingKey;
+	
+	@Column(name = "updated_at", insertable = false, updatable = false)
+	private Timestamp updatedAt;
+	
+	// 平均評価を返す(レビューがない場合は0)
+	public double getAverageRating() {
+		return reviewCount == 0 ? 0 : (double)ratingSum / reviewCount;
+	}
+	
+	// 指定した星の数(1～5)のレビュー件数を返す
+	public int getStarCount(int rating) {
+		return switch (rating) {
+			case 1 -> star1Count;
+			case 2 -> star2Count;
+			case 3 -> star3Count;
+			case 4 -> star4Count;
+			case 5 -> star5Count;
+			default -> 0;
+		};
+	}
+}
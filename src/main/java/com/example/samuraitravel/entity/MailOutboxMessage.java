@@ -0,0 +1,59 @@
+package com.example.samuraitravel.entity;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Data;
+
+// 送信待ちのメール(送信箱)
+// メールを送る処理ではこの行を保存するだけで、SMTPサーバーへの送信はコミット後にMailOutboxのワーカーが行う
+@Entity
+@Table(name = "mail_outbox")
+@Data
+public class MailOutboxMessage {
+	// 送信待ち(再試行待ちを含む)・送信済み・再試行の上限に達した
+	public static final String STATUS_PENDING = "PENDING";
+	public static final String STATUS_SENT = "SENT";
+	public static final String STATUS_FAILED = "FAILED";
+	
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@Column(name = "id")
+	private Long id;
+	
+	@Column(name = "sender")
+	private String sender;
+	
+	@Column(name = "recipient")
+	private String recipient;
+	
+	@Column(name = "subject")
+	private String subject;
+	
+	@Column(name = "body")
+	private String body;
+	
+	@Column(name = "status")
+	private String status;
+	
+	@Column(name = "attempts")
+	private Integer attempts = 0;
+	
+	// この時刻を過ぎたら送信してよい。送信中は他のワーカーが取らないよう先の時刻にしておく
+	@Column(name = "next_attempt_at")
+	private LocalDateTime nextAttemptAt;
+	
+	@Column(name = "last_error")
+	private String lastError;
+	
+	@Column(name = "created_at")
+	private LocalDateTime createdAt;
+	
+	@Column(name = "sent_at")
+	private LocalDateTime sentAt;
+}
@@ -42,6 +42,21 @@ public class Reservation {
 	@Column(name = "amount")
 	private Integer amount;
 	
+	// 決済したStripeのCheckoutセッションのID(同じ決済から予約が二重に登録されないよう一意にしている)
+	@Column(name = "stripe_session_id")
+	private String stripeSessionId;
+	
+	// 予約した時点の民宿名・画像(サムネイル)・料金。予約一覧は民宿を読み込まずにこれらを表示する
+	// 列を追加する前に登録された予約ではnullになる
+	@Column(name = "house_name")
+	private String houseName;
+	
+	@Column(name = "house_image_name")
+	private String houseImageName;
+	
+	@Column(name = "house_price")
+	private Integer housePrice;
+	
 	@Column(name = "created_at", insertable = false, updatable = false)
 	private Timestamp createdAt;
 	
@@ -0,0 +1,58 @@
+package com.example.samuraitravel.entity;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Data;
+
+// 署名を確認したStripeのWebhookイベント(受信箱)
+// Webhookのリクエストはこの行を保存した時点で応答し、予約の登録はStripeWebhookInboxのワーカーが行う
+@Entity
+@Table(name = "stripe_webhook_events")
+@Data
+public class StripeWebhookEvent {
+	// 処理待ち(再試行待ちを含む)・処理済み・再試行の上限に達した(または予約と重なり返金もできなかった)・予約と重なったため返金した
+	public static final String STATUS_PENDING = "PENDING";
+	public static final String STATUS_DONE = "DONE";
+	public static final String STATUS_FAILED = "FAILED";
+	public static final String STATUS_REFUNDED = "REFUNDED";
+	
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@Column(name = "id")
+	private Long id;
+	
+	// StripeのイベントID。再送されたイベントを二重に保存しないよう一意にしている
+	@Column(name = "event_id")
+	private String eventId;
+	
+	@Column(name = "event_type")
+	private String eventType;
+	
+	@Column(name = "payload")
+	private String payload;
+	
+	@Column(name = "status")
+	private String status;
+	
+	@Column(name = "attempts")
+	private Integer attempts = 0;
+	
+	// この時刻を過ぎたら処理してよい。処理中は他のワーカーが取らないよう先の時刻にしておく
+	@Column(name = "next_attempt_at")
+	private LocalDateTime nextAttemptAt;
+	
+	@Column(name = "last_error")
+	private String lastError;
+	
+	@Column(name = "received_at")
+	private LocalDateTime receivedAt;
+	
+	@Column(name = "processed_at")
+	private LocalDateTime processedAt;
+}
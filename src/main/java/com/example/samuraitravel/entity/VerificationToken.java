@@ -1,6 +1,7 @@
 package com.example.samuraitravel.entity;
 
 import java.sql.Timestamp;
+import java.time.LocalDateTime;
 
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
@@ -25,8 +26,12 @@ public class VerificationToken {
 	@JoinColumn(name = "user_id")
 	private User user; 
 	
-	@Column(name = "token")
-	private String token;
+	// トークンそのものは保存せず、SHA-256のハッシュ(32バイト)で引く
+	@Column(name = "token_hash")
+	private byte[] tokenHash;
+	
+	@Column(name = "expires_at")
+	private LocalDateTime expiresAt;
 	
 	@Column(name = "created_at",insertable = false, updatable = false)
 	private Timestamp createdAt;
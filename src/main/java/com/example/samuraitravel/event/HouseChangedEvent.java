@@ -0,0 +1,18 @@
+package com.example.samuraitravel.event;
+
+import org.springframework.context.ApplicationEvent;
+
+import lombok.Getter;
+
+// 民宿が登録・更新・削除されたことを知らせるイベント
+// 受け取る側はhouseIdで最新の状態を読み直す(見つからなければ削除されたものとして扱う)
+@Getter
+public class HouseChangedEvent extends ApplicationEvent {
+	private Integer houseId;
+	
+	public HouseChangedEvent(Object source, Integer houseId) {
+		super(source);
+		
+		this.houseId = houseId;
+	}
+}
@@ -0,0 +1,17 @@
+package com.example.samuraitravel.event;
+
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+@Component
+public class HouseChangedEventPublisher {
+	private final ApplicationEventPublisher applicationEventPublisher;
+	
+	public HouseChangedEventPublisher(ApplicationEventPublisher applicationEventPublisher) {
+		this.applicationEventPublisher = applicationEventPublisher;
+	}
+	
+	public void publishHouseChangedEvent(Integer houseId) {
+		applicationEventPublisher.publishEvent(new HouseChangedEvent(this, houseId));
+	}
+}
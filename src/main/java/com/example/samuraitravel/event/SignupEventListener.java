@@ -1,30 +1,29 @@
 package com.example.samuraitravel.event;
 
-import java.util.UUID;
-
 import org.springframework.context.event.EventListener;
-import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.example.samuraitravel.entity.User;
+import com.example.samuraitravel.service.MailOutbox;
 import com.example.samuraitravel.service.VerificationTokenService;
 
 @Component
 public class SignupEventListener {
 	private final VerificationTokenService verificationTokenService;
-	private final JavaMailSender javaMailSender;
+	private final MailOutbox mailOutbox;
 	
-	public SignupEventListener(VerificationTokenService verificationTokenService, JavaMailSender mailSender) {
+	public SignupEventListener(VerificationTokenService verificationTokenService, MailOutbox mailOutbox) {
 		this.verificationTokenService = verificationTokenService; 
-		this.javaMailSender = mailSender;
+		this.mailOutbox = mailOutbox;
 	}
 	
+	// トークンと認証メールを同じトランザクションで保存する。メールはコミット後にMailOutboxがバックグラウンドで送る
 	@EventListener
-	private void onSignupEvent(SignupEvent signupEvent) {
+	@Transactional
+	public void onSignupEvent(SignupEvent signupEvent) {
 		User user = signupEvent.getUser();
-		String token = UUID.randomUUID().toString();
-		verificationTokenService.create(user,token);
+		String token = verificationTokenService.create(user);
 		
 		String senderAddress = "springboot.samuraitravel@example.com";
 		String recipientAddress = user.getEmail();
@@ -32,11 +31,6 @@ public class SignupEventListener {
 		String confirmationUrl = signupEvent.getRequestUrl() + "/verify?token=" + token;
 		String message = "以下のリンクをクリックして会員登録を完了してください。";
 		
-		SimpleMailMessage mailMessage = new SimpleMailMessage();
-		mailMessage.setFrom(senderAddress);
-		mailMessage.setTo(recipientAddress);
-		mailMessage.setSubject(subject);
-		mailMessage.setText(message + "\n" + confirmationUrl);
-		javaMailSender.send(mailMessage);
+		mailOutbox.enqueue(senderAddress, recipientAddress, subject, message + "\n" + confirmationUrl);
 	}
 }
@@ -0,0 +1,27 @@
+package com.example.samuraitravel.form;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import org.springframework.format.annotation.DateTimeFormat;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+
+@Data
+public class HousePriceRuleForm {
+	// 空欄の場合は期限なし
+	@DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+	private LocalDate startDate;
+	
+	@DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+	private LocalDate endDate;
+	
+	// 適用する曜日(1: 月曜日 ～ 7: 日曜日)。何も選ばない場合は毎日
+	private List<Integer> daysOfWeek;
+	
+	@NotNull(message = "宿泊料金を入力してください。")
+	@Min(value = 1, message = "宿泊料金は1円以上に設定してください。")
+	private Integer price;
+}
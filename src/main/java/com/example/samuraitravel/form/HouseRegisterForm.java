@@ -15,6 +15,9 @@ public class HouseRegisterForm {
 	
 	private MultipartFile imageFile;
 	
+	// 画像を選択した時点で/admin/houses/imagesに送って保存した場合、その画像のファイル名(imageFileは送られない)
+	private String uploadedImageName;
+	
 	@NotBlank(message = "説明を入力してください。")
 	private String description;
 	
@@ -1,8 +1,12 @@
 package com.example.samuraitravel.repository;
 
+import java.util.List;
+
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import com.example.samuraitravel.entity.Favorite;
@@ -16,5 +20,9 @@ public interface FavoriteRepository extends JpaRepository<Favorite, Integer> {
 	
 	// 特定の民宿とユーザーに紐づくお気に入りを取得し、該当エンティティを出力する。
 	public Favorite findByHouseAndUser(House house, User user);
+	
+	// 特定のユーザーがお気に入り登録している民宿のIDだけを取得する
+	@Query("SELECT f.house.id FROM Favorite f WHERE f.user.id = :userId")
+	public List<Integer> findHouseIdsByUserId(@Param("userId") Integer userId);
 
 }
@@ -0,0 +1,14 @@
+package com.example.samuraitravel.repository;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import com.example.samuraitravel.entity.HousePriceRule;
+
+public interface HousePriceRuleRepository extends JpaRepository<HousePriceRule, Integer> {
+	// 料金カレンダーは後から追加したルールほど優先するため、IDの昇順で取得する
+	public List<HousePriceRule> findAllByOrderByIdAsc();
+	
+	public List<HousePriceRule> findByHouseIdOrderByIdAsc(Integer houseId);
+}
@@ -5,19 +5,42 @@ import java.util.List;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import com.example.samuraitravel.dto.HouseSummary;
 import com.example.samuraitravel.entity.House;
 
-public interface HouseRepository extends JpaRepository<House, Integer> {
-	public Page<House> findByNameLike(String keyword, Pageable pageable);
-	public Page<House> findByNameLikeOrAddressLikeOrderByCreatedAtDesc(String nameKeyword, String addressKeyword, Pageable pageable);
-	public Page<House> findByNameLikeOrAddressLikeOrderByPriceAsc(String nameKeyword, String addressKeyword,Pageable pageable);
-	public Page<House> findByAddressLikeOrderByCreatedAtDesc(String area, Pageable pageable);
-	public Page<House> findByAddressLikeOrderByPriceAsc(String area, Pageable pageable);
-	public Page<House> findByPriceLessThanEqualOrderByCreatedAtDesc(Integer price, Pageable pageable);
-	public Page<House> findByPriceLessThanEqualOrderByPriceAsc(Integer price, Pageable pageable);
-	public Page<House> findAllByOrderByCreatedAtDesc(Pageable pageable);
-	public Page<House> findAllByOrderByPriceAsc(Pageable pageable);
+// 民宿一覧の検索(キーワード・エリア・予算・人数・並び順の組み合わせ)はHouseRepositoryCustomのsearch()で行う
+public interface HouseRepository extends JpaRepository<House, Integer>, HouseRepositoryCustom {
+	// 一覧用のメソッドはカード表示に必要な項目だけをHouseSummaryとして取得する
+	public Page<HouseSummary> findByNameLike(String keyword, Pageable pageable);
+	public Page<HouseSummary> findAllBy(Pageable pageable);
 	
-	public List<House> findTop10ByOrderByCreatedAtDesc();
+	public List<HouseSummary> findTop10ByOrderByCreatedAtDesc();
+	
+	// 民宿詳細ページ用に、民宿・レビュー集計・ユーザーのお気に入りID・ユーザーのレビュー件数を1回のクエリで取得する
+	// 1行の[House, HouseReviewStats(なければnull), お気に入りID(なければnull), レビュー件数]を返す。userIdがnullの場合はお気に入りID null、レビュー件数0になる
+	@Query("SELECT h, s, "
+			+ "(SELECT f.id FROM Favorite f WHERE f.house = h AND f.user.id = :userId), "
+			+ "(SELECT COUNT(r) FROM Review r WHERE r.house = h AND r.user.id = :userId) "
+			+ "FROM House h LEFT JOIN HouseReviewStats s ON s.houseId = h.id WHERE h.id = :houseId")
+	public List<Object[]> findDetailById(@Param("houseId") Integer houseId, @Param("userId") Integer userId);
+	
+	// 画像のサイズ違いを作り終えたことを記録する。画像がその間に差し替えられていた場合は何もしない
+	@Modifying
+	@Transactional
+	@Query("UPDATE House h SET h.imageVariantsReady = true WHERE h.id = :houseId AND h.imageName = :imageName")
+	public int markImageVariantsReady(@Param("houseId") Integer houseId, @Param("imageName") String imageName);
+	
+	// 画像のファイル名の一覧(重複なし)
+	@Query("SELECT DISTINCT h.imageName FROM House h WHERE h.imageName IS NOT NULL")
+	public List<String> findDistinctImageNames();
+	
+	public List<House> findByImageName(String imageName);
+	
+	// 画像のサイズ違いがまだない民宿
+	public List<House> findByImageNameIsNotNullAndImageVariantsReadyFalse();
 }
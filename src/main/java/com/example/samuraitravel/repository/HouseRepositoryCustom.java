@@ -0,0 +1,19 @@
+package com.example.samuraitravel.repository;
+
+import java.util.List;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+
+import com.example.samuraitravel.dto.HouseCursor;
+import com.example.samuraitravel.dto.HouseSearchCriteria;
+import com.example.samuraitravel.dto.HouseSummary;
+
+// 検索条件を自由に組み合わせられる民宿検索(実装はHouseRepositoryImpl)
+public interface HouseRepositoryCustom {
+	// 検索条件に一致する民宿をページ番号でページングして取得する
+	public Page<HouseSummary> search(HouseSearchCriteria criteria, Pageable pageable);
+	
+	// 検索条件に一致する民宿をカーソルの続きから最大limit件取得する(cursorがnullなら先頭から)
+	public List<HouseSummary> searchAfter(HouseSearchCriteria criteria, HouseCursor cursor, int limit);
+}
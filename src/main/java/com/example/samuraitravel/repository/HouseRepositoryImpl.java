@@ -0,0 +1,127 @@
+package com.example.samuraitravel.repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+
+import com.example.samuraitravel.dto.HouseCursor;
+import com.example.samuraitravel.dto.HouseSearchCriteria;
+import com.example.samuraitravel.dto.HouseSummary;
+import com.example.samuraitravel.dto.HouseSummaryView;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+
+public class HouseRepositoryImpl implements HouseRepositoryCustom {
+	@PersistenceContext
+	private EntityManager entityManager;
+	
+	@Override
+	public Page<HouseSummary> search(HouseSearchCriteria criteria, Pageable pageable) {
+		// キーワード・エリアに一致する民宿がなければクエリを発行しない
+		if (criteria.getHouseIds() != null && criteria.getHouseIds().length == 0) {
+			return Page.empty(pageable);
+		}
+		
+		int shape = HouseSearchSql.shapeOf(criteria, false);
+		
+		Query query = entityManager.createNativeQuery(HouseSearchSql.select(shape));
+		bind(query, shape, criteria, null);
+		query.setFirstResult((int)pageable.getOffset());
+		query.setMaxResults(pageable.getPageSize());
+		List<HouseSummary> content = toSummaries(query.getResultList());
+		
+		Query countQuery = entityManager.createNativeQuery(HouseSearchSql.count(shape));
+		bind(countQuery, shape, criteria, null);
+		long total = ((Number)countQuery.getSingleResult()).longValue();
+		
+		return new PageImpl<>(content, pageable, total);
+	}
+	
+	@Override
+	public List<HouseSummary> searchAfter(HouseSearchCriteria criteria, HouseCursor cursor, int limit) {
+		if (criteria.getHouseIds() != null && criteria.getHouseIds().length == 0) {
+			return List.of();
+		}
+		
+		int shape = HouseSearchSql.shapeOf(criteria, cursor != null);
+		
+		Query query = entityManager.createNativeQuery(HouseSearchSql.select(shape));
+		bind(query, shape, criteria, cursor);
+		query.setMaxResults(limit);
+		return toSummaries(query.getResultList());
+	}
+	
+	// 形に含まれるパラメータだけをバインドする
+	private void bind(Query query, int shape, HouseSearchCriteria criteria, HouseCursor cursor) {
+		if ((shape & HouseSearchSql.HOUSE_IDS) != 0) {
+			query.setParameter("houseIds", HouseSearchSql.toJsonArray(criteria.getHouseIds()));
+		}
+		if ((shape & HouseSearchSql.MAX_PRICE) != 0) {
+			query.setParameter("maxPrice", criteria.getMaxPrice());
+		}
+		if ((shape & HouseSearchSql.MIN_CAPACITY) != 0) {
+			query.setParameter("minCapacity", criteria.getMinCapacity());
+		}
+		if ((shape & HouseSearchSql.STAY) != 0) {
+			query.setParameter("checkinDate", criteria.getCheckinDate());
+			query.setParameter("checkoutDate", criteria.getCheckoutDate());
+		}
+		if ((shape & HouseSearchSql.AFTER) != 0) {
+			if ((shape & HouseSearchSql.PRICE_ASC) != 0) {
+				query.setParameter("afterPrice", (int)cursor.key());
+			} else if ((shape & HouseSearchSql.RATING_DESC) != 0) {
+				query.setParameter("afterRating", cursor.key());
+			} else {
+				query.setParameter("afterCreatedAt", new Timestamp(cursor.key()));
+			}
+			query.setParameter("afterId", cursor.id());
+		}
+	}
+	
+	// 列の順番はHouseSearchSql.COLUMNSと同じ
+	private List<HouseSummary> toSummaries(List<?> rows) {
+		return rows.stream().map(row -> {
+			Object[] columns = (Object[])row;
+			return (HouseSummary)new HouseSummaryView(
+					((Number)columns[0]).intValue(),
+					(String)columns[1],
+					(String)columns[2],
+					toBoolean(columns[3]),
+					(String)columns[4],
+					((Number)columns[5]).intValue(),
+					((Number)columns[6]).intValue(),
+					(String)columns[7],
+					(String)columns[8],
+					(String)columns[9],
+					toTimestamp(columns[10]),
+					toInteger(columns[11]),
+					toInteger(columns[12]));
+		}).toList();
+	}
+	
+	// LEFT JOINでレビュー集計がない民宿はnullになる
+	private Integer toInteger(Object value) {
+		return value != null ? ((Number)value).intValue() : null;
+	}
+	
+	// MySQLのBOOLEAN(TINYINT(1))はドライバの設定によってBooleanでも数値でも返る
+	private Boolean toBoolean(Object value) {
+		if (value instanceof Number number) {
+			return number.intValue() != 0;
+		}
+		return (Boolean)value;
+	}
+	
+	private Timestamp toTimestamp(Object value) {
+		if (value instanceof LocalDateTime localDateTime) {
+			return Timestamp.valueOf(localDateTime);
+		}
+		return (Timestamp)value;
+	}
+}
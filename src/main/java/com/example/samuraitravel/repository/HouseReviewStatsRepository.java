@@ -0,0 +1,39 @@
+package com.example.samuraitravel.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import com.example.samuraitravel.entity.HouseReviewStats;
+
+public interface HouseReviewStatsRepository extends JpaRepository<HouseReviewStats, Integer> {
+	// 民宿のレビュー集計に差分を加える。行がなければ作成する(同時に更新されても行ロックで正しく加算される)
+	@Modifying
+	@Query(value = "INSERT INTO house_review_stats (house_id, review_count, rating_sum, star1_count, star2_count, star3_count, star4_count, star5_count) "
+			+ "VALUES (:houseId, :countDelta, :sumDelta, :star1Delta, :star2Delta, :star3Delta, :star4Delta, :star5Delta) "
+			+ "ON DUPLICATE KEY UPDATE review_count = review_count + VALUES(review_count), rating_sum = rating_sum + VALUES(rating_sum), "
+			+ "star1_count = star1_count + VALUES(star1_count), star2_count = star2_count + VALUES(star2_count), star3_count = star3_count + VALUES(star3_count), "
+			+ "star4_count = star4_count + VALUES(star4_count), star5_count = star5_count + VALUES(star5_count)", nativeQuery = true)
+	public void addDelta(@Param("houseId") Integer houseId, @Param("countDelta") int countDelta, @Param("sumDelta") int sumDelta,
+			@Param("star1Delta") int star1Delta, @Param("star2Delta") int star2Delta, @Param("star3Delta") int star3Delta,
+			@Param("star4Delta") int star4Delta, @Param("star5Delta") int star5Delta);
+	
+	// レビューがまだない民宿に、すべて0の集計を作る(民宿の登録と同じトランザクションで使う)
+	@Modifying
+	@Query(value = "INSERT IGNORE INTO house_review_stats (house_id) VALUES (:houseId)", nativeQuery = true)
+	public void insertEmptyStats(@Param("houseId") Integer houseId);
+	
+	// すべての集計を削除する(作り直しの前に使う)
+	@Modifying
+	@Query(value = "DELETE FROM house_review_stats", nativeQuery = true)
+	public int deleteAllStats();
+	
+	// reviewsテーブルからすべての民宿の集計を作り直す(レビューがない民宿はすべて0にする)
+	@Modifying
+	@Query(value = "INSERT INTO house_review_stats (house_id, review_count, rating_sum, star1_count, star2_count, star3_count, star4_count, star5_count) "
+			+ "SELECT h.id, COUNT(r.id), COALESCE(SUM(r.rating), 0), COALESCE(SUM(r.rating = 1), 0), COALESCE(SUM(r.rating = 2), 0), "
+			+ "COALESCE(SUM(r.rating = 3), 0), COALESCE(SUM(r.rating = 4), 0), COALESCE(SUM(r.rating = 5), 0) "
+			+ "FROM houses h LEFT JOIN reviews r ON r.house_id = h.id GROUP BY h.id", nativeQuery = true)
+	public int insertAllStatsFromReviews();
+}
@@ -0,0 +1,135 @@
+package com.example.samuraitravel.repository;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.example.samuraitravel.dto.HouseSearchCriteria;
+
+// 民宿一覧の検索条件の組み合わせ(形)ごとにSQLを1文だけ組み立てる
+// 同じ形のSQLは同じ文字列になるため、組み立てた結果をキャッシュし、Hibernate側のクエリプランのキャッシュも効くようにする
+final class HouseSearchSql {
+	// 検索条件の形を表すビット
+	static final int HOUSE_IDS = 1;
+	static final int MAX_PRICE = 2;
+	static final int MIN_CAPACITY = 4;
+	static final int AFTER = 8;
+	static final int PRICE_ASC = 16;
+	static final int RATING_DESC = 32;
+	static final int STAY = 64;
+	
+	// カードに平均評価を表示するため、レビュー集計(house_review_stats)を結合して取得する
+	static final String COLUMNS = "h.id, h.name, h.image_name, h.image_variants_ready, h.description, h.price, h.capacity, h.postal_code, h.address, h.phone_number, h.created_at, "
+			+ "s.review_count, s.rating_sum";
+	static final String FROM = " FROM houses h LEFT JOIN house_review_stats s ON s.house_id = h.id";
+	// 評価順は(rating_key DESC, house_id)のインデックスを順に読み、民宿を結合する(集計はすべての民宿にある)
+	// housesから読むと、ページを開くたびに全件の評価順のキーを読んでソートすることになる
+	static final String RATING_FROM = " FROM house_review_stats s STRAIGHT_JOIN houses h ON h.id = s.house_id";
+	
+	private static final ConcurrentMap<Integer, String> SELECT_CACHE = new ConcurrentHashMap<>();
+	private static final ConcurrentMap<Integer, String> COUNT_CACHE = new ConcurrentHashMap<>();
+	
+	private HouseSearchSql() {
+	}
+	
+	// 検索条件から形を求める。afterはキーセットページングで前ページの続きから取得する場合にtrue
+	static int shapeOf(HouseSearchCriteria criteria, boolean after) {
+		int shape = 0;
+		if (criteria.getHouseIds() != null) {
+			shape |= HOUSE_IDS;
+		}
+		if (criteria.getMaxPrice() != null) {
+			shape |= MAX_PRICE;
+		}
+		if (criteria.getMinCapacity() != null) {
+			shape |= MIN_CAPACITY;
+		}
+		if (criteria.getCheckinDate() != null && criteria.getCheckoutDate() != null) {
+			shape |= STAY;
+		}
+		if (after) {
+			shape |= AFTER;
+		}
+		switch (criteria.getHouseOrder()) {
+			case PRICE_ASC -> shape |= PRICE_ASC;
+			case RATING_DESC -> shape |= RATING_DESC;
+			default -> {
+			}
+		}
+		return shape;
+	}
+	
+	static String select(int shape) {
+		return SELECT_CACHE.computeIfAbsent(shape, HouseSearchSql::buildSelect);
+	}
+	
+	// 件数はキーセットの条件と並び順に関係しないため、それらのビットを除いた形でキャッシュする
+	static String count(int shape) {
+		return COUNT_CACHE.computeIfAbsent(shape & (HOUSE_IDS | MAX_PRICE | MIN_CAPACITY | STAY), HouseSearchSql::buildCount);
+	}
+	
+	// 民宿IDをJSON_TABLEに渡すJSONの配列にする
+	static String toJsonArray(int[] houseIds) {
+		StringBuilder json = new StringBuilder(houseIds.length * 6 + 2).append('[');
+		for (int i = 0; i < houseIds.length; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append(houseIds[i]);
+		}
+		return json.append(']').toString();
+	}
+	
+	private static String buildSelect(int shape) {
+		StringBuilder sql = new StringBuilder("SELECT ").append(COLUMNS).append((shape & RATING_DESC) != 0 ? RATING_FROM : FROM);
+		appendWhere(sql, shape);
+		
+		// 新着順・料金順・評価順は(created_at, id)・(price, id)・(rating_key, house_id)のインデックスをそのまま使える形にする
+		if ((shape & PRICE_ASC) != 0) {
+			sql.append(" ORDER BY h.price ASC, h.id ASC");
+		} else if ((shape & RATING_DESC) != 0) {
+			sql.append(" ORDER BY s.rating_key DESC, s.house_id ASC");
+		} else {
+			sql.append(" ORDER BY h.created_at DESC, h.id ASC");
+		}
+		return sql.toString();
+	}
+	
+	private static String buildCount(int shape) {
+		StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM houses h");
+		appendWhere(sql, shape);
+		return sql.toString();
+	}
+	
+	private static void appendWhere(StringBuilder sql, int shape) {
+		String separator = " WHERE ";
+		
+		if ((shape & HOUSE_IDS) != 0) {
+			// 民宿IDはJSONの配列1つで渡す。IN (:houseIds)のように民宿ごとにプレースホルダーを展開すると、
+			// 短いキーワードで民宿の大半が一致したときにSQLが長くなり、MySQLのプレースホルダーの上限(65,535個)も超えうる
+			sql.append(separator).append("h.id IN (SELECT j.id FROM JSON_TABLE(:houseIds, '$[*]' COLUMNS (id INT PATH '$')) j)");
+			separator = " AND ";
+		}
+		if ((shape & MAX_PRICE) != 0) {
+			sql.append(separator).append("h.price <= :maxPrice");
+			separator = " AND ";
+		}
+		if ((shape & MIN_CAPACITY) != 0) {
+			sql.append(separator).append("h.capacity >= :minCapacity");
+			separator = " AND ";
+		}
+		if ((shape & STAY) != 0) {
+			// reservation_nightsの主キー(house_id, night)の範囲を民宿ごとに読む
+			sql.append(separator).append("NOT EXISTS (SELECT 1 FROM reservation_nights n WHERE n.house_id = h.id AND n.night >= :checkinDate AND n.night < :checkoutDate)");
+			separator = " AND ";
+		}
+		if ((shape & AFTER) != 0) {
+			if ((shape & PRICE_ASC) != 0) {
+				sql.append(separator).append("(h.price > :afterPrice OR (h.price = :afterPrice AND h.id > :afterId))");
+			} else if ((shape & RATING_DESC) != 0) {
+				sql.append(separator).append("(s.rating_key < :afterRating OR (s.rating_key = :afterRating AND s.house_id > :afterId))");
+			} else {
+				sql.append(separator).append("(h.created_at < :afterCreatedAt OR (h.created_at = :afterCreatedAt AND h.id > :afterId))");
+			}
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package com.example.samuraitravel.repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.example.samuraitravel.entity.MailOutboxMessage;
+
+public interface MailOutboxMessageRepository extends JpaRepository<MailOutboxMessage, Long> {
+	// 送信してよい時刻を過ぎた送信待ちのメールのIDを古い順に取得する
+	@Query("SELECT m.id FROM MailOutboxMessage m WHERE m.status = 'PENDING' AND m.nextAttemptAt <= :now ORDER BY m.nextAttemptAt, m.id")
+	public List<Long> findDueIds(@Param("now") LocalDateTime now, Limit limit);
+	
+	// 送信待ちのメールを取る。送信中に他のワーカー(別のサーバーを含む)が取らないよう、leaseUntilまで次の送信を遅らせる
+	// 取れた場合は1、他のワーカーが先に取っていた場合は0を返す。送信中に落ちた場合はleaseUntilを過ぎたら再び取られる
+	@Modifying
+	@Transactional
+	@Query("UPDATE MailOutboxMessage m SET m.attempts = m.attempts + 1, m.nextAttemptAt = :leaseUntil "
+			+ "WHERE m.id = :id AND m.status = 'PENDING' AND m.nextAttemptAt <= :now")
+	public int claim(@Param("id") Long id, @Param("now") LocalDateTime now, @Param("leaseUntil") LocalDateTime leaseUntil);
+	
+	// 作成からbeforeより前の送信済み・失敗したメールを、IDの古い順にlimit件まで削除する
+	// 古いメールほどIDが小さいため、主キーの先頭から読むだけで済む
+	@Modifying
+	@Transactional
+	@Query(value = "DELETE FROM mail_outbox WHERE status IN ('SENT', 'FAILED') AND created_at < :before ORDER BY id LIMIT :limit", nativeQuery = true)
+	public int deleteFinishedBefore(@Param("before") LocalDateTime before, @Param("limit") int limit);
+	
+	// 送信待ちのメールの件数と、最も古いメールの作成日時
+	@Query("SELECT COUNT(m), MIN(m.createdAt) FROM MailOutboxMessage m WHERE m.status = 'PENDING'")
+	public List<Object[]> findPendingBacklog();
+}
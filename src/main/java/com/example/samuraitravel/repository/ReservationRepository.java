@@ -1,13 +1,70 @@
 package com.example.samuraitravel.repository;
 
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
+import java.time.LocalDate;
+import java.util.List;
+
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.example.samuraitravel.entity.Reservation;
-import com.example.samuraitravel.entity.User;
 
-public interface ReservationRepository extends JpaRepository<Reservation, Integer> {
-	public Page<Reservation> findByUserOrderByCreatedAtDesc(User user, Pageable pageable);
+// 予約一覧はReservationRepositoryCustomのfindHistoryByUserId()で取得する
+public interface ReservationRepository extends JpaRepository<Reservation, Integer>, ReservationRepositoryCustom {
+	public boolean existsByStripeSessionId(String stripeSessionId);
+	
+	// 空室インデックス用に、指定した日より後にチェックアウトする予約の[民宿ID, チェックイン日, チェックアウト日]だけを取得する
+	@Query("SELECT r.house.id, r.checkinDate, r.checkoutDate FROM Reservation r WHERE r.checkoutDate > :date")
+	public List<Object[]> findStaysEndingAfter(@Param("date") LocalDate date);
+	
+	// 空室インデックスの差分の更新用に、指定したIDより後に登録され、指定した日より後にチェックアウトする予約の[民宿ID, チェックイン日, チェックアウト日]を取得する
+	@Query("SELECT r.house.id, r.checkinDate, r.checkoutDate FROM Reservation r WHERE r.id > :afterId AND r.checkoutDate > :date")
+	public List<Object[]> findStaysAddedAfter(@Param("afterId") Integer afterId, @Param("date") LocalDate date);
+	
+	// 指定した秒数より前(データベースの時計で)に登録された予約のうち、最後の予約のID。なければnull
+	// 主キーを後ろから読み、それより新しい予約の分だけ読んだところで止まる
+	@Query(value = "SELECT id FROM reservations WHERE created_at < NOW() - INTERVAL :seconds SECOND ORDER BY id DESC LIMIT 1", nativeQuery = true)
+	public Integer findLastIdCreatedBefore(@Param("seconds") long seconds);
+	
+	// 民宿のチェックイン日からチェックアウト日の前日までのうち、予約で埋まっている夜の数(reservation_nightsの主キーの範囲だけを読む)
+	@Query(value = "SELECT COUNT(*) FROM reservation_nights WHERE house_id = :houseId AND night >= :checkinDate AND night < :checkoutDate", nativeQuery = true)
+	public long countBookedNights(@Param("houseId") Integer houseId, @Param("checkinDate") LocalDate checkinDate, @Param("checkoutDate") LocalDate checkoutDate);
+	
+	// reservation_nightsの作成用に、指定した日より後にチェックアウトする予約の[予約ID, 民宿ID, チェックイン日, チェックアウト日]を取得する
+	@Query("SELECT r.id, r.house.id, r.checkinDate, r.checkoutDate FROM Reservation r WHERE r.checkoutDate > :date")
+	public List<Object[]> findStaysWithIdEndingAfter(@Param("date") LocalDate date);
+	
+	// 予約の1泊分を記録する。同じ民宿の同じ夜が埋まっている場合は主キー(house_id, night)の重複でDataIntegrityViolationExceptionになる
+	@Modifying
+	@Query(value = "INSERT INTO reservation_nights (house_id, night, reservation_id) VALUES (:houseId, :night, :reservationId)", nativeQuery = true)
+	public int insertNight(@Param("houseId") Integer houseId, @Param("night") LocalDate night, @Param("reservationId") Integer reservationId);
+	
+	// アーカイブ用に、cutoffより前にチェックアウトした予約のIDをチェックアウト日の古い順に取得する
+	@Query("SELECT r.id FROM Reservation r WHERE r.checkoutDate < :cutoff ORDER BY r.checkoutDate, r.id")
+	public List<Integer> findIdsCheckedOutBefore(@Param("cutoff") LocalDate cutoff, Limit limit);
+	
+	// 予約をreservations_archiveに写す。民宿名などを記録する前に登録された予約は民宿の現在の値で埋める
+	// 他のサーバーが同時に写していた予約は飛ばす
+	@Modifying
+	@Query(value = "INSERT IGNORE INTO reservations_archive "
+			+ "(id, house_id, user_id, checkin_date, checkout_date, number_of_people, amount, stripe_session_id, house_name, house_image_name, house_price, created_at, updated_at) "
+			+ "SELECT r.id, r.house_id, r.user_id, r.checkin_date, r.checkout_date, r.number_of_people, r.amount, r.stripe_session_id, "
+			+ "COALESCE(r.house_name, h.name), COALESCE(r.house_image_name, h.image_name), COALESCE(r.house_price, h.price), r.created_at, r.updated_at "
+			+ "FROM reservations r JOIN houses h ON h.id = r.house_id WHERE r.id IN (:ids)", nativeQuery = true)
+	public int copyToArchive(@Param("ids") List<Integer> ids);
+	
+	// reservations_archiveに写した予約を削除する(reservation_nightsの行は外部キーのON DELETE CASCADEで消える)
+	@Modifying
+	@Query(value = "DELETE FROM reservations WHERE id IN (:ids)", nativeQuery = true)
+	public int deleteArchived(@Param("ids") List<Integer> ids);
+	
+	// insertNight()と同じだが、埋まっている夜は記録せずに0を返す(既存の予約から作るとき用)
+	@Modifying
+	@Transactional
+	@Query(value = "INSERT IGNORE INTO reservation_nights (house_id, night, reservation_id) VALUES (:houseId, :night, :reservationId)", nativeQuery = true)
+	public int insertNightIfFree(@Param("houseId") Integer houseId, @Param("night") LocalDate night, @Param("reservationId") Integer reservationId);
 
 }
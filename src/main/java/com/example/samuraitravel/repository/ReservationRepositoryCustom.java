@@ -0,0 +1,12 @@
+package com.example.samuraitravel.repository;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+
+import com.example.samuraitravel.dto.ReservationHistory;
+
+// 予約一覧の取得(実装はReservationRepositoryImpl)
+public interface ReservationRepositoryCustom {
+	// ユーザーの予約を新しい順に1ページ分取得する。予約の件数によらず、アーカイブに及ばないページは1回のクエリで済む
+	public Page<ReservationHistory> findHistoryByUserId(Integer userId, Pageable pageable);
+}
@@ -0,0 +1,119 @@
+package com.example.samuraitravel.repository;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+
+import com.example.samuraitravel.dto.ReservationHistory;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+
+public class ReservationRepositoryImpl implements ReservationRepositoryCustom {
+	// 内側のクエリはidx_reservations_user_id_created_atだけを読んで1ページ分の予約IDと全体の件数を求め、そのページの予約だけを読み込む
+	// 民宿名などを記録する前に登録された予約だけは、民宿の現在の値で補う。アーカイブした予約の件数も同じクエリで数える
+	private static final String HISTORY_SQL = "SELECT r.id, r.house_id, "
+			+ "COALESCE(r.house_name, h.name), COALESCE(r.house_image_name, h.image_name), COALESCE(r.house_price, h.price), "
+			+ "r.checkin_date, r.checkout_date, r.number_of_people, r.amount, r.created_at, p.total, "
+			+ "(SELECT COUNT(*) FROM reservations_archive WHERE user_id = :userId) "
+			+ "FROM (SELECT id, COUNT(*) OVER () AS total FROM reservations WHERE user_id = :userId "
+			+ "ORDER BY created_at DESC, id DESC LIMIT :limit OFFSET :offset) p "
+			+ "JOIN reservations r ON r.id = p.id "
+			+ "LEFT JOIN houses h ON h.id = r.house_id AND r.house_name IS NULL "
+			+ "ORDER BY r.created_at DESC, r.id DESC";
+	
+	// アーカイブした予約は民宿名などが埋めてあるため、民宿を結合しない。列の順番はHISTORY_SQLと同じ
+	private static final String ARCHIVE_HISTORY_SQL = "SELECT id, house_id, house_name, house_image_name, house_price, "
+			+ "checkin_date, checkout_date, number_of_people, amount, created_at "
+			+ "FROM reservations_archive WHERE user_id = :userId "
+			+ "ORDER BY created_at DESC, id DESC LIMIT :limit OFFSET :offset";
+	
+	private static final String COUNT_SQL = "SELECT (SELECT COUNT(*) FROM reservations WHERE user_id = :userId), "
+			+ "(SELECT COUNT(*) FROM reservations_archive WHERE user_id = :userId)";
+	
+	@PersistenceContext
+	private EntityManager entityManager;
+	
+	// 予約一覧は残っている予約(新しい順)の後にアーカイブした予約(新しい順)を続けたものとしてページングする
+	// アーカイブした予約はチェックアウトから保存期間が過ぎたものなので、ほとんどのユーザーは最初のクエリだけで済む
+	@Override
+	public Page<ReservationHistory> findHistoryByUserId(Integer userId, Pageable pageable) {
+		Query query = entityManager.createNativeQuery(HISTORY_SQL);
+		query.setParameter("userId", userId);
+		query.setParameter("limit", pageable.getPageSize());
+		query.setParameter("offset", pageable.getOffset());
+		List<?> rows = query.getResultList();
+		List<ReservationHistory> content = new ArrayList<>(toHistories(rows));
+		
+		long hotTotal;
+		long archivedTotal;
+		if (!rows.isEmpty()) {
+			Object[] columns = (Object[])rows.get(0);
+			hotTotal = ((Number)columns[10]).longValue();
+			archivedTotal = ((Number)columns[11]).longValue();
+		} else {
+			// 残っている予約の最後のページより後を指定された場合だけは件数を別に数える
+			Query countQuery = entityManager.createNativeQuery(COUNT_SQL);
+			countQuery.setParameter("userId", userId);
+			Object[] counts = (Object[])countQuery.getSingleResult();
+			hotTotal = ((Number)counts[0]).longValue();
+			archivedTotal = ((Number)counts[1]).longValue();
+		}
+		
+		// 残っている予約だけではページが埋まらない場合は、続きをアーカイブから取得する
+		long archiveOffset = Math.max(pageable.getOffset() - hotTotal, 0);
+		if (content.size() < pageable.getPageSize() && archiveOffset < archivedTotal) {
+			Query archiveQuery = entityManager.createNativeQuery(ARCHIVE_HISTORY_SQL);
+			archiveQuery.setParameter("userId", userId);
+			archiveQuery.setParameter("limit", pageable.getPageSize() - content.size());
+			archiveQuery.setParameter("offset", archiveOffset);
+			content.addAll(toHistories(archiveQuery.getResultList()));
+		}
+		
+		return new PageImpl<>(content, pageable, hotTotal + archivedTotal);
+	}
+	
+	// 列の順番はARCHIVE_HISTORY_SQLと同じ(HISTORY_SQLの後ろの件数の列は使わない)
+	private List<ReservationHistory> toHistories(List<?> rows) {
+		return rows.stream().map(row -> {
+			Object[] columns = (Object[])row;
+			return new ReservationHistory(
+					((Number)columns[0]).intValue(),
+					((Number)columns[1]).intValue(),
+					(String)columns[2],
+					(String)columns[3],
+					toInteger(columns[4]),
+					toLocalDate(columns[5]),
+					toLocalDate(columns[6]),
+					((Number)columns[7]).intValue(),
+					((Number)columns[8]).intValue(),
+					toTimestamp(columns[9]));
+		}).toList();
+	}
+	
+	private Integer toInteger(Object value) {
+		return value != null ? ((Number)value).intValue() : null;
+	}
+	
+	private LocalDate toLocalDate(Object value) {
+		if (value instanceof Date date) {
+			return date.toLocalDate();
+		}
+		return (LocalDate)value;
+	}
+	
+	private Timestamp toTimestamp(Object value) {
+		if (value instanceof LocalDateTime localDateTime) {
+			return Timestamp.valueOf(localDateTime);
+		}
+		return (Timestamp)value;
+	}
+}
@@ -3,9 +3,12 @@ package com.example.samuraitravel.repository;
 import java.util.List;
 import java.util.Optional;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import com.example.samuraitravel.entity.House;
@@ -18,9 +21,17 @@ public interface ReviewRepository extends JpaRepository<Review, Integer> {
 	// ページングが不要で6件固定のため戻り値にList<Review>を使う
 	public List<Review> findTop6ByHouseOrderByCreatedAtDesc(House house);
 	
+	// 民宿詳細ページ用に、最新のレビューを投稿者と一緒に取得する(投稿者ごとの追加クエリを出さない)
+	@Query("SELECT r FROM Review r JOIN FETCH r.user u JOIN FETCH u.role WHERE r.house.id = :houseId ORDER BY r.createdAt DESC, r.id DESC")
+	public List<Review> findNewReviewsWithUser(@Param("houseId") Integer houseId, Limit limit);
+	
 	// 特定の民宿とユーザーに紐づくレビューを取得し、該当エンティティを出力する。
 	public Optional<Review> findByHouseAndUser(House house, User user);
 	
+	// 特定のユーザーがレビューを投稿した民宿のIDだけを取得する
+	@Query("SELECT r.house.id FROM Review r WHERE r.user.id = :userId")
+	public List<Integer> findHouseIdsByUserId(@Param("userId") Integer userId);
+	
 	// 特定の民宿に対するレビュー総数をカウントし、その結果を出力する。
 	// 大量の件数に対応するためlong型にする(Spring Data JPAの仕様)
 	public long countByHouse(House house);
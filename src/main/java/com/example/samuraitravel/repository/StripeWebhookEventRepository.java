@@ -0,0 +1,36 @@
+package com.example.samuraitravel.repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.example.samuraitravel.entity.StripeWebhookEvent;
+
+public interface StripeWebhookEventRepository extends JpaRepository<StripeWebhookEvent, Long> {
+	// 処理してよい時刻を過ぎた処理待ちのイベントのIDを古い順に取得する
+	@Query("SELECT e.id FROM StripeWebhookEvent e WHERE e.status = 'PENDING' AND e.nextAttemptAt <= :now ORDER BY e.nextAttemptAt, e.id")
+	public List<Long> findDueIds(@Param("now") LocalDateTime now, Limit limit);
+	
+	// 処理待ちのイベントを取る。処理中に他のワーカー(別のサーバーを含む)が取らないよう、leaseUntilまで次の処理を遅らせる
+	// 取れた場合は1、他のワーカーが先に取っていた場合は0を返す。処理中に落ちた場合はleaseUntilを過ぎたら再び取られる
+	@Modifying
+	@Transactional
+	@Query("UPDATE StripeWebhookEvent e SET e.attempts = e.attempts + 1, e.nextAttemptAt = :leaseUntil "
+			+ "WHERE e.id = :id AND e.status = 'PENDING' AND e.nextAttemptAt <= :now")
+	public int claim(@Param("id") Long id, @Param("now") LocalDateTime now, @Param("leaseUntil") LocalDateTime leaseUntil);
+	
+	// 管理者の一覧用に、指定した状態(返金済み・失敗)のイベントを取得する
+	public Page<StripeWebhookEvent> findByStatusIn(List<String> statuses, Pageable pageable);
+	
+	// 処理待ちのイベントの件数と、最も古いイベントの受信日時
+	@Query("SELECT COUNT(e), MIN(e.receivedAt) FROM StripeWebhookEvent e WHERE e.status = 'PENDING'")
+	public List<Object[]> findPendingBacklog();
+}
@@ -1,12 +1,16 @@
 package com.example.samuraitravel.repository;
 
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
+import java.util.List;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
 import com.example.samuraitravel.entity.User;
 
 public interface UserRepository extends JpaRepository<User,Integer> {
 	public User findByEmail(String email);
-	public Page<User> findByNameLikeOrFuriganaLike(String nameKeyword, String furiganaKeyword, Pageable pageable);
+	
+	// 検索インデックスの作成用に、全ユーザーのID・氏名・フリガナ・メールアドレスをID順に取得する
+	@Query("SELECT u.id, u.name, u.furigana, u.email FROM User u ORDER BY u.id")
+	public List<Object[]> findSearchFields();
 }
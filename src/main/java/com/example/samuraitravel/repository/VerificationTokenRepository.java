@@ -1,9 +1,41 @@
 package com.example.samuraitravel.repository;
 
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import com.example.samuraitravel.entity.VerificationToken;
 
+import jakarta.persistence.LockModeType;
+
 public interface VerificationTokenRepository extends JpaRepository <VerificationToken,Integer> {
-	public VerificationToken findByToken(String token);
+	// 認証に使う、nowの時点で期限内のトークンをユーザーと一緒に取得し、両方の行をロックする
+	// 同じトークンでの認証や掃除と重なった場合は、先にロックを取った方がコミットするまで待つ
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("SELECT v FROM VerificationToken v JOIN FETCH v.user WHERE v.tokenHash = :tokenHash AND v.expiresAt > :now")
+	public VerificationToken findUsableForUpdate(@Param("tokenHash") byte[] tokenHash, @Param("now") LocalDateTime now);
+	
+	// 掃除用に、nowの時点で期限が切れているトークンのIDを期限の古い順に取得する
+	@Query("SELECT v.id FROM VerificationToken v WHERE v.expiresAt < :now ORDER BY v.expiresAt, v.id")
+	public List<Integer> findIdsExpiredBefore(@Param("now") LocalDateTime now, Limit limit);
+	
+	// 指定したトークンのうち、まだ認証されていないユーザーのIDを取得し、トークンとユーザーの行をロックする
+	// 認証の途中だった場合はそのコミットを待ってから読むため、認証済みのユーザーや削除済みのトークンは含まない
+	@Query(value = "SELECT v.user_id FROM verification_tokens v JOIN users u ON u.id = v.user_id WHERE v.id IN (:ids) AND u.enabled = FALSE FOR UPDATE", nativeQuery = true)
+	public List<Integer> findUnverifiedUserIdsForUpdate(@Param("ids") List<Integer> ids);
+	
+	@Modifying
+	@Query(value = "DELETE FROM verification_tokens WHERE id IN (:ids)", nativeQuery = true)
+	public int deleteExpired(@Param("ids") List<Integer> ids);
+	
+	// トークンを削除した後に、認証されないまま期限が切れたユーザーを削除する
+	@Modifying
+	@Query(value = "DELETE FROM users WHERE id IN (:ids) AND enabled = FALSE", nativeQuery = true)
+	public int deleteUnverifiedUsers(@Param("ids") List<Integer> ids);
 }
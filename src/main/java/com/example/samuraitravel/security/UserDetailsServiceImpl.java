@@ -11,20 +11,21 @@ import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 
 import com.example.samuraitravel.entity.User;
-import com.example.samuraitravel.repository.UserRepository;
+import com.example.samuraitravel.service.UserPrincipalCache;
 
 @Service
 public class UserDetailsServiceImpl implements UserDetailsService {
-	private final UserRepository userRepository;
+	private final UserPrincipalCache userPrincipalCache;
 	
-	public UserDetailsServiceImpl(UserRepository userRepository) {
-		this.userRepository = userRepository;
+	public UserDetailsServiceImpl(UserPrincipalCache userPrincipalCache) {
+		this.userPrincipalCache = userPrincipalCache;
 	}
 	
 	@Override
 	public UserDetails loadUserByUsername(String email) throws UsernameNotFoundException { 
 		try {
-			User user = userRepository.findByEmail(email);
+			// キャンペーンメールの後などにログインが集中してもデータベースに問い合わせないよう、キャッシュから引く
+			User user = userPrincipalCache.findByEmail(email);
 			String userRoleName = user.getRole().getName();
 			Collection<GrantedAuthority> authorities = new ArrayList<>();
 			authorities.add(new SimpleGrantedAuthority(userRoleName));
@@ -18,8 +18,8 @@ public class WebSecurityConfig {
 	public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
 		http
 			.authorizeHttpRequests((requests) -> requests
-				.requestMatchers("/css/**", "/images/**", "/js/**", "/storage/**", "/", "/signup/**", "/houses", "/houses/{id}", "/stripe/webhook", "/houses/{houseId}/reviews").permitAll() // すべてのユーザーにアクセスを許可するURL
-				.requestMatchers("/admin/**").hasRole("ADMIN") // 管理者にのみアクセスを許可するURL
+				.requestMatchers("/css/**", "/images/**", "/js/**", "/storage/**", "/", "/signup/**", "/houses", "/houses/{id}", "/stripe/webhook", "/houses/{houseId}/reviews", "/houses/{id}/reservations/booked-ranges", "/houses/{id}/reservations/quotes").permitAll() // すべてのユーザーにアクセスを許可するURL
+				.requestMatchers("/admin/**", "/actuator/**").hasRole("ADMIN") // 管理者にのみアクセスを許可するURL
 				.anyRequest().authenticated()		//	上記以外のURLはログインが必要（会員または管理者のどちらでもOK）
 			)
 			.formLogin((form) -> form
@@ -0,0 +1,65 @@
+package com.example.samuraitravel.service;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+// 外部サービスの呼び出しが続けて失敗したら、しばらくは呼び出さずにすぐ失敗させる(相手の障害中にスレッドを待たせない)
+// 閉(通常) → failureThreshold回続けて失敗したら開(呼び出さない) → openDurationが過ぎたら1件だけ試す(半開) → 成功したら閉に戻る
+final class CircuitBreaker {
+	enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+	
+	private final int failureThreshold;
+	private final long openNanos;
+	private final LongSupplier nanoClock;
+	
+	private State state = State.CLOSED;
+	private int consecutiveFailures;
+	private long openedAt;
+	
+	CircuitBreaker(int failureThreshold, Duration openDuration) {
+		this(failureThreshold, openDuration, System::nanoTime);
+	}
+	
+	CircuitBreaker(int failureThreshold, Duration openDuration, LongSupplier nanoClock) {
+		this.failureThreshold = failureThreshold;
+		this.openNanos = openDuration.toNanos();
+		this.nanoClock = nanoClock;
+	}
+	
+	// 呼び出してよい場合はtrueを返す。trueを返したら、結果をonSuccess()かonFailure()で必ず知らせる
+	synchronized boolean tryAcquire() {
+		switch (state) {
+			case CLOSED:
+				return true;
+			case OPEN:
+				if (nanoClock.getAsLong() - openedAt < openNanos) {
+					return false;
+				}
+				state = State.HALF_OPEN;
+				return true;
+			default:
+				// 半開の間は試している1件の結果が出るまで呼び出さない
+				return false;
+		}
+	}
+	
+	synchronized void onSuccess() {
+		state = State.CLOSED;
+		consecutiveFailures = 0;
+	}
+	
+	synchronized void onFailure() {
+		consecutiveFailures++;
+		if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+			state = State.OPEN;
+			openedAt = nanoClock.getAsLong();
+			consecutiveFailures = 0;
+		}
+	}
+	
+	synchronized State getState() {
+		return state;
+	}
+}
@@ -15,9 +15,11 @@ import com.example.samuraitravel.repository.FavoriteRepository;
 @Service
 public class FavoriteService {
 	private final FavoriteRepository favoriteRepository;
+	private final UserHouseMembershipService userHouseMembershipService;
 	
-	public FavoriteService (FavoriteRepository favoriteRepository) {
+	public FavoriteService (FavoriteRepository favoriteRepository, UserHouseMembershipService userHouseMembershipService) {
 		this.favoriteRepository = favoriteRepository;
+		this.userHouseMembershipService = userHouseMembershipService;
 	}
 	
 	// お気に入りをデータベースに登録するための処理
@@ -29,6 +31,7 @@ public class FavoriteService {
 		favorite.setUser(user);
 		// データベース(favoriteテーブル)にレビューを保存
 		favoriteRepository.save(favorite);
+		userHouseMembershipService.favoriteChanged(user.getId(), house.getId(), true);
 	}
 	
 	// 指定したIDを持つお気に入りを取得する。(Optionalを使うのはidが存在しない可能性もあるため)
@@ -51,12 +54,13 @@ public class FavoriteService {
 	// 指定したお気に入りを削除する。
 	public void deleteFavorite(Favorite favorite){
 		favoriteRepository.delete(favorite);
+		userHouseMembershipService.favoriteChanged(favorite.getUser().getId(), favorite.getHouse().getId(), false);
 	}
 	
 	// 指定したユーザーが、指定した民宿をすでにお気に入りに追加済みかどうかをチェックする。
-	// HouseとUserの組み合わせに対応するFavoriteをDBで探し、あればFavoriteオブジェクト(true)を返す。なければfalseを返す。
+	// ユーザーごとにメモリに持っているお気に入りの民宿IDで判定する(データベースには問い合わせない)
 	public boolean isFavorite(House house,User user){
-		return favoriteRepository.findByHouseAndUser(house,user) !=null;
+		return userHouseMembershipService.getMembership(user).isFavorite(house.getId());
 	}
 
 }
@@ -0,0 +1,244 @@
+package com.example.samuraitravel.service;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.example.samuraitravel.dto.BookedRange;
+import com.example.samuraitravel.entity.House;
+import com.example.samuraitravel.entity.Reservation;
+import com.example.samuraitravel.event.HouseChangedEvent;
+import com.example.samuraitravel.repository.HouseRepository;
+import com.example.samuraitravel.repository.ReservationRepository;
+
+// 民宿ごとに予約で埋まっている夜を1日1ビットで持つ空室インデックス
+// 宿泊日はチェックイン日からチェックアウト日の前日までの各日の夜で、チェックアウト日の夜は次の予約が入れられる
+// 他のサーバーで登録された予約は定期的に取り込むため、数秒遅れることがある。予約を受け付けるかどうかはreservation_nightsで確かめる
+@Service
+public class HouseAvailabilityService {
+	private final HouseRepository houseRepository;
+	private final ReservationRepository reservationRepository;
+	// 差分の更新で毎回読み直す、登録からの期間(予約の登録からコミットまでにかかる時間より十分長くする)
+	private final Duration refreshWindow;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	// 民宿IDの昇順リスト(全民宿から空いている民宿を探すときに使う)
+	private final SortedIntList houseIds = new SortedIntList();
+	// 民宿ID → 定員と予約で埋まっている夜
+	private final Map<Integer, HouseNights> houseNights = new HashMap<>();
+	// ビットの0番目に当たる日(索引を作った日)。これより前の夜は過去のため持たない
+	private long baseEpochDay;
+	
+	public HouseAvailabilityService(HouseRepository houseRepository, ReservationRepository reservationRepository,
+									@Value("${samuraitravel.availability.refresh-window}") Duration refreshWindow)
+	{
+		this.houseRepository = houseRepository;
+		this.reservationRepository = reservationRepository;
+		this.refreshWindow = refreshWindow;
+	}
+	
+	// 起動時にすべての民宿と、今日以降の夜を含む予約から索引を作り直す
+	// 読み込んでから索引を置き換えるまでにコミットされた予約は、次のrefresh()で取り込まれる
+	@EventListener(ApplicationReadyEvent.class)
+	@Transactional(readOnly = true)
+	public void rebuild() {
+		LocalDate today = LocalDate.now();
+		List<House> houses = houseRepository.findAll();
+		List<Object[]> stays = reservationRepository.findStaysEndingAfter(today);
+		
+		lock.writeLock().lock();
+		try {
+			houseIds.clear();
+			houseNights.clear();
+			baseEpochDay = today.toEpochDay();
+			for (House house : houses) {
+				houseIds.add(house.getId());
+				houseNights.put(house.getId(), new HouseNights(house.getCapacity()));
+			}
+			for (Object[] stay : stays) {
+				book((Integer) stay[0], (LocalDate) stay[1], (LocalDate) stay[2]);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	// 他のサーバー(とこのサーバー)で最近登録された予約を取り込む
+	// 予約IDは登録した順に振られるがコミットの順とは限らないため、最後に取り込んだIDからではなく、
+	// refreshWindowより前に登録された最後の予約の後から毎回読み直す(同じ予約を何度埋めても結果は変わらない)
+	@Scheduled(fixedDelayString = "${samuraitravel.availability.refresh-interval}")
+	@Transactional(readOnly = true)
+	public void refresh() {
+		Integer afterId = reservationRepository.findLastIdCreatedBefore(refreshWindow.toSeconds());
+		List<Object[]> stays = reservationRepository.findStaysAddedAfter(afterId != null ? afterId : 0, LocalDate.now());
+		
+		lock.writeLock().lock();
+		try {
+			for (Object[] stay : stays) {
+				book((Integer) stay[0], (LocalDate) stay[1], (LocalDate) stay[2]);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	// 民宿の登録・更新・削除がコミットされたら、その民宿の定員を差し替える(予約で埋まっている夜はそのまま)
+	@TransactionalEventListener(fallbackExecution = true)
+	@Transactional(propagation = Propagation.REQUIRES_NEW, readOnly = true)
+	public void onHouseChanged(HouseChangedEvent houseChangedEvent) {
+		Integer houseId = houseChangedEvent.getHouseId();
+		Optional<House> optionalHouse = houseRepository.findById(houseId);
+		
+		lock.writeLock().lock();
+		try {
+			if (optionalHouse.isEmpty()) {
+				houseIds.remove(houseId);
+				houseNights.remove(houseId);
+				return;
+			}
+			
+			houseIds.add(houseId);
+			HouseNights nights = houseNights.computeIfAbsent(houseId, key -> new HouseNights(0));
+			nights.capacity = optionalHouse.get().getCapacity();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	// このサーバーで予約の登録がコミットされたら、refresh()を待たずにその宿泊日を埋める
+	void reservationCreated(Reservation reservation) {
+		Integer houseId = reservation.getHouse().getId();
+		LocalDate checkinDate = reservation.getCheckinDate();
+		LocalDate checkoutDate = reservation.getCheckoutDate();
+		
+		TransactionCallbacks.afterCommit(() -> {
+			lock.writeLock().lock();
+			try {
+				book(houseId, checkinDate, checkoutDate);
+			} finally {
+				lock.writeLock().unlock();
+			}
+		});
+	}
+	
+	// 指定した民宿がチェックイン日からチェックアウト日の前日まで空いているかどうか(索引で確かめる)
+	public boolean isAvailable(Integer houseId, LocalDate checkinDate, LocalDate checkoutDate) {
+		lock.readLock().lock();
+		try {
+			HouseNights nights = houseNights.get(houseId);
+			return nights != null && isFree(nights, checkinDate, checkoutDate);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	// isAvailable()と同じだが、他のサーバーで登録された直後の予約も見えるよう、reservation_nightsに問い合わせる
+	// 予約の入力・確認のように、決済に進ませるかどうかを決める場合に使う
+	@Transactional(readOnly = true)
+	public boolean isAvailableInDatabase(Integer houseId, LocalDate checkinDate, LocalDate checkoutDate) {
+		return reservationRepository.countBookedNights(houseId, checkinDate, checkoutDate) == 0;
+	}
+	
+	// 指定した日程で空いていて、定員がminCapacity以上の民宿IDを昇順で返す
+	// candidateIds(昇順)を渡した場合はその中から、nullの場合はすべての民宿から探す。minCapacityがnullの場合は定員で絞り込まない
+	public int[] findAvailableHouseIds(int[] candidateIds, LocalDate checkinDate, LocalDate checkoutDate, Integer minCapacity) {
+		lock.readLock().lock();
+		try {
+			int[] ids = candidateIds != null ? candidateIds : houseIds.toArray();
+			int[] availableIds = new int[ids.length];
+			int n = 0;
+			for (int id : ids) {
+				HouseNights nights = houseNights.get(id);
+				if (nights == null || (minCapacity != null && nights.capacity < minCapacity)) {
+					continue;
+				}
+				if (isFree(nights, checkinDate, checkoutDate)) {
+					availableIds[n++] = id;
+				}
+			}
+			return Arrays.copyOf(availableIds, n);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	// 指定した民宿の今日以降の予約で埋まっている夜を、連続した範囲にまとめて返す
+	public List<BookedRange> findBookedRanges(Integer houseId) {
+		List<BookedRange> bookedRanges = new ArrayList<>();
+		
+		lock.readLock().lock();
+		try {
+			HouseNights nights = houseNights.get(houseId);
+			if (nights == null) {
+				return bookedRanges;
+			}
+			
+			int from = nights.bookedNights.nextSetBit(Math.max(toIndex(LocalDate.now()), 0));
+			while (from >= 0) {
+				int to = nights.bookedNights.nextClearBit(from);
+				bookedRanges.add(new BookedRange(toDate(from), toDate(to - 1)));
+				from = nights.bookedNights.nextSetBit(to);
+			}
+			return bookedRanges;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	// 読み取りロックか書き込みロックを取得した状態で呼び出す
+	private boolean isFree(HouseNights nights, LocalDate checkinDate, LocalDate checkoutDate) {
+		int from = Math.max(toIndex(checkinDate), 0);
+		int to = toIndex(checkoutDate);
+		if (from >= to) {
+			return true;
+		}
+		
+		int booked = nights.bookedNights.nextSetBit(from);
+		return booked < 0 || booked >= to;
+	}
+	
+	// 書き込みロックを取得した状態で呼び出す。索引を作った日より前の夜は無視する
+	private void book(Integer houseId, LocalDate checkinDate, LocalDate checkoutDate) {
+		HouseNights nights = houseNights.get(houseId);
+		int from = Math.max(toIndex(checkinDate), 0);
+		int to = toIndex(checkoutDate);
+		if (nights != null && from < to) {
+			nights.bookedNights.set(from, to);
+		}
+	}
+	
+	private int toIndex(LocalDate date) {
+		return (int) (date.toEpochDay() - baseEpochDay);
+	}
+	
+	private LocalDate toDate(int index) {
+		return LocalDate.ofEpochDay(baseEpochDay + index);
+	}
+	
+	// 書き換えは書き込みロックを取得した状態で行う
+	private static class HouseNights {
+		private int capacity;
+		private final BitSet bookedNights = new BitSet();
+		
+		private HouseNights(int capacity) {
+			this.capacity = capacity;
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package com.example.samuraitravel.service;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.example.samuraitravel.dto.HouseDetail;
+import com.example.samuraitravel.entity.House;
+import com.example.samuraitravel.entity.HouseReviewStats;
+import com.example.samuraitravel.entity.Review;
+import com.example.samuraitravel.entity.User;
+import com.example.samuraitravel.repository.HouseRepository;
+import com.example.samuraitravel.repository.ReviewRepository;
+
+// 民宿詳細ページの表示に必要な情報をまとめて取得する
+// 民宿・レビュー集計・閲覧ユーザーのお気に入り/レビュー状態を1回、最新レビューを1回の計2回のクエリで取得する
+@Service
+public class HouseDetailService {
+	private static final int NEW_REVIEW_COUNT = 6;
+	
+	private final HouseRepository houseRepository;
+	private final ReviewRepository reviewRepository;
+	
+	public HouseDetailService(HouseRepository houseRepository, ReviewRepository reviewRepository) {
+		this.houseRepository = houseRepository;
+		this.reviewRepository = reviewRepository;
+	}
+	
+	// 民宿が存在しない場合は空のOptionalを返す。未ログインの場合はuserにnullを渡す
+	@Transactional(readOnly = true)
+	public Optional<HouseDetail> loadHouseDetail(Integer houseId, User user) {
+		List<Object[]> rows = houseRepository.findDetailById(houseId, user != null ? user.getId() : null);
+		if (rows.isEmpty()) {
+			return Optional.empty();
+		}
+		
+		Object[] row = rows.get(0);
+		House house = (House) row[0];
+		HouseReviewStats reviewStats = (HouseReviewStats) row[1];
+		Integer favoriteId = (Integer) row[2];
+		boolean hasUserAlreadyReviewed = ((Number) row[3]).longValue() > 0;
+		
+		// レビュー集計の行がない民宿(レビューが1件もない)は件数0として扱う
+		if (reviewStats == null) {
+			reviewStats = new HouseReviewStats();
+			reviewStats.setHouseId(house.getId());
+		}
+		
+		// レビューの民宿は上のクエリで取得済みのため、投稿者だけを一緒に取得する
+		List<Review> newReviews = reviewRepository.findNewReviewsWithUser(houseId, Limit.of(NEW_REVIEW_COUNT));
+		
+		return Optional.of(new HouseDetail(house, newReviews, reviewStats, favoriteId, hasUserAlreadyReviewed));
+	}
+}
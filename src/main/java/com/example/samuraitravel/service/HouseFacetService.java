@@ -0,0 +1,174 @@
+package com.example.samuraitravel.service;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.example.samuraitravel.dto.HouseFacetCounts;
+import com.example.samuraitravel.entity.House;
+import com.example.samuraitravel.event.HouseChangedEvent;
+import com.example.samuraitravel.repository.HouseRepository;
+
+// 民宿一覧のサイドバー(エリア・予算・人数)の選択肢ごとの件数を、民宿を1回なめるだけで数える
+// 民宿ID・料金・定員・都道府県をIDの昇順に並べたプリミティブ配列で持ち、民宿が変わるたびに配列を丸ごと差し替える
+@Service
+public class HouseFacetService {
+	// サイドバーの選択肢と同じ値
+	private static final String[] PREFECTURES = {
+			"北海道", "青森県", "岩手県", "宮城県", "秋田県", "山形県", "福島県", "茨城県", "栃木県", "群馬県",
+			"埼玉県", "千葉県", "東京都", "神奈川県", "新潟県", "山梨県", "長野県", "富山県", "石川県", "福井県",
+			"岐阜県", "静岡県", "愛知県", "三重県", "滋賀県", "京都府", "大阪府", "兵庫県", "奈良県", "和歌山県",
+			"鳥取県", "島根県", "岡山県", "広島県", "山口県", "徳島県", "香川県", "愛媛県", "高知県", "福岡県",
+			"佐賀県", "長崎県", "熊本県", "大分県", "宮崎県", "鹿児島県", "沖縄県" };
+	private static final int[] MAX_PRICES = { 6000, 7000, 8000, 9000, 10000 };
+	private static final int[] MIN_CAPACITIES = { 1, 2, 3, 4, 5, 6 };
+	
+	private final HouseRepository houseRepository;
+	
+	// 民宿ID → 料金・定員・都道府県(配列を作り直すときの元データ。書き換えはsynchronizedで行う)
+	private final Map<Integer, FacetValues> facetValues = new TreeMap<>();
+	// 読み込み側はロックなしで参照する
+	private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(Snapshot.build(Map.of()));
+	
+	public HouseFacetService(HouseRepository houseRepository) {
+		this.houseRepository = houseRepository;
+	}
+	
+	// 起動時にすべての民宿から配列を作り直す
+	@EventListener(ApplicationReadyEvent.class)
+	@Transactional(readOnly = true)
+	public synchronized void rebuild() {
+		List<House> houses = houseRepository.findAll();
+		
+		facetValues.clear();
+		houses.forEach(house -> facetValues.put(house.getId(), FacetValues.of(house)));
+		snapshot.set(Snapshot.build(facetValues));
+	}
+	
+	// 民宿の登録・更新・削除がコミットされたら、その民宿の分だけ差し替えて配列を作り直す
+	@TransactionalEventListener(fallbackExecution = true)
+	@Transactional(propagation = Propagation.REQUIRES_NEW, readOnly = true)
+	public synchronized void onHouseChanged(HouseChangedEvent houseChangedEvent) {
+		Integer houseId = houseChangedEvent.getHouseId();
+		Optional<House> optionalHouse = houseRepository.findById(houseId);
+		
+		facetValues.remove(houseId);
+		optionalHouse.ifPresent(house -> facetValues.put(house.getId(), FacetValues.of(house)));
+		snapshot.set(Snapshot.build(facetValues));
+	}
+	
+	// 選択肢ごとの件数を数える
+	// candidateIds(昇順)にはキーワード・宿泊日で絞り込んだ民宿IDを渡す。nullの場合はすべての民宿が対象
+	// area・maxPrice・minCapacityには現在選択されている値を渡す(未選択はnull)
+	public HouseFacetCounts count(int[] candidateIds, String area, Integer maxPrice, Integer minCapacity) {
+		Snapshot current = snapshot.get();
+		boolean areaSelected = area != null && !area.isEmpty();
+		int selectedPrefecture = areaSelected ? Arrays.asList(PREFECTURES).indexOf(area) : -1;
+		
+		int[] areaCounts = new int[PREFECTURES.length];
+		int[] priceCounts = new int[MAX_PRICES.length];
+		int[] capacityCounts = new int[MIN_CAPACITIES.length];
+		
+		int length = candidateIds != null ? candidateIds.length : current.ids().length;
+		for (int i = 0; i < length; i++) {
+			int index = i;
+			if (candidateIds != null) {
+				index = Arrays.binarySearch(current.ids(), candidateIds[i]);
+				if (index < 0) {
+					continue;
+				}
+			}
+			
+			int price = current.prices()[index];
+			int capacity = current.capacities()[index];
+			int prefecture = current.prefectures()[index];
+			boolean matchesArea = !areaSelected || (selectedPrefecture >= 0 && prefecture == selectedPrefecture);
+			boolean matchesPrice = maxPrice == null || price <= maxPrice;
+			boolean matchesCapacity = minCapacity == null || capacity >= minCapacity;
+			
+			// 各選択肢の件数には、その選択肢の種類以外の条件だけを適用する
+			if (matchesPrice && matchesCapacity && prefecture >= 0) {
+				areaCounts[prefecture]++;
+			}
+			if (matchesArea && matchesCapacity) {
+				for (int j = 0; j < MAX_PRICES.length; j++) {
+					if (price <= MAX_PRICES[j]) {
+						priceCounts[j]++;
+					}
+				}
+			}
+			if (matchesArea && matchesPrice) {
+				for (int j = 0; j < MIN_CAPACITIES.length; j++) {
+					if (capacity >= MIN_CAPACITIES[j]) {
+						capacityCounts[j]++;
+					}
+				}
+			}
+		}
+		
+		Map<String, Integer> areaCountMap = new LinkedHashMap<>();
+		for (int j = 0; j < PREFECTURES.length; j++) {
+			areaCountMap.put(PREFECTURES[j], areaCounts[j]);
+		}
+		Map<Integer, Integer> priceCountMap = new LinkedHashMap<>();
+		for (int j = 0; j < MAX_PRICES.length; j++) {
+			priceCountMap.put(MAX_PRICES[j], priceCounts[j]);
+		}
+		Map<Integer, Integer> capacityCountMap = new LinkedHashMap<>();
+		for (int j = 0; j < MIN_CAPACITIES.length; j++) {
+			capacityCountMap.put(MIN_CAPACITIES[j], capacityCounts[j]);
+		}
+		return new HouseFacetCounts(areaCountMap, priceCountMap, capacityCountMap);
+	}
+	
+	// 住所の先頭の都道府県のPREFECTURES上の位置。見つからなければ-1
+	private static int prefectureOf(String address) {
+		if (address == null) {
+			return -1;
+		}
+		for (int i = 0; i < PREFECTURES.length; i++) {
+			if (address.startsWith(PREFECTURES[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	private record FacetValues(int price, int capacity, int prefecture) {
+		private static FacetValues of(House house) {
+			return new FacetValues(house.getPrice(), house.getCapacity(), prefectureOf(house.getAddress()));
+		}
+	}
+	
+	// 同じ位置の要素が同じ民宿を表す。idsは昇順
+	private record Snapshot(int[] ids, int[] prices, int[] capacities, int[] prefectures) {
+		private static Snapshot build(Map<Integer, FacetValues> facetValues) {
+			int size = facetValues.size();
+			int[] ids = new int[size];
+			int[] prices = new int[size];
+			int[] capacities = new int[size];
+			int[] prefectures = new int[size];
+			
+			int i = 0;
+			for (Map.Entry<Integer, FacetValues> entry : facetValues.entrySet()) {
+				ids[i] = entry.getKey();
+				prices[i] = entry.getValue().price();
+				capacities[i] = entry.getValue().capacity();
+				prefectures[i] = entry.getValue().prefecture();
+				i++;
+			}
+			return new Snapshot(ids, prices, capacities, prefectures);
+		}
+	}
+}
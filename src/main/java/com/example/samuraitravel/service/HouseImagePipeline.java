@@ -0,0 +1,194 @@
+package com.example.samuraitravel.service;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.springframework.stereotype.Service;
+
+import com.example.samuraitravel.dto.ImageVariant;
+import com.example.samuraitravel.repository.HouseRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+
+// 民宿画像のサイズ違い(サムネイル・カード・詳細)をバックグラウンドで作る
+// 管理画面のリクエストは元画像を保存した時点で返し、サイズ違いができたら民宿に記録する(それまでは元画像を表示する)
+@Service
+public class HouseImagePipeline {
+	// 同時に処理する数と、待たせておける数の上限
+	private static final int THREADS = 2;
+	private static final int QUEUE_CAPACITY = 100;
+	private static final float JPEG_QUALITY = 0.8f;
+	// 元画像の画素数の上限。ヘッダーの幅と高さだけを先に読んで確かめ、超える画像は読み込まない(元画像のまま表示する)
+	// 小さなファイルでも巨大な幅と高さを書いておけば、デコードでヒープを使い切らせることができるため
+	private static final long MAX_PIXELS = 50_000_000L;
+	// 読み込む画素数の目安(一番大きいサイズ違いの幅の2倍四方)。これを超える画像は行と列を間引いて読み込み、
+	// 縮小の品質を保ちつつ、大きな画像でも1枚あたり数十MBしかメモリを使わないようにする
+	private static final long DECODE_PIXELS = (long)ImageVariant.DETAIL.getWidth() * 2 * ImageVariant.DETAIL.getWidth() * 2;
+	
+	private final HouseRepository houseRepository;
+	private final HouseImageStorage houseImageStorage;
+	private final ThreadPoolExecutor executor;
+	
+	private final Timer processingTimer;
+	private final Counter failureCounter;
+	private final Counter rejectedCounter;
+	
+	public HouseImagePipeline(HouseRepository houseRepository, HouseImageStorage houseImageStorage, MeterRegistry meterRegistry) {
+		this.houseRepository = houseRepository;
+		this.houseImageStorage = houseImageStorage;
+		
+		AtomicInteger threadNumber = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+			Thread thread = new Thread(runnable, "house-image-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		meterRegistry.gauge("samuraitravel.house_images.queue", executor, pool -> pool.getQueue().size());
+		this.processingTimer = meterRegistry.timer("samuraitravel.house_images.processing");
+		this.failureCounter = meterRegistry.counter("samuraitravel.house_images.failed");
+		this.rejectedCounter = meterRegistry.counter("samuraitravel.house_images.rejected");
+	}
+	
+	// 民宿の保存がコミットされたら、元画像からサイズ違いを作るよう依頼する
+	// 待ちが上限を超えている場合は作らずに元画像のまま表示する(--generate-image-variantsで後から作れる)
+	public void submit(Integer houseId, String imageName) {
+		TransactionCallbacks.afterCommit(() -> {
+			try {
+				executor.execute(() -> process(houseId, imageName));
+			} catch (RejectedExecutionException e) {
+				rejectedCounter.increment();
+			}
+		});
+	}
+	
+	// 呼び出したスレッドでサイズ違いを作る
+	public void process(Integer houseId, String imageName) {
+		processingTimer.record(() -> generate(houseId, imageName));
+	}
+	
+	private void generate(Integer houseId, String imageName) {
+		try {
+			BufferedImage original = read(houseImageStorage.resolve(imageName));
+			if (original == null) {
+				// 読み込めない形式の画像や大きすぎる画像は元画像のまま表示する
+				failureCounter.increment();
+				return;
+			}
+			
+			for (ImageVariant variant : ImageVariant.values()) {
+				Path path = houseImageStorage.resolve(variant.fileNameOf(imageName));
+				// 画像のファイル名は中身のハッシュのため、同じ名前のサイズ違いがあれば作り直さなくてよい
+				if (!Files.exists(path)) {
+					writeJpeg(resize(original, variant.getWidth()), path);
+				}
+			}
+			
+			// 処理中に別の画像に差し替えられていた場合は記録しない
+			houseRepository.markImageVariantsReady(houseId, imageName);
+		} catch (IOException | RuntimeException e) {
+			failureCounter.increment();
+			e.printStackTrace();
+		}
+	}
+	
+	// 幅と高さを確かめてから、DECODE_PIXELSを超えないよう間引いて読み込む。読み込めない形式か、画素数が上限を超える場合はnullを返す
+	private static BufferedImage read(Path path) throws IOException {
+		try (ImageInputStream imageInputStream = ImageIO.createImageInputStream(path.toFile())) {
+			if (imageInputStream == null) {
+				return null;
+			}
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInputStream);
+			if (!readers.hasNext()) {
+				return null;
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(imageInputStream, true, true);
+				int width = reader.getWidth(0);
+				int height = reader.getHeight(0);
+				long pixels = (long)width * height;
+				if (width <= 0 || height <= 0 || pixels > MAX_PIXELS) {
+					return null;
+				}
+				
+				ImageReadParam param = reader.getDefaultReadParam();
+				int subsampling = Math.max(1, (int)Math.ceil(Math.sqrt((double)pixels / DECODE_PIXELS)));
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				return reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+	
+	// 幅をwidthに縮小する(元画像のほうが小さい場合は拡大しない)。JPEGは透過を持てないため白で塗りつぶす
+	private static BufferedImage resize(BufferedImage original, int width) {
+		int targetWidth = Math.min(width, original.getWidth());
+		int targetHeight = Math.max(1, (int)Math.round((double)original.getHeight() * targetWidth / original.getWidth()));
+		
+		BufferedImage resized = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = resized.createGraphics();
+		try {
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			graphics.drawImage(original, 0, 0, targetWidth, targetHeight, Color.WHITE, null);
+		} finally {
+			graphics.dispose();
+		}
+		return resized;
+	}
+	
+	// 一時ファイルに書いてから置き換え、書きかけのファイルが配信されないようにする
+	// 一時ファイルは書き込むたびに別の名前で作る(同じ画像を同時に処理しても、互いのファイルを上書き・移動しない)
+	private static void writeJpeg(BufferedImage image, Path path) throws IOException {
+		Path temporaryPath = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+		try {
+			ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+			try (OutputStream outputStream = Files.newOutputStream(temporaryPath);
+					ImageOutputStream imageOutputStream = ImageIO.createImageOutputStream(outputStream)) {
+				ImageWriteParam param = writer.getDefaultWriteParam();
+				param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				param.setCompressionQuality(JPEG_QUALITY);
+				writer.setOutput(imageOutputStream);
+				writer.write(null, new IIOImage(image, null, null), param);
+			} finally {
+				writer.dispose();
+			}
+			Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			// 移動できなかった場合は一時ファイルを残さない
+			Files.deleteIfExists(temporaryPath);
+		}
+	}
+	
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
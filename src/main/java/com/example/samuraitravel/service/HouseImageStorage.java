@@ -0,0 +1,193 @@
+package com.example.samuraitravel.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+
+// 民宿画像を中身のSHA-256から決めたファイル名で保存する
+// 同じ画像は同じファイル名になるため、2回目以降のアップロードでは新しいファイルを作らない
+// ファイル名が同じなら中身も同じなので、/storage/**はブラウザに無期限でキャッシュさせてよい
+// 保存先はsamuraitravel.storage.rootで設定する(jarの外のディレクトリ)
+@Service
+public class HouseImageStorage {
+	// 画像の種類を判定するのに必要な先頭のバイト数
+	private static final int SIGNATURE_LENGTH = 12;
+	// 1回のアップロードで使うバッファの大きさ(ファイルの大きさにかかわらず一定)
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final Pattern STORED_IMAGE_NAME = Pattern.compile("[0-9a-f]{64}\\.[a-z]{3,4}");
+	
+	@Value("${samuraitravel.storage.root}")
+	private Path root;
+	
+	@Value("${samuraitravel.storage.max-image-size}")
+	private DataSize maxImageSize;
+	
+	// 保存先のディレクトリ内の画像ファイルのパス。ディレクトリの外を指す名前の場合はnullを返す
+	public Path resolve(String imageName) {
+		Path path = root.resolve(imageName).normalize();
+		return path.startsWith(root.normalize()) ? path : null;
+	}
+	
+	// store()で保存済みの画像のファイル名かどうか(先にアップロードされた画像を民宿に設定するときの確認用)
+	public boolean isStored(String imageName) {
+		return imageName != null && STORED_IMAGE_NAME.matcher(imageName).matches() && Files.isRegularFile(resolve(imageName));
+	}
+	
+	// フォームで送られた画像を保存し、保存したファイル名を返す
+	public String store(MultipartFile imageFile) {
+		try (ReadableByteChannel source = Channels.newChannel(imageFile.getInputStream())) {
+			return store(source, imageFile.getSize());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	// リクエスト本文などのストリームから画像を保存し、保存したファイル名を返す
+	// declaredLengthには送られてくるバイト数を渡す(わからない場合は-1)。上限を超えていれば読み込む前に断る
+	public String store(ReadableByteChannel source, long declaredLength) {
+		if (declaredLength > maxImageSize.toBytes()) {
+			throw tooLarge();
+		}
+		
+		try {
+			return copyAndHash(source);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	// 保存済みの画像を中身から決めたファイル名でも保存し、そのファイル名を返す(元のファイルは残す)
+	// 画像ファイルが見つからない場合と画像ではない場合は空のOptionalを返す
+	public Optional<String> rehash(String imageName) {
+		Path path = resolve(imageName);
+		if (path == null || !Files.isRegularFile(path)) {
+			return Optional.empty();
+		}
+		
+		try (FileChannel source = FileChannel.open(path, StandardOpenOption.READ)) {
+			return Optional.of(store(source, source.size()));
+		} catch (ImageUploadException e) {
+			return Optional.empty();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	// 一時ファイルに書き込みながら、画像の種類の判定・大きさの確認・ハッシュの計算を行う
+	// 画像ではないか上限を超えた時点で読み込みをやめ、一時ファイルを消す。最後まで読めたらハッシュのファイル名に移動する
+	private String copyAndHash(ReadableByteChannel source) throws IOException {
+		Files.createDirectories(root);
+		
+		Path temporaryPath = Files.createTempFile(root, "upload-", ".tmp");
+		try {
+			MessageDigest digest = sha256();
+			String extension = null;
+			long maxBytes = maxImageSize.toBytes();
+			long totalBytes = 0;
+			
+			try (FileChannel target = FileChannel.open(temporaryPath, StandardOpenOption.WRITE)) {
+				ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+				while (true) {
+					int read = source.read(buffer);
+					if (read < 0) {
+						break;
+					}
+					totalBytes += read;
+					if (totalBytes > maxBytes) {
+						throw tooLarge();
+					}
+					
+					// 先頭のバイトがそろうまでは書き込まずに読み進める
+					if (extension == null) {
+						if (buffer.position() < SIGNATURE_LENGTH && buffer.hasRemaining()) {
+							continue;
+						}
+						extension = detectExtension(buffer);
+					}
+					write(buffer, digest, target);
+				}
+				
+				// 先頭のバイトがそろう前に読み終わった(小さすぎる)場合
+				if (extension == null) {
+					extension = detectExtension(buffer);
+				}
+				write(buffer, digest, target);
+			}
+			
+			String imageName = HexFormat.of().formatHex(digest.digest()) + extension;
+			Path path = root.resolve(imageName);
+			// 同じ画像がすでにあればそれを使う
+			if (!Files.exists(path)) {
+				Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE);
+			}
+			return imageName;
+		} finally {
+			Files.deleteIfExists(temporaryPath);
+		}
+	}
+	
+	private static void write(ByteBuffer buffer, MessageDigest digest, FileChannel target) throws IOException {
+		buffer.flip();
+		digest.update(buffer.duplicate());
+		while (buffer.hasRemaining()) {
+			target.write(buffer);
+		}
+		buffer.clear();
+	}
+	
+	// バッファの先頭のバイト(ファイルの先頭)から画像の種類を判定し、拡張子を返す
+	private static String detectExtension(ByteBuffer buffer) {
+		int length = buffer.position();
+		if (length >= 3 && matches(buffer, 0, 0xFF, 0xD8, 0xFF)) {
+			return ".jpg";
+		}
+		if (length >= 8 && matches(buffer, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+			return ".png";
+		}
+		if (length >= 4 && matches(buffer, 0, 'G', 'I', 'F', '8')) {
+			return ".gif";
+		}
+		if (length >= 12 && matches(buffer, 0, 'R', 'I', 'F', 'F') && matches(buffer, 8, 'W', 'E', 'B', 'P')) {
+			return ".webp";
+		}
+		throw new ImageUploadException("画像はJPEG・PNG・GIF・WebPのいずれかを選択してください。", false);
+	}
+	
+	private static boolean matches(ByteBuffer buffer, int offset, int... signature) {
+		for (int i = 0; i < signature.length; i++) {
+			if ((buffer.get(offset + i) & 0xFF) != signature[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private ImageUploadException tooLarge() {
+		return new ImageUploadException("画像は" + maxImageSize.toMegabytes() + "MB以下のファイルを選択してください。", true);
+	}
+	
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package com.example.samuraitravel.service;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.example.samuraitravel.dto.StayQuote;
+import com.example.samuraitravel.entity.House;
+import com.example.samuraitravel.entity.HousePriceRule;
+import com.example.samuraitravel.event.HouseChangedEvent;
+import com.example.samuraitravel.event.HouseChangedEventPublisher;
+import com.example.samuraitravel.form.HousePriceRuleForm;
+import com.example.samuraitravel.repository.HousePriceRuleRepository;
+import com.example.samuraitravel.repository.HouseRepository;
+
+// 宿泊料金の計算
+// 民宿ごとに今日から1年分の料金カレンダー(1泊の料金の累積和)を作っておき、宿泊料金を泊数によらず一定の時間で求める
+// 民宿の宿泊料金や料金ルールが変わったら、その民宿のカレンダーを作り直す
+@Service
+public class HousePricingService {
+	// 料金カレンダーに持つ日数
+	private static final int CALENDAR_DAYS = 366;
+	// カレンダーを作ってからこの日数が過ぎたら、今日から作り直す(料金ルールはメモリ上のものを使う)
+	private static final int REBASE_DAYS = 7;
+	// 予約フォームのカレンダーにまとめて返す日数。予約を受け付けるのも今日からこの日数先のチェックアウトまで
+	public static final int QUOTE_DAYS = 90;
+	
+	private final HouseRepository houseRepository;
+	private final HousePriceRuleRepository housePriceRuleRepository;
+	private final HouseChangedEventPublisher houseChangedEventPublisher;
+	// 民宿ID → 料金カレンダー(差し替えるだけで書き換えない)
+	private final Map<Integer, PriceCalendar> calendars = new ConcurrentHashMap<>();
+	
+	public HousePricingService(HouseRepository houseRepository, HousePriceRuleRepository housePriceRuleRepository, HouseChangedEventPublisher houseChangedEventPublisher) {
+		this.houseRepository = houseRepository;
+		this.housePriceRuleRepository = housePriceRuleRepository;
+		this.houseChangedEventPublisher = houseChangedEventPublisher;
+	}
+	
+	// 起動時にすべての民宿のカレンダーを作る
+	@EventListener(ApplicationReadyEvent.class)
+	@Transactional(readOnly = true)
+	public void rebuild() {
+		long today = LocalDate.now().toEpochDay();
+		Map<Integer, List<HousePriceRule>> rulesByHouseId = new HashMap<>();
+		for (HousePriceRule rule : housePriceRuleRepository.findAllByOrderByIdAsc()) {
+			rulesByHouseId.computeIfAbsent(rule.getHouseId(), key -> new ArrayList<>()).add(rule);
+		}
+		
+		Map<Integer, PriceCalendar> built = new HashMap<>();
+		for (House house : houseRepository.findAll()) {
+			built.put(house.getId(), new PriceCalendar(house.getPrice(), rulesByHouseId.getOrDefault(house.getId(), List.of()), today, CALENDAR_DAYS));
+		}
+		calendars.putAll(built);
+		calendars.keySet().retainAll(built.keySet());
+	}
+	
+	// 民宿の登録・更新・削除や料金ルールの変更がコミットされたら、その民宿のカレンダーを作り直す
+	@TransactionalEventListener(fallbackExecution = true)
+	@Transactional(propagation = Propagation.REQUIRES_NEW, readOnly = true)
+	public void onHouseChanged(HouseChangedEvent houseChangedEvent) {
+		Integer houseId = houseChangedEvent.getHouseId();
+		Optional<PriceCalendar> calendar = load(houseId);
+		if (calendar.isEmpty()) {
+			calendars.remove(houseId);
+		} else {
+			calendars.put(houseId, calendar.get());
+		}
+	}
+	
+	// 予約を受け付ける日程かどうか(チェックイン日が今日以降で、チェックアウト日がチェックイン日より後、かつ今日からQUOTE_DAYS日以内)
+	public boolean isBookable(LocalDate checkinDate, LocalDate checkoutDate) {
+		LocalDate today = LocalDate.now();
+		return !checkinDate.isBefore(today) && checkinDate.isBefore(checkoutDate) && !checkoutDate.isAfter(today.plusDays(QUOTE_DAYS));
+	}
+	
+	// チェックイン日からチェックアウト日の前日までの宿泊料金(isBookable()で確かめた日程に限る)
+	public Integer calculateAmount(Integer houseId, LocalDate checkinDate, LocalDate checkoutDate) {
+		return Math.toIntExact(calendarOf(houseId).amount(checkinDate.toEpochDay(), checkoutDate.toEpochDay()));
+	}
+	
+	// fromからdays日分の1泊の料金と、checkinDate(nullの場合は求めない)からその日にチェックアウトした場合の宿泊料金
+	// checkinDateは今日からQUOTE_DAYS日以内に限る(料金カレンダーの範囲内で求められる)
+	public List<StayQuote> quote(Integer houseId, LocalDate checkinDate, LocalDate from, int days) {
+		PriceCalendar calendar = calendarOf(houseId);
+		List<StayQuote> quotes = new ArrayList<>(days);
+		for (int i = 0; i < days; i++) {
+			LocalDate date = from.plusDays(i);
+			long epochDay = date.toEpochDay();
+			Integer amount = null;
+			if (checkinDate != null && checkinDate.isBefore(date)) {
+				amount = Math.toIntExact(calendar.amount(checkinDate.toEpochDay(), epochDay));
+			}
+			quotes.add(new StayQuote(date, calendar.priceOn(epochDay), amount));
+		}
+		return quotes;
+	}
+	
+	public List<HousePriceRule> findRules(Integer houseId) {
+		return housePriceRuleRepository.findByHouseIdOrderByIdAsc(houseId);
+	}
+	
+	@Transactional
+	public void createRule(Integer houseId, HousePriceRuleForm housePriceRuleForm) {
+		HousePriceRule rule = new HousePriceRule();
+		rule.setHouseId(houseId);
+		rule.setStartDate(housePriceRuleForm.getStartDate());
+		rule.setEndDate(housePriceRuleForm.getEndDate());
+		
+		int daysOfWeek = 0;
+		if (housePriceRuleForm.getDaysOfWeek() != null) {
+			for (Integer dayOfWeek : housePriceRuleForm.getDaysOfWeek()) {
+				daysOfWeek |= HousePriceRule.bitOf(DayOfWeek.of(dayOfWeek));
+			}
+		}
+		rule.setDaysOfWeek(daysOfWeek);
+		rule.setPrice(housePriceRuleForm.getPrice());
+		
+		housePriceRuleRepository.save(rule);
+		houseChangedEventPublisher.publishHouseChangedEvent(houseId);
+	}
+	
+	@Transactional
+	public void deleteRule(Integer houseId, Integer ruleId) {
+		housePriceRuleRepository.findById(ruleId)
+			.filter(rule -> rule.getHouseId().equals(houseId))
+			.ifPresent(rule -> {
+				housePriceRuleRepository.delete(rule);
+				houseChangedEventPublisher.publishHouseChangedEvent(houseId);
+			});
+	}
+	
+	private PriceCalendar calendarOf(Integer houseId) {
+		long today = LocalDate.now().toEpochDay();
+		PriceCalendar calendar = calendars.get(houseId);
+		if (calendar == null) {
+			// 起動直後でまだ作っていない場合
+			calendar = load(houseId).orElseThrow(() -> new IllegalArgumentException("民宿" + houseId + "が見つかりません。"));
+			PriceCalendar existing = calendars.putIfAbsent(houseId, calendar);
+			return existing != null ? existing : calendar;
+		}
+		if (today - calendar.getFirstEpochDay() >= REBASE_DAYS) {
+			PriceCalendar rebased = calendar.rebase(today, CALENDAR_DAYS);
+			// 同時に作り直されていた場合はそちらを残す
+			calendars.replace(houseId, calendar, rebased);
+			return rebased;
+		}
+		return calendar;
+	}
+	
+	private Optional<PriceCalendar> load(Integer houseId) {
+		return houseRepository.findById(houseId)
+			.map(house -> new PriceCalendar(house.getPrice(), housePriceRuleRepository.findByHouseIdOrderByIdAsc(houseId), LocalDate.now().toEpochDay(), CALENDAR_DAYS));
+	}
+}
@@ -0,0 +1,210 @@
+package com.example.samuraitravel.service;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.example.samuraitravel.entity.House;
+import com.example.samuraitravel.event.HouseChangedEvent;
+import com.example.samuraitravel.repository.HouseRepository;
+
+// 民宿名・住所・説明文をN-gram(1文字・2文字)で索引化したメモリ上の全文検索インデックス
+// 日本語は空白で単語を区切れないため、文字単位のN-gramで候補を絞り込み、最後に部分一致で確認する
+@Service
+public class HouseSearchService {
+	private static final int FIELD_NAME = 0;
+	private static final int FIELD_ADDRESS = 1;
+	private static final int FIELD_DESCRIPTION = 2;
+	private static final int FIELD_COUNT = 3;
+	
+	private final HouseRepository houseRepository;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	// フィールドごとに、N-gram → そのN-gramを含む民宿IDの昇順リスト
+	private final List<Map<Integer, SortedIntList>> postings = new ArrayList<>();
+	// 民宿ID → 索引に登録した内容(部分一致の確認と削除時に使う)
+	private final Map<Integer, IndexedHouse> indexedHouses = new HashMap<>();
+	
+	public HouseSearchService(HouseRepository houseRepository) {
+		this.houseRepository = houseRepository;
+		for (int field = 0; field < FIELD_COUNT; field++) {
+			postings.add(new HashMap<>());
+		}
+	}
+	
+	// 起動時にすべての民宿から索引を作り直す
+	@EventListener(ApplicationReadyEvent.class)
+	@Transactional(readOnly = true)
+	public void rebuild() {
+		List<House> houses = houseRepository.findAll();
+		
+		lock.writeLock().lock();
+		try {
+			postings.forEach(Map::clear);
+			indexedHouses.clear();
+			houses.forEach(this::add);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	// 民宿の登録・更新・削除がコミットされたら、その民宿の分だけ索引を差し替える
+	@TransactionalEventListener(fallbackExecution = true)
+	@Transactional(propagation = Propagation.REQUIRES_NEW, readOnly = true)
+	public void onHouseChanged(HouseChangedEvent houseChangedEvent) {
+		Integer houseId = houseChangedEvent.getHouseId();
+		Optional<House> optionalHouse = houseRepository.findById(houseId);
+		
+		lock.writeLock().lock();
+		try {
+			remove(houseId);
+			optionalHouse.ifPresent(this::add);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	// キーワード(民宿名・住所・説明文)とエリア(住所)に一致する民宿IDを昇順で返す
+	// keyword、areaはどちらか一方だけでもよく、両方指定した場合は両方に一致する民宿を返す。どちらも指定しない場合はnullを返す
+	// 予算・人数での絞り込みと並べ替えは、返したIDを条件に加えてHouseRepository.search()で行う
+	public int[] findMatchingIds(String keyword, String area) {
+		lock.readLock().lock();
+		try {
+			int[] ids = null;
+			if (keyword != null && !keyword.isEmpty()) {
+				String query = normalize(keyword);
+				ids = SortedIntList.union(SortedIntList.union(match(FIELD_NAME, query), match(FIELD_ADDRESS, query)), match(FIELD_DESCRIPTION, query));
+			}
+			if (area != null && !area.isEmpty()) {
+				int[] areaIds = match(FIELD_ADDRESS, normalize(area));
+				ids = ids == null ? areaIds : SortedIntList.intersect(ids, areaIds);
+			}
+			return ids;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	// 指定したフィールドにqueryを含む民宿IDを昇順で返す
+	private int[] match(int field, String query) {
+		int[] candidates = null;
+		for (int gram : grams(query)) {
+			SortedIntList posting = postings.get(field).get(gram);
+			if (posting == null) {
+				return new int[0];
+			}
+			candidates = candidates == null ? posting.toArray() : SortedIntList.intersect(candidates, posting.toArray());
+			if (candidates.length == 0) {
+				return candidates;
+			}
+		}
+		if (candidates == null) {
+			return new int[0];
+		}
+		
+		// N-gramがすべて含まれていても連続しているとは限らないため、部分一致で確認する
+		int n = 0;
+		for (int id : candidates) {
+			if (indexedHouses.get(id).fields()[field].contains(query)) {
+				candidates[n++] = id;
+			}
+		}
+		return Arrays.copyOf(candidates, n);
+	}
+	
+	// 書き込みロックを取得した状態で呼び出す
+	private void add(House house) {
+		String[] fields = new String[FIELD_COUNT];
+		fields[FIELD_NAME] = normalize(house.getName());
+		fields[FIELD_ADDRESS] = normalize(house.getAddress());
+		fields[FIELD_DESCRIPTION] = normalize(house.getDescription());
+		
+		IndexedHouse indexedHouse = new IndexedHouse(house.getId(), fields);
+		indexedHouses.put(house.getId(), indexedHouse);
+		
+		for (int field = 0; field < FIELD_COUNT; field++) {
+			for (int gram : indexGrams(fields[field])) {
+				postings.get(field).computeIfAbsent(gram, key -> new SortedIntList()).add(house.getId());
+			}
+		}
+	}
+	
+	// 書き込みロックを取得した状態で呼び出す
+	private void remove(Integer houseId) {
+		IndexedHouse indexedHouse = indexedHouses.remove(houseId);
+		if (indexedHouse == null) {
+			return;
+		}
+		
+		for (int field = 0; field < FIELD_COUNT; field++) {
+			Map<Integer, SortedIntList> fieldPostings = postings.get(field);
+			for (int gram : indexGrams(indexedHouse.fields()[field])) {
+				SortedIntList posting = fieldPostings.get(gram);
+				if (posting != null) {
+					posting.remove(houseId);
+					if (posting.size() == 0) {
+						fieldPostings.remove(gram);
+					}
+				}
+			}
+		}
+	}
+	
+	// 登録時は1文字と2文字のN-gramをすべて索引に入れる
+	private static int[] indexGrams(String text) {
+		int[] grams = new int[text.length() * 2];
+		int n = 0;
+		for (int i = 0; i < text.length(); i++) {
+			grams[n++] = unigram(text.charAt(i));
+			if (i + 1 < text.length()) {
+				grams[n++] = bigram(text.charAt(i), text.charAt(i + 1));
+			}
+		}
+		return Arrays.stream(grams, 0, n).distinct().toArray();
+	}
+	
+	// 検索時は1文字なら1文字のN-gram、2文字以上なら2文字のN-gramで候補を絞り込む
+	private static int[] grams(String query) {
+		if (query.length() == 1) {
+			return new int[] { unigram(query.charAt(0)) };
+		}
+		
+		int[] grams = new int[Math.max(query.length() - 1, 0)];
+		for (int i = 0; i + 1 < query.length(); i++) {
+			grams[i] = bigram(query.charAt(i), query.charAt(i + 1));
+		}
+		return grams;
+	}
+	
+	private static int unigram(char c) {
+		return c;
+	}
+	
+	private static int bigram(char first, char second) {
+		return (first << 16) | second;
+	}
+	
+	// 全角・半角の違いと大文字・小文字の違いを吸収する
+	private static String normalize(String text) {
+		if (text == null) {
+			return "";
+		}
+		return Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase();
+	}
+	
+	private record IndexedHouse(int id, String[] fields) {
+	}
+}
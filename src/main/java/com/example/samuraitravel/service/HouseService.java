@@ -1,27 +1,40 @@
 package com.example.samuraitravel.service;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.List;
 import java.util.Optional;
-import java.util.UUID;
 
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
+import com.example.samuraitravel.dto.HouseCursor;
+import com.example.samuraitravel.dto.HouseCursorPage;
+import com.example.samuraitravel.dto.HouseOrder;
+import com.example.samuraitravel.dto.HouseSearchCriteria;
+import com.example.samuraitravel.dto.HouseSummary;
 import com.example.samuraitravel.entity.House;
+import com.example.samuraitravel.event.HouseChangedEventPublisher;
 import com.example.samuraitravel.form.HouseEditForm;
 import com.example.samuraitravel.form.HouseRegisterForm;
 import com.example.samuraitravel.repository.HouseRepository;
+import com.example.samuraitravel.repository.HouseReviewStatsRepository;
 
 @Service
 public class HouseService {
 	private final HouseRepository houseRepository;
+	private final HouseReviewStatsRepository houseReviewStatsRepository;
+	private final HouseChangedEventPublisher houseChangedEventPublisher;
+	private final HouseImageStorage houseImageStorage;
+	private final HouseImagePipeline houseImagePipeline;
 	
-	public HouseService(HouseRepository houseRepository) {
+	public HouseService(HouseRepository houseRepository, HouseReviewStatsRepository houseReviewStatsRepository, HouseChangedEventPublisher houseChangedEventPublisher,
+							HouseImageStorage houseImageStorage, HouseImagePipeline houseImagePipeline)
+	{
 		this.houseRepository = houseRepository;
+		this.houseReviewStatsRepository = houseReviewStatsRepository;
+		this.houseChangedEventPublisher = houseChangedEventPublisher;
+		this.houseImageStorage = houseImageStorage;
+		this.houseImagePipeline = houseImagePipeline;
 	}
 	
 	@Transactional
@@ -29,13 +42,12 @@ public class HouseService {
 		House house = new House();
 		MultipartFile imageFile = houseRegisterForm.getImageFile();
 		
-		if(!imageFile.isEmpty()) {
-			String imageName  = imageFile.getOriginalFilename();
-			String hashedImageName = generateNewFileName(imageName);
-			Path filePath = Paths.get("src/main/resources/static/storage/" + hashedImageName);
-			copyImageFile(imageFile, filePath);
-			house.setImageName(hashedImageName);
+		String imageName = storeImage(houseRegisterForm.getUploadedImageName(), imageFile);
+		if(imageName != null) {
+			house.setImageName(imageName);
 		}
+		// サイズ違いの画像はコミット後にバックグラウンドで作る
+		house.setImageVariantsReady(false);
 		
 		house.setName(houseRegisterForm.getName());
 		house.setDescription(houseRegisterForm.getDescription());
@@ -46,6 +58,12 @@ public class HouseService {
 		house.setPhoneNumber(houseRegisterForm.getPhoneNumber());
 		
 		houseRepository.save(house);
+		// 評価順の一覧に出るよう、レビューの集計を0件で作っておく
+		houseReviewStatsRepository.insertEmptyStats(house.getId());
+		houseChangedEventPublisher.publishHouseChangedEvent(house.getId());
+		if (house.getImageName() != null) {
+			houseImagePipeline.submit(house.getId(), house.getImageName());
+		}
 	}
 	
 	@Transactional
@@ -53,12 +71,11 @@ public class HouseService {
 		House house = houseRepository.getReferenceById(houseEditForm.getId());
 		MultipartFile imageFile = houseEditForm.getImageFile();
 		
-		if(!imageFile.isEmpty()) {
-			String imageName = imageFile.getOriginalFilename(); 
-			String hashedImageName = generateNewFileName(imageName);
-			Path filePath = Paths.get("src/main/resources/static/storage/" + hashedImageName);
-			copyImageFile(imageFile, filePath);
-			house.setImageName(hashedImageName);
+		String imageName = storeImage(houseEditForm.getUploadedImageName(), imageFile);
+		if(imageName != null) {
+			house.setImageName(imageName);
+			// サイズ違いの画像はコミット後にバックグラウンドで作る。できるまでは元画像を表示する
+			house.setImageVariantsReady(false);
 		}
 		
 		house.setName(houseEditForm.getName());
@@ -70,30 +87,81 @@ public class HouseService {
 		house.setPhoneNumber(houseEditForm.getPhoneNumber());
 		
 		houseRepository.save(house);
+		houseChangedEventPublisher.publishHouseChangedEvent(house.getId());
+		if (imageName != null) {
+			houseImagePipeline.submit(house.getId(), house.getImageName());
+		}
 	}
 	
-	public Optional<House> findHouseById(Integer id) {
-		return houseRepository.findById(id);
+	// 先にアップロード済みの画像があればそのファイル名を、なければフォームで送られた画像を保存してそのファイル名を返す
+	// どちらもない場合はnullを返す。画像の中身から決めたファイル名で保存する(同じ画像はファイルを共有する)
+	private String storeImage(String uploadedImageName, MultipartFile imageFile) {
+		if (houseImageStorage.isStored(uploadedImageName)) {
+			return uploadedImageName;
+		}
+		if (imageFile != null && !imageFile.isEmpty()) {
+			return houseImageStorage.store(imageFile);
+		}
+		return null;
+	}
+	
+	// 画像のサイズ違いがまだない民宿について、サイズ違いをその場で作る(既存データ用)
+	// 対象の民宿の数を返す
+	public int generateMissingImageVariants() {
+		List<House> houses = houseRepository.findByImageNameIsNotNullAndImageVariantsReadyFalse();
+		houses.forEach(house -> houseImagePipeline.process(house.getId(), house.getImageName()));
+		return houses.size();
 	}
 	
-	// UUIDを使って生成したファイル名を返す
-	public String generateNewFileName(String fileName) {
-		String[] fileNames = fileName.split("\\.");
-		for (int i = 0; i < fileNames.length - 1; i++) {
-			fileNames[i] = UUID.randomUUID().toString();
+	@Transactional
+	public void delete(Integer id) {
+		houseRepository.deleteById(id);
+		houseChangedEventPublisher.publishHouseChangedEvent(id);
+	}
+	
+	// 検索条件に一致する民宿一覧をキーセットページングで取得する
+	// 次ページの有無を判定するため、1件多く取得する
+	public HouseCursorPage findHousesAfter(HouseSearchCriteria criteria, String cursor, int size) {
+		HouseCursor houseCursor = HouseCursor.decode(cursor, criteria.getHouseOrder()).orElse(null);
+		List<HouseSummary> houses = houseRepository.searchAfter(criteria, houseCursor, size + 1);
+		
+		return toCursorPage(houses, size, criteria.getHouseOrder());
+	}
+	
+	// size + 1件取得した結果から1ページ分と次ページ用のカーソルを作る
+	private HouseCursorPage toCursorPage(List<HouseSummary> houses, int size, HouseOrder order) {
+		if (houses.size() <= size) {
+			return new HouseCursorPage(houses, null);
 		}
 		
-		String hashedFileName = String.join(".", fileNames);
-		return hashedFileName;
+		List<HouseSummary> content = houses.subList(0, size);
+		String nextCursor = HouseCursor.after(content.get(size - 1), order).encode();
+		return new HouseCursorPage(content, nextCursor);
 	}
 	
-	// 画像ファイルを指定したファイルにコピーする
-	public void copyImageFile(MultipartFile imageFile, Path filePath) { 
-		try {
-			Files.copy(imageFile.getInputStream(), filePath);
-		}catch (IOException e) {
-			e.printStackTrace();
+	public Optional<House> findHouseById(Integer id) {
+		return houseRepository.findById(id);
+	}
+	
+	// 中身のハッシュではないファイル名で保存されている画像を、ハッシュのファイル名に付け替える(既存データの移行用)
+	// 元のファイルは残す。ファイル名を付け替えた民宿の数を返す
+	@Transactional
+	public int rehashImages() {
+		int houseCount = 0;
+		for (String imageName : houseRepository.findDistinctImageNames()) {
+			Optional<String> rehashedImageName = houseImageStorage.rehash(imageName);
+			if (rehashedImageName.isEmpty() || rehashedImageName.get().equals(imageName)) {
+				continue;
+			}
+			
+			for (House house : houseRepository.findByImageName(imageName)) {
+				house.setImageName(rehashedImageName.get());
+				house.setImageVariantsReady(false);
+				houseChangedEventPublisher.publishHouseChangedEvent(house.getId());
+				houseCount++;
+			}
 		}
+		return houseCount;
 	}
 
 }
@@ -0,0 +1,15 @@
+package com.example.samuraitravel.service;
+
+import lombok.Getter;
+
+// アップロードされた画像を保存できない場合(画像ではない・大きすぎる)の例外。メッセージは画面にそのまま表示する
+@Getter
+public class ImageUploadException extends RuntimeException {
+	// 上限サイズを超えた場合はtrue
+	private final boolean tooLarge;
+	
+	public ImageUploadException(String message, boolean tooLarge) {
+		super(message);
+		this.tooLarge = tooLarge;
+	}
+}
@@ -0,0 +1,294 @@
+package com.example.samuraitravel.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.example.samuraitravel.entity.MailOutboxMessage;
+import com.example.samuraitravel.repository.MailOutboxMessageRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+
+// メールの送信箱
+// メールを送る処理では送信待ちのメールを保存するだけで応答し(SMTPサーバーが遅くてもリクエストのスレッドを待たせない)、
+// コミット後にワーカーがまとめて送信する。失敗したメールは間隔を空けて再試行し、停止中に残ったメールは起動後に送る
+// 送信済み・失敗したメールは保存期間を過ぎたら削除する
+@Service
+public class MailOutbox {
+	private static final int WORKERS = 2;
+	private static final int QUEUE_CAPACITY = 1000;
+	// 1回のSMTPセッションで送る件数の上限(待っているメールが多いときほどまとめて送る)
+	private static final int BATCH_SIZE = 50;
+	private static final long POLL_INTERVAL_SECONDS = 5;
+	// 送信中のメールを他のワーカーが取らないようにしておく時間(送信中にサーバーが落ちた場合はこの時間の後に再試行される)
+	private static final Duration LEASE = Duration.ofMinutes(5);
+	// 再試行の間隔は30秒から倍々に延ばし、1時間で頭打ちにする。10回失敗したら諦める
+	private static final Duration INITIAL_BACKOFF = Duration.ofSeconds(30);
+	private static final Duration MAX_BACKOFF = Duration.ofHours(1);
+	private static final int MAX_ATTEMPTS = 10;
+	private static final int MAX_ERROR_LENGTH = 1000;
+	// 1回の削除で消す件数(行ロックを長く持たないよう小分けにする)
+	private static final int SWEEP_BATCH_SIZE = 500;
+	
+	private final MailOutboxMessageRepository mailOutboxMessageRepository;
+	private final JavaMailSender javaMailSender;
+	private final Duration retention;
+	private final ExecutorService workers;
+	private final ScheduledExecutorService poller;
+	// ワーカーに渡して送信を待っているメールのID
+	private final BlockingQueue<Long> readyIds = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+	// readyIdsに入っているか送信中のメールのID(同じメールを二重に渡さない)
+	private final Set<Long> queuedIds = ConcurrentHashMap.newKeySet();
+	
+	private final AtomicLong pendingCount = new AtomicLong();
+	private final AtomicLong lagSeconds = new AtomicLong();
+	private final Timer sendTimer;
+	private final DistributionSummary batchSizeSummary;
+	private final Counter sentCounter;
+	private final Counter retriedCounter;
+	private final Counter failedCounter;
+	private final Counter rejectedCounter;
+	private final Counter removedCounter;
+	
+	public MailOutbox(MailOutboxMessageRepository mailOutboxMessageRepository, JavaMailSender javaMailSender,
+						@Value("${samuraitravel.mail-outbox.retention}") Duration retention, MeterRegistry meterRegistry)
+	{
+		this.mailOutboxMessageRepository = mailOutboxMessageRepository;
+		this.javaMailSender = javaMailSender;
+		this.retention = retention;
+		
+		AtomicInteger threadNumber = new AtomicInteger();
+		this.workers = Executors.newFixedThreadPool(WORKERS, runnable -> {
+			Thread thread = new Thread(runnable, "mail-outbox-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "mail-outbox-poller");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		// 送信待ちの件数と、最も古い送信待ちのメールを作ってからの秒数(遅れ)
+		meterRegistry.gauge("samuraitravel.mail_outbox.pending", pendingCount);
+		meterRegistry.gauge("samuraitravel.mail_outbox.lag", lagSeconds);
+		meterRegistry.gauge("samuraitravel.mail_outbox.queue", readyIds, queue -> queue.size());
+		// 1回のSMTPセッションにかかった時間と、そのセッションで送った件数
+		this.sendTimer = meterRegistry.timer("samuraitravel.mail_outbox.send");
+		this.batchSizeSummary = meterRegistry.summary("samuraitravel.mail_outbox.batch_size");
+		this.sentCounter = meterRegistry.counter("samuraitravel.mail_outbox.sent");
+		this.retriedCounter = meterRegistry.counter("samuraitravel.mail_outbox.retried");
+		this.failedCounter = meterRegistry.counter("samuraitravel.mail_outbox.failed");
+		this.rejectedCounter = meterRegistry.counter("samuraitravel.mail_outbox.rejected");
+		this.removedCounter = meterRegistry.counter("samuraitravel.mail_outbox.removed");
+	}
+	
+	// 起動したらワーカーと、送信待ちのメール(前回の停止時に残っていたものや再試行待ちのもの)の見回りを始める
+	@EventListener(ApplicationReadyEvent.class)
+	public void start() {
+		for (int i = 0; i < WORKERS; i++) {
+			workers.execute(this::work);
+		}
+		poller.scheduleWithFixedDelay(this::poll, 0, POLL_INTERVAL_SECONDS, TimeUnit.SECONDS);
+	}
+	
+	// メールを送信待ちとして保存する。呼び出し元のトランザクションがコミットされたらワーカーに渡す(ロールバックされたら送らない)
+	public void enqueue(String sender, String recipient, String subject, String body) {
+		LocalDateTime now = LocalDateTime.now();
+		MailOutboxMessage message = new MailOutboxMessage();
+		message.setSender(sender);
+		message.setRecipient(recipient);
+		message.setSubject(subject);
+		message.setBody(body);
+		message.setStatus(MailOutboxMessage.STATUS_PENDING);
+		message.setNextAttemptAt(now);
+		message.setCreatedAt(now);
+		mailOutboxMessageRepository.save(message);
+		
+		Long id = message.getId();
+		TransactionCallbacks.afterCommit(() -> dispatch(id));
+	}
+	
+	// 送信してよい時刻を過ぎたメールをワーカーの空きの分だけ渡し、遅れのメトリクスを更新する
+	private void poll() {
+		// 例外が外に出ると以降の見回りが止まってしまうため、ここで受け止める
+		try {
+			List<Object[]> backlog = mailOutboxMessageRepository.findPendingBacklog();
+			Object[] row = backlog.isEmpty() ? new Object[] { 0L, null } : backlog.get(0);
+			pendingCount.set(((Number)row[0]).longValue());
+			lagSeconds.set(row[1] == null ? 0 : Math.max(0, Duration.between((LocalDateTime)row[1], LocalDateTime.now()).toSeconds()));
+			
+			int room = readyIds.remainingCapacity();
+			if (room == 0) {
+				return;
+			}
+			for (Long id : mailOutboxMessageRepository.findDueIds(LocalDateTime.now(), Limit.of(room))) {
+				dispatch(id);
+			}
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	// ワーカーが一杯の場合は送信待ちのまま残し、次の見回りで渡す
+	private void dispatch(Long id) {
+		if (!queuedIds.add(id)) {
+			return;
+		}
+		if (!readyIds.offer(id)) {
+			queuedIds.remove(id);
+			rejectedCounter.increment();
+		}
+	}
+	
+	// 渡されたメールを待ち、その時点でたまっている分をまとめて送る
+	private void work() {
+		List<Long> batch = new ArrayList<>(BATCH_SIZE);
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				batch.add(readyIds.take());
+				readyIds.drainTo(batch, BATCH_SIZE - 1);
+				deliver(batch);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			} finally {
+				batch.forEach(queuedIds::remove);
+				batch.clear();
+			}
+		}
+	}
+	
+	// 取れたメールを1回のSMTPセッションで送り、結果を記録する
+	void deliver(List<Long> ids) {
+		LocalDateTime now = LocalDateTime.now();
+		List<Long> claimedIds = new ArrayList<>(ids.size());
+		for (Long id : ids) {
+			// 他のワーカーが先に取っていた場合や、再試行の時刻になっていない場合は送らない
+			if (mailOutboxMessageRepository.claim(id, now, now.plus(LEASE)) == 1) {
+				claimedIds.add(id);
+			}
+		}
+		if (claimedIds.isEmpty()) {
+			return;
+		}
+		
+		List<MailOutboxMessage> messages = mailOutboxMessageRepository.findAllById(claimedIds);
+		SimpleMailMessage[] mailMessages = new SimpleMailMessage[messages.size()];
+		for (int i = 0; i < messages.size(); i++) {
+			mailMessages[i] = toMailMessage(messages.get(i));
+		}
+		
+		// 送れなかったメール → 原因。SMTPサーバーにつながらなかった場合はすべてのメールが入る
+		Map<Object, Exception> failures = new IdentityHashMap<>();
+		long startedAt = System.nanoTime();
+		try {
+			javaMailSender.send(mailMessages);
+		} catch (MailSendException e) {
+			failures.putAll(e.getFailedMessages());
+			if (failures.isEmpty()) {
+				for (SimpleMailMessage mailMessage : mailMessages) {
+					failures.put(mailMessage, e);
+				}
+			}
+		} catch (MailException e) {
+			for (SimpleMailMessage mailMessage : mailMessages) {
+				failures.put(mailMessage, e);
+			}
+		} finally {
+			sendTimer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+			batchSizeSummary.record(mailMessages.length);
+		}
+		
+		for (int i = 0; i < messages.size(); i++) {
+			MailOutboxMessage message = messages.get(i);
+			Exception failure = failures.get(mailMessages[i]);
+			if (failure == null) {
+				message.setStatus(MailOutboxMessage.STATUS_SENT);
+				message.setSentAt(LocalDateTime.now());
+				message.setLastError(null);
+				// 本文には認証用のURL(トークン)などが含まれるため、送ったら残さない
+				message.setBody("");
+				sentCounter.increment();
+			} else {
+				message.setLastError(abbreviate(failure.toString()));
+				if (message.getAttempts() >= MAX_ATTEMPTS) {
+					// 諦めたメールは送信箱にFAILEDのまま残し、管理者が原因を確認できるようにする
+					message.setStatus(MailOutboxMessage.STATUS_FAILED);
+					failedCounter.increment();
+				} else {
+					message.setNextAttemptAt(LocalDateTime.now().plus(RetryBackoff.delay(message.getAttempts(), INITIAL_BACKOFF, MAX_BACKOFF)));
+					retriedCounter.increment();
+				}
+			}
+		}
+		mailOutboxMessageRepository.saveAll(messages);
+	}
+	
+	// 決まった時刻に、保存期間を過ぎた送信済み・失敗したメールを削除する。複数のサーバーで同時に動いても、同じ行は1回だけ削除される
+	@Scheduled(cron = "${samuraitravel.mail-outbox.sweep-cron}")
+	public void sweep() {
+		sweepCreatedBefore(LocalDateTime.now().minus(retention));
+	}
+	
+	// 作成日時がbeforeより前の送信済み・失敗したメールを削除し、削除した件数を返す
+	int sweepCreatedBefore(LocalDateTime before) {
+		int removedCount = 0;
+		while (true) {
+			int deleted = mailOutboxMessageRepository.deleteFinishedBefore(before, SWEEP_BATCH_SIZE);
+			removedCount += deleted;
+			removedCounter.increment(deleted);
+			if (deleted < SWEEP_BATCH_SIZE) {
+				return removedCount;
+			}
+		}
+	}
+	
+	private static SimpleMailMessage toMailMessage(MailOutboxMessage message) {
+		SimpleMailMessage mailMessage = new SimpleMailMessage();
+		mailMessage.setFrom(message.getSender());
+		mailMessage.setTo(message.getRecipient());
+		mailMessage.setSubject(message.getSubject());
+		mailMessage.setText(message.getBody());
+		return mailMessage;
+	}
+	
+	private static String abbreviate(String message) {
+		return message.length() <= MAX_ERROR_LENGTH ? message : message.substring(0, MAX_ERROR_LENGTH);
+	}
+	
+	@PreDestroy
+	public void shutdown() {
+		poller.shutdown();
+		workers.shutdownNow();
+	}
+}
@@ -0,0 +1,78 @@
+package com.example.samuraitravel.service;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.example.samuraitravel.dto.HouseSummary;
+import com.example.samuraitravel.dto.HouseSummaryView;
+import com.example.samuraitravel.event.HouseChangedEvent;
+import com.example.samuraitravel.repository.HouseRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+// トップページの「新着」民宿10件のキャッシュ
+// 変更できないリストを丸ごと差し替えるので、読み込み側はロックなしで参照できる
+// 民宿の登録・更新・削除がコミットされたときだけ作り直す
+@Service
+public class NewHouseFeedService {
+	private final HouseRepository houseRepository;
+	
+	// 民宿が変更されるたびに1つ増える世代番号。古い世代の結果で新しいキャッシュを上書きしないために使う
+	private final AtomicLong version = new AtomicLong();
+	private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+	
+	private final Counter hitCounter;
+	private final Counter missCounter;
+	private final Counter rebuildCounter;
+	
+	public NewHouseFeedService(HouseRepository houseRepository, MeterRegistry meterRegistry) {
+		this.houseRepository = houseRepository;
+		this.hitCounter = meterRegistry.counter("samuraitravel.new_houses.cache", "result", "hit");
+		this.missCounter = meterRegistry.counter("samuraitravel.new_houses.cache", "result", "miss");
+		this.rebuildCounter = meterRegistry.counter("samuraitravel.new_houses.rebuild");
+	}
+	
+	// 新着の民宿10件を返す。キャッシュがまだなければその場で作る
+	public List<HouseSummary> getNewHouses() {
+		Snapshot current = snapshot.get();
+		if (current != null) {
+			hitCounter.increment();
+			return current.houses();
+		}
+		
+		missCounter.increment();
+		return rebuild();
+	}
+	
+	// 民宿の登録・更新・削除がコミットされたらキャッシュを作り直す
+	@TransactionalEventListener(fallbackExecution = true)
+	@Transactional(propagation = Propagation.REQUIRES_NEW, readOnly = true)
+	public void onHouseChanged(HouseChangedEvent houseChangedEvent) {
+		version.incrementAndGet();
+		rebuild();
+	}
+	
+	private List<HouseSummary> rebuild() {
+		long currentVersion = version.get();
+		List<HouseSummary> houses = houseRepository.findTop10ByOrderByCreatedAtDesc().stream()
+				.<HouseSummary>map(HouseSummaryView::of)
+				.toList();
+		
+		// 読み込み中に新しい世代のキャッシュが作られていた場合は、そちらを残す
+		Snapshot built = new Snapshot(currentVersion, houses);
+		snapshot.accumulateAndGet(built, (existing, candidate) -> existing == null || existing.version() < candidate.version() ? candidate : existing);
+		rebuildCounter.increment();
+		
+		return houses;
+	}
+	
+	private record Snapshot(long version, List<HouseSummary> houses) {
+	}
+}
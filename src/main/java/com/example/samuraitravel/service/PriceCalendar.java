@@ -0,0 +1,123 @@
+package com.example.samuraitravel.service;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.example.samuraitravel.entity.HousePriceRule;
+
+// 民宿1軒分の料金カレンダー
+// firstEpochDayの夜から1日ずつ、1泊の料金の累積和を持ち、どのチェックイン日・チェックアウト日の宿泊料金も引き算1回で求める
+// 1泊の料金はカレンダーの範囲外でも料金ルールから求めるが、宿泊料金はカレンダーの範囲内しか求めない(範囲外を1泊ずつ足すと、
+// 遠い日付を渡されたときにいつまでも終わらないため)。作った後は書き換えないため、ロックなしで複数のスレッドから読める
+final class PriceCalendar {
+	private final int basePrice;
+	// 料金ルールをIDの昇順に並べたもの(期限なしはLong.MIN_VALUE・Long.MAX_VALUE)
+	private final long[] ruleStartEpochDays;
+	private final long[] ruleEndEpochDays;
+	private final int[] ruleDaysOfWeek;
+	private final int[] rulePrices;
+	
+	private final long firstEpochDay;
+	// prefixSums[i]はfirstEpochDayからi泊した場合の料金。長さはカレンダーの日数 + 1
+	private final long[] prefixSums;
+	
+	PriceCalendar(int basePrice, List<HousePriceRule> rules, long firstEpochDay, int days) {
+		this.basePrice = basePrice;
+		this.ruleStartEpochDays = new long[rules.size()];
+		this.ruleEndEpochDays = new long[rules.size()];
+		this.ruleDaysOfWeek = new int[rules.size()];
+		this.rulePrices = new int[rules.size()];
+		for (int i = 0; i < rules.size(); i++) {
+			HousePriceRule rule = rules.get(i);
+			ruleStartEpochDays[i] = rule.getStartDate() != null ? rule.getStartDate().toEpochDay() : Long.MIN_VALUE;
+			ruleEndEpochDays[i] = rule.getEndDate() != null ? rule.getEndDate().toEpochDay() : Long.MAX_VALUE;
+			ruleDaysOfWeek[i] = rule.getDaysOfWeek();
+			rulePrices[i] = rule.getPrice();
+		}
+		this.firstEpochDay = firstEpochDay;
+		this.prefixSums = buildPrefixSums(days);
+	}
+	
+	// 同じ料金ルールで、カレンダーの最初の日だけをずらしたもの
+	private PriceCalendar(PriceCalendar calendar, long firstEpochDay, int days) {
+		this.basePrice = calendar.basePrice;
+		this.ruleStartEpochDays = calendar.ruleStartEpochDays;
+		this.ruleEndEpochDays = calendar.ruleEndEpochDays;
+		this.ruleDaysOfWeek = calendar.ruleDaysOfWeek;
+		this.rulePrices = calendar.rulePrices;
+		this.firstEpochDay = firstEpochDay;
+		this.prefixSums = buildPrefixSums(days);
+	}
+	
+	PriceCalendar rebase(long firstEpochDay, int days) {
+		return new PriceCalendar(this, firstEpochDay, days);
+	}
+	
+	long getFirstEpochDay() {
+		return firstEpochDay;
+	}
+	
+	// epochDayの夜の1泊の料金
+	int priceOn(long epochDay) {
+		long index = epochDay - firstEpochDay;
+		if (index >= 0 && index < prefixSums.length - 1) {
+			return (int)(prefixSums[(int)index + 1] - prefixSums[(int)index]);
+		}
+		return computePrice(epochDay);
+	}
+	
+	// チェックイン日からチェックアウト日の前日までの夜の料金の合計
+	// 宿泊期間がカレンダーの範囲外の場合はIllegalArgumentExceptionを投げる
+	long amount(long checkinEpochDay, long checkoutEpochDay) {
+		if (!contains(checkinEpochDay, checkoutEpochDay)) {
+			throw new IllegalArgumentException("宿泊期間が料金カレンダーの範囲外です。");
+		}
+		return prefixSums[(int)(checkoutEpochDay - firstEpochDay)] - prefixSums[(int)(checkinEpochDay - firstEpochDay)];
+	}
+	
+	// チェックイン日からチェックアウト日の前日までの夜がすべてカレンダーの範囲内かどうか
+	boolean contains(long checkinEpochDay, long checkoutEpochDay) {
+		return firstEpochDay <= checkinEpochDay && checkinEpochDay <= checkoutEpochDay && checkoutEpochDay - firstEpochDay < prefixSums.length;
+	}
+	
+	// 民宿の宿泊料金で埋めてから、料金ルールをIDの昇順に上書きする
+	private long[] buildPrefixSums(int days) {
+		int[] prices = new int[days];
+		Arrays.fill(prices, basePrice);
+		long lastEpochDay = firstEpochDay + days - 1;
+		for (int i = 0; i < rulePrices.length; i++) {
+			long from = Math.max(ruleStartEpochDays[i], firstEpochDay);
+			long to = Math.min(ruleEndEpochDays[i], lastEpochDay);
+			for (long epochDay = from; epochDay <= to; epochDay++) {
+				if (appliesOn(i, epochDay)) {
+					prices[(int)(epochDay - firstEpochDay)] = rulePrices[i];
+				}
+			}
+		}
+		
+		long[] sums = new long[days + 1];
+		for (int i = 0; i < days; i++) {
+			sums[i + 1] = sums[i] + prices[i];
+		}
+		return sums;
+	}
+	
+	// 後から追加したルールを優先する
+	private int computePrice(long epochDay) {
+		for (int i = rulePrices.length - 1; i >= 0; i--) {
+			if (ruleStartEpochDays[i] <= epochDay && epochDay <= ruleEndEpochDays[i] && appliesOn(i, epochDay)) {
+				return rulePrices[i];
+			}
+		}
+		return basePrice;
+	}
+	
+	private boolean appliesOn(int rule, long epochDay) {
+		return ruleDaysOfWeek[rule] == 0 || (ruleDaysOfWeek[rule] & dayOfWeekBit(epochDay)) != 0;
+	}
+	
+	// 1970-01-01(epochDayの0)は木曜日。月曜日を1ビット目、日曜日を7ビット目とする(HousePriceRule.bitOf()と同じ)
+	private static int dayOfWeekBit(long epochDay) {
+		return 1 << (int)Math.floorMod(epochDay + 3, 7);
+	}
+}
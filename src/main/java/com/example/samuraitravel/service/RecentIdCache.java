@@ -0,0 +1,36 @@
+package com.example.samuraitravel.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// 最近受け取ったID(StripeのイベントIDやCheckoutセッションIDなど)を上限の件数まで覚えておく
+// 上限を超えたら古いものから忘れる。忘れたIDの重複はデータベースの一意制約で弾く
+final class RecentIdCache {
+	private final Map<String, Boolean> ids;
+	
+	RecentIdCache(int capacity) {
+		this.ids = new LinkedHashMap<>() {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+	
+	// 覚えていなかったIDなら覚えてtrueを、すでに覚えていたIDならfalseを返す
+	synchronized boolean add(String id) {
+		return ids.putIfAbsent(id, Boolean.TRUE) == null;
+	}
+	
+	synchronized boolean contains(String id) {
+		return ids.containsKey(id);
+	}
+	
+	synchronized void remove(String id) {
+		ids.remove(id);
+	}
+	
+	synchronized int size() {
+		return ids.size();
+	}
+}
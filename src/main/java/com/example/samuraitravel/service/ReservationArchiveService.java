@@ -0,0 +1,70 @@
+package com.example.samuraitravel.service;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.samuraitravel.repository.ReservationRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+// チェックアウトから保存期間が過ぎた予約をreservationsからreservations_archiveに移す
+// reservationsには今後の予約と最近の予約だけを残し、空室インデックスの作成や予約一覧のクエリが読む量を抑える
+@Service
+public class ReservationArchiveService {
+	// 1つのトランザクションで移す件数(行ロックを長く持たないよう小分けにする)
+	private static final int BATCH_SIZE = 1000;
+	
+	private final ReservationRepository reservationRepository;
+	private final TransactionTemplate transactionTemplate;
+	private final int archiveAfterDays;
+	
+	private final Counter archivedCounter;
+	private final Timer archiveTimer;
+	
+	public ReservationArchiveService(ReservationRepository reservationRepository, TransactionTemplate transactionTemplate,
+										@Value("${samuraitravel.reservations.archive-after-days}") int archiveAfterDays,
+										MeterRegistry meterRegistry)
+	{
+		this.reservationRepository = reservationRepository;
+		this.transactionTemplate = transactionTemplate;
+		this.archiveAfterDays = archiveAfterDays;
+		this.archivedCounter = meterRegistry.counter("samuraitravel.reservations.archived");
+		this.archiveTimer = meterRegistry.timer("samuraitravel.reservations.archive");
+	}
+	
+	// 毎日決まった時刻に実行する。複数のサーバーで同時に動いても、同じ予約は1回だけ移される
+	@Scheduled(cron = "${samuraitravel.reservations.archive-cron}")
+	public void archive() {
+		archiveTimer.record(() -> archiveCheckedOutBefore(LocalDate.now().minusDays(archiveAfterDays)));
+	}
+	
+	// cutoffより前にチェックアウトした予約を移し、移した件数を返す
+	public int archiveCheckedOutBefore(LocalDate cutoff) {
+		int archivedCount = 0;
+		while (true) {
+			List<Integer> ids = reservationRepository.findIdsCheckedOutBefore(cutoff, Limit.of(BATCH_SIZE));
+			if (ids.isEmpty()) {
+				return archivedCount;
+			}
+			
+			Integer deleted = transactionTemplate.execute(status -> {
+				reservationRepository.copyToArchive(ids);
+				return reservationRepository.deleteArchived(ids);
+			});
+			archivedCount += deleted;
+			archivedCounter.increment(deleted);
+			
+			if (ids.size() < BATCH_SIZE) {
+				return archivedCount;
+			}
+		}
+	}
+}
@@ -0,0 +1,9 @@
+package com.example.samuraitravel.service;
+
+// 予約しようとした宿泊日が、同じ民宿の他の予約と重なっている場合の例外
+// 決済済みのため、StripeServiceが返金してReservationRefundedExceptionに置き換える(再試行しても解消しない)
+public class ReservationConflictException extends RuntimeException {
+	public ReservationConflictException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,9 @@
+package com.example.samuraitravel.service;
+
+// 宿泊日が他の予約と重なっていたため予約を登録せず、支払いを全額返金した場合の例外
+// Webhookの受信箱は返金済みとして残し、管理者が一覧で確認できるようにする
+public class ReservationRefundedException extends ReservationConflictException {
+	public ReservationRefundedException(String message) {
+		super(message);
+	}
+}
@@ -1,11 +1,14 @@
 package com.example.samuraitravel.service;
 
 import java.time.LocalDate;
-import java.time.temporal.ChronoUnit;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.example.samuraitravel.entity.House;
 import com.example.samuraitravel.entity.Reservation;
@@ -16,21 +19,60 @@ import com.example.samuraitravel.repository.UserRepository;
 
 @Service
 public class ReservationService {
+	// 予約の登録で使う民宿ごとのロックの数(民宿IDをこの数で割った余りで選ぶ)と、ロックを待つ時間の上限
+	private static final int LOCK_STRIPES = 64;
+	private static final long LOCK_TIMEOUT_SECONDS = 10;
+	
 	private final ReservationRepository reservationRepository;
 	private final HouseRepository houseRepository;
 	private final UserRepository userRepository;
+	private final HouseAvailabilityService houseAvailabilityService;
+	private final TransactionTemplate transactionTemplate;
+	private final Lock[] houseLocks = new Lock[LOCK_STRIPES];
 	
-	public ReservationService(ReservationRepository reservationRepository, HouseRepository houseRepository, UserRepository userRepository) {
+	public ReservationService(ReservationRepository reservationRepository, HouseRepository houseRepository, UserRepository userRepository, HouseAvailabilityService houseAvailabilityService, TransactionTemplate transactionTemplate) {
 		this.reservationRepository = reservationRepository;
 		this.houseRepository = houseRepository;
 		this.userRepository = userRepository; 
+		this.houseAvailabilityService = houseAvailabilityService;
+		this.transactionTemplate = transactionTemplate;
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			houseLocks[i] = new ReentrantLock();
+		}
+	}
+	
+	// Stripeの決済(Checkoutセッション)から予約を登録する。同じセッションの予約が登録済みの場合は何もせずfalseを返す
+	// 同時に登録しようとした場合はstripe_session_idの一意制約でDataIntegrityViolationExceptionになる
+	// 宿泊日が同じ民宿の他の予約と重なる場合はReservationConflictExceptionを投げる
+	public boolean create(Map<String, String> paymentIntentObject, String stripeSessionId) {
+		Integer houseId = Integer.valueOf(paymentIntentObject.get("houseId"));
+		
+		// 同じ民宿の予約はロックを持ったまま1件ずつ登録し、コミットしてから放す(別の民宿の予約は並行して登録できる)
+		// 他のサーバーが同時に登録した場合はreservation_nightsの主キーで弾く
+		Lock lock = houseLocks[Math.floorMod(houseId, LOCK_STRIPES)];
+		try {
+			if (!lock.tryLock(LOCK_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				throw new IllegalStateException("民宿" + houseId + "の予約の登録が混み合っています。");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("民宿" + houseId + "の予約の登録が中断されました。", e);
+		}
+		try {
+			return Boolean.TRUE.equals(transactionTemplate.execute(status -> insert(houseId, paymentIntentObject, stripeSessionId)));
+		} finally {
+			lock.unlock();
+		}
 	}
 	
-	@Transactional
-	public void create(Map<String, String> paymentIntentObject) {
+	// 民宿のロックを取得した状態で、トランザクションの中で呼び出す
+	private boolean insert(Integer houseId, Map<String, String> paymentIntentObject, String stripeSessionId) {
+		if (reservationRepository.existsByStripeSessionId(stripeSessionId)) {
+			return false;
+		}
+		
 		Reservation reservation = new Reservation();
 		
-		Integer houseId = Integer.valueOf(paymentIntentObject.get("houseId"));
 		Integer userId = Integer.valueOf(paymentIntentObject.get("userId"));
 		
 		House house = houseRepository.getReferenceById(houseId);
@@ -40,26 +82,67 @@ public class ReservationService {
 		Integer numberOfPeople = Integer.valueOf(paymentIntentObject.get("numberOfPeople"));
 		Integer amount = Integer.valueOf(paymentIntentObject.get("amount"));
 		
+		// このサーバーで登録した予約との重なりは、データベースに問い合わせずに空室インデックスで確かめる
+		if (!houseAvailabilityService.isAvailable(houseId, checkinDate, checkoutDate)) {
+			throw conflict(houseId, checkinDate, checkoutDate, stripeSessionId);
+		}
+		
 		reservation.setHouse(house);
 		reservation.setUser(user);
 		reservation.setCheckinDate(checkinDate);
 		reservation.setCheckoutDate(checkoutDate);
 		reservation.setNumberOfPeople(numberOfPeople);
 		reservation.setAmount(amount);
+		reservation.setStripeSessionId(stripeSessionId);
+		reservation.setHouseName(house.getName());
+		reservation.setHouseImageName(house.getImageNameFor("thumbnail"));
+		reservation.setHousePrice(house.getPrice());
 		
 		reservationRepository.save(reservation);
+		
+		// 1泊ずつ記録し、他のサーバーで登録された予約と重なっていたらロールバックする
+		try {
+			for (LocalDate night = checkinDate; night.isBefore(checkoutDate); night = night.plusDays(1)) {
+				reservationRepository.insertNight(houseId, night, reservation.getId());
+			}
+		} catch (DataIntegrityViolationException e) {
+			throw conflict(houseId, checkinDate, checkoutDate, stripeSessionId);
+		}
+		
+		// コミットされたら空室インデックスの宿泊日を埋める
+		houseAvailabilityService.reservationCreated(reservation);
+		return true;
+	}
+	
+	private static ReservationConflictException conflict(Integer houseId, LocalDate checkinDate, LocalDate checkoutDate, String stripeSessionId) {
+		return new ReservationConflictException("民宿" + houseId + "の" + checkinDate + "～" + checkoutDate + "は他の予約と重なっています。(" + stripeSessionId + ")");
+	}
+	
+	// 今日以降の夜を含む予約から、reservation_nightsを作る(reservation_nightsを追加する前に登録された予約の分)
+	// 重なっている予約は先に登録された方だけを記録し、重なっていた予約の件数を返す
+	public int backfillNights() {
+		int conflictCount = 0;
+		for (Object[] stay : reservationRepository.findStaysWithIdEndingAfter(LocalDate.now())) {
+			Integer reservationId = (Integer) stay[0];
+			Integer houseId = (Integer) stay[1];
+			LocalDate checkoutDate = (LocalDate) stay[3];
+			boolean conflicted = false;
+			for (LocalDate night = (LocalDate) stay[2]; night.isBefore(checkoutDate); night = night.plusDays(1)) {
+				if (reservationRepository.insertNightIfFree(houseId, night, reservationId) == 0) {
+					conflicted = true;
+				}
+			}
+			if (conflicted) {
+				conflictCount++;
+			}
+		}
+		return conflictCount;
 	}
 	
 	// 宿泊人数が定員以下かどうかをチェックする
 	public boolean isWithinCapacity(Integer numberOfPeople,Integer capacity) {
 		return numberOfPeople <= capacity;
 	}
-	
-	// 宿泊料金を計算する
-	public Integer calculateAmount(LocalDate checkinDate, LocalDate checkoutDate, Integer price) {
-		long numberOfNights = ChronoUnit.DAYS.between(checkinDate, checkoutDate);
-		int amount = price * (int)numberOfNights;
-		return amount;
-	}
+
 
 }
@@ -0,0 +1,18 @@
+package com.example.samuraitravel.service;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+// 失敗した処理を再試行するまでの待ち時間(StripeのWebhookイベントや送信待ちのメールで使う)
+// initialから倍々に延ばしてmaxで頭打ちにし、再試行が一斉に重ならないよう最大で2割ずらす
+final class RetryBackoff {
+	private RetryBackoff() {
+	}
+	
+	// attempts回目の失敗の後に待つ時間
+	static Duration delay(int attempts, Duration initial, Duration max) {
+		long millis = initial.toMillis() << Math.min(attempts - 1, 20);
+		millis = Math.min(millis, max.toMillis());
+		return Duration.ofMillis(millis + ThreadLocalRandom.current().nextLong(millis / 5 + 1));
+	}
+}
@@ -9,19 +9,25 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.example.samuraitravel.entity.House;
+import com.example.samuraitravel.entity.HouseReviewStats;
 import com.example.samuraitravel.entity.Review;
 import com.example.samuraitravel.entity.User;
 import com.example.samuraitravel.form.ReviewEditForm;
 import com.example.samuraitravel.form.ReviewRegisterForm;
+import com.example.samuraitravel.repository.HouseReviewStatsRepository;
 import com.example.samuraitravel.repository.ReviewRepository;
 
 @Service
 public class ReviewService {
 	private final ReviewRepository reviewRepository;
+	private final HouseReviewStatsRepository houseReviewStatsRepository;
+	private final UserHouseMembershipService userHouseMembershipService;
 	
 	
-	public ReviewService(ReviewRepository reviewRepository) {
+	public ReviewService(ReviewRepository reviewRepository, HouseReviewStatsRepository houseReviewStatsRepository, UserHouseMembershipService userHouseMembershipService) {
 		this.reviewRepository = reviewRepository;
+		this.houseReviewStatsRepository = houseReviewStatsRepository;
+		this.userHouseMembershipService = userHouseMembershipService;
 	}
 	
 	// レビューをデータベースに登録するための処理(フォームのデータからレビューを作って返す処理)
@@ -36,6 +42,9 @@ public class ReviewService {
 		
 		// データベース(reviewsテーブル)にレビューを保存
 		reviewRepository.save(review);
+		// 民宿のレビュー集計に1件分を加える
+		addToReviewStats(house.getId(), review.getRating(), 1);
+		userHouseMembershipService.reviewChanged(user.getId(), house.getId(), true);
 	}
 	
 	// 指定したIDを持つレビューを取得する。
@@ -70,11 +79,19 @@ public class ReviewService {
 	// レビュー編集ページ用のフォームクラスからのデータをもとに、既存のレビューを更新する。
 	@Transactional
 	public void updateReview(ReviewEditForm reviewEditForm, Review review) {
+		Integer oldRating = review.getRating();
+		
 		// ユーザーが変更できる項目
 		review.setRating(reviewEditForm.getRating());
 		review.setComment(reviewEditForm.getComment());
 		
 		reviewRepository.save(review);
+		
+		// 評価が変わった場合は、古い評価の分を引いて新しい評価の分を加える
+		if (!oldRating.equals(review.getRating())) {
+			addToReviewStats(review.getHouse().getId(), oldRating, -1);
+			addToReviewStats(review.getHouse().getId(), review.getRating(), 1);
+		}
 		}
 	
 	
@@ -83,12 +100,36 @@ public class ReviewService {
 	@Transactional
 	public void deleteReview(Review review) {
 		reviewRepository.delete(review);
+		addToReviewStats(review.getHouse().getId(), review.getRating(), -1);
+		userHouseMembershipService.reviewChanged(review.getUser().getId(), review.getHouse().getId(), false);
+	}
+	
+	// 指定した民宿のレビュー集計を取得する。まだレビューがない場合はすべて0の集計を返す
+	public HouseReviewStats getReviewStats(House house) {
+		return houseReviewStatsRepository.findById(house.getId()).orElseGet(() -> {
+			HouseReviewStats houseReviewStats = new HouseReviewStats();
+			houseReviewStats.setHouseId(house.getId());
+			return houseReviewStats;
+		});
+	}
+	
+	// すべての民宿のレビュー集計をreviewsテーブルから作り直す(集計がずれたときの修復用)
+	// 作り直した民宿の数を返す
+	@Transactional
+	public int rebuildReviewStats() {
+		houseReviewStatsRepository.deleteAllStats();
+		return houseReviewStatsRepository.insertAllStatsFromReviews();
+	}
+	
+	// レビュー1件分(sign = 1なら追加、-1なら削除)を民宿のレビュー集計に反映する
+	private void addToReviewStats(Integer houseId, int rating, int sign) {
+		houseReviewStatsRepository.addDelta(houseId, sign, sign * rating,
+				rating == 1 ? sign : 0, rating == 2 ? sign : 0, rating == 3 ? sign : 0, rating == 4 ? sign : 0, rating == 5 ? sign : 0);
 	}
 	
 	// 指定したユーザーが、指定した民宿のレビューをすでに投稿済みかどうかをチェックする。
+	// ユーザーごとにメモリに持っているレビュー投稿済みの民宿IDで判定する(データベースには問い合わせない)
 	public boolean hasUserAlreadyReviewed(House house, User user) {
-		Optional<Review> existingReview = reviewRepository.findByHouseAndUser(house, user);
-		return existingReview.isPresent();
-
+		return userHouseMembershipService.getMembership(user).hasReviewed(house.getId());
 	}
 }
@@ -0,0 +1,131 @@
+package com.example.samuraitravel.service;
+
+import java.util.Arrays;
+
+// 昇順に並んだ重複なしのint配列(ポスティングリストやIDの集合に使う)
+// Integerのボックス化を避けるため、要素はプリミティブ配列で持つ
+final class SortedIntList {
+	private int[] values;
+	private int size;
+	
+	SortedIntList() {
+		this.values = new int[4];
+	}
+	
+	int size() {
+		return size;
+	}
+	
+	int get(int index) {
+		return values[index];
+	}
+	
+	boolean contains(int value) {
+		return Arrays.binarySearch(values, 0, size, value) >= 0;
+	}
+	
+	// 値を挿入する。すでに含まれている場合は何もしない
+	boolean add(int value) {
+		int position = Arrays.binarySearch(values, 0, size, value);
+		if (position >= 0) {
+			return false;
+		}
+		
+		int insertAt = -position - 1;
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		System.arraycopy(values, insertAt, values, insertAt + 1, size - insertAt);
+		values[insertAt] = value;
+		size++;
+		return true;
+	}
+	
+	boolean remove(int value) {
+		int position = Arrays.binarySearch(values, 0, size, value);
+		if (position < 0) {
+			return false;
+		}
+		
+		System.arraycopy(values, position + 1, values, position, size - position - 1);
+		size--;
+		return true;
+	}
+	
+	void clear() {
+		size = 0;
+	}
+	
+	int[] toArray() {
+		return Arrays.copyOf(values, size);
+	}
+	
+	// 先頭からlimit個までを返す
+	int[] toArray(int limit) {
+		return Arrays.copyOf(values, Math.min(size, limit));
+	}
+	
+	// 昇順に並んだ配列のうち、このリストに含まれる値だけを返す
+	// 配列がこのリストよりずっと短い場合は、配列の要素ごとにこのリストを二分探索する
+	int[] retain(int[] sorted) {
+		int[] result = new int[Math.min(sorted.length, size)];
+		int n = 0;
+		if ((long)sorted.length * 16 < size) {
+			for (int value : sorted) {
+				if (contains(value)) {
+					result[n++] = value;
+				}
+			}
+		} else {
+			int i = 0, j = 0;
+			while (i < sorted.length && j < size) {
+				if (sorted[i] < values[j]) {
+					i++;
+				} else if (sorted[i] > values[j]) {
+					j++;
+				} else {
+					result[n++] = sorted[i];
+					i++;
+					j++;
+				}
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+	
+	// 昇順に並んだ2つの配列の共通部分を返す
+	static int[] intersect(int[] a, int[] b) {
+		int[] result = new int[Math.min(a.length, b.length)];
+		int i = 0, j = 0, n = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				result[n++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+	
+	// 昇順に並んだ2つの配列の和集合を返す
+	static int[] union(int[] a, int[] b) {
+		int[] result = new int[a.length + b.length];
+		int i = 0, j = 0, n = 0;
+		while (i < a.length || j < b.length) {
+			if (j >= b.length || (i < a.length && a[i] < b[j])) {
+				result[n++] = a[i++];
+			} else if (i >= a.length || b[j] < a[i]) {
+				result[n++] = b[j++];
+			} else {
+				result[n++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+}
@@ -0,0 +1,142 @@
+package com.example.samuraitravel.service;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.stripe.StripeClient;
+import com.stripe.exception.APIConnectionException;
+import com.stripe.exception.RateLimitException;
+import com.stripe.exception.SignatureVerificationException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.Event;
+import com.stripe.model.Refund;
+import com.stripe.model.checkout.Session;
+import com.stripe.net.RequestOptions;
+import com.stripe.net.Webhook;
+import com.stripe.param.RefundCreateParams;
+import com.stripe.param.checkout.SessionCreateParams;
+import com.stripe.param.checkout.SessionRetrieveParams;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+// Stripe APIの呼び出しをまとめる
+// APIキー・接続先・タイムアウトを設定したクライアントを1つだけ作って使い回し(グローバルなStripe.apiKeyは使わない)、
+// 呼び出しごとの所要時間を記録する。Stripeに届かない状態が続いたらサーキットブレーカーで呼び出しを止める
+@Service
+public class StripeGateway {
+	// 5回続けて失敗したら30秒間は呼び出さない
+	private static final int FAILURE_THRESHOLD = 5;
+	private static final Duration OPEN_DURATION = Duration.ofSeconds(30);
+	
+	private final StripeClient stripeClient;
+	private final String webhookSecret;
+	private final RequestOptions checkoutRequestOptions;
+	private final CircuitBreaker circuitBreaker = new CircuitBreaker(FAILURE_THRESHOLD, OPEN_DURATION);
+	
+	private final MeterRegistry meterRegistry;
+	private final Counter rejectedCounter;
+	
+	// 接続先はテストや負荷試験のときにスタブサーバーへ差し替えられる
+	public StripeGateway(@Value("${stripe.api-key}") String apiKey,
+							@Value("${stripe.webhook-secret}") String webhookSecret,
+							@Value("${stripe.api-base}") String apiBase,
+							@Value("${stripe.connect-timeout}") Duration connectTimeout,
+							@Value("${stripe.read-timeout}") Duration readTimeout,
+							@Value("${stripe.checkout-read-timeout}") Duration checkoutReadTimeout,
+							@Value("${stripe.max-network-retries}") int maxNetworkRetries,
+							MeterRegistry meterRegistry)
+	{
+		// 接続はJDKのHTTPクライアントのkeep-aliveで再利用される
+		this.stripeClient = StripeClient.builder()
+			.setApiKey(apiKey)
+			.setApiBase(apiBase)
+			.setConnectTimeout((int)connectTimeout.toMillis())
+			.setReadTimeout((int)readTimeout.toMillis())
+			.setMaxNetworkRetries(maxNetworkRetries)
+			.build();
+		this.webhookSecret = webhookSecret;
+		// 決済画面を作る間はユーザーが待っているため、Webhookの処理よりも短いタイムアウトにする
+		this.checkoutRequestOptions = RequestOptions.builder()
+			.setReadTimeout((int)checkoutReadTimeout.toMillis())
+			.build();
+		
+		this.meterRegistry = meterRegistry;
+		this.rejectedCounter = meterRegistry.counter("samuraitravel.stripe.rejected");
+		meterRegistry.gauge("samuraitravel.stripe.circuit_open", circuitBreaker, breaker -> breaker.getState() == CircuitBreaker.State.CLOSED ? 0 : 1);
+	}
+	
+	public Session createCheckoutSession(SessionCreateParams params) throws StripeException {
+		return call("checkout.sessions.create", () -> stripeClient.checkout().sessions().create(params, checkoutRequestOptions));
+	}
+	
+	public Session retrieveCheckoutSession(String sessionId, SessionRetrieveParams params) throws StripeException {
+		return call("checkout.sessions.retrieve", () -> stripeClient.checkout().sessions().retrieve(sessionId, params));
+	}
+	
+	// 支払いを全額返金する。同じidempotencyKeyで何度呼び出しても、Stripeは1回しか返金しない
+	public Refund refundPaymentIntent(String paymentIntentId, String idempotencyKey) throws StripeException {
+		RefundCreateParams params = RefundCreateParams.builder().setPaymentIntent(paymentIntentId).build();
+		RequestOptions requestOptions = RequestOptions.builder().setIdempotencyKey(idempotencyKey).build();
+		return call("refunds.create", () -> stripeClient.refunds().create(params, requestOptions));
+	}
+	
+	// Webhookの署名を確認してイベントを取り出す(Stripeへの通信は発生しない)
+	public Event constructEvent(String payload, String sigHeader) throws SignatureVerificationException {
+		return Webhook.constructEvent(payload, sigHeader, webhookSecret);
+	}
+	
+	private <T> T call(String operation, StripeCall<T> stripeCall) throws StripeException {
+		if (!circuitBreaker.tryAcquire()) {
+			rejectedCounter.increment();
+			throw new APIConnectionException("Stripeが応答しない状態が続いているため、呼び出しを一時的に止めています。");
+		}
+		
+		long startedAt = System.nanoTime();
+		String outcome = "error";
+		try {
+			T result = stripeCall.call();
+			outcome = "success";
+			circuitBreaker.onSuccess();
+			return result;
+		} catch (StripeException e) {
+			// カードの拒否や不正なパラメータなどはStripeが正常に応答しているため、失敗に数えない
+			if (isUnavailable(e)) {
+				circuitBreaker.onFailure();
+			} else {
+				circuitBreaker.onSuccess();
+			}
+			throw e;
+		} catch (RuntimeException e) {
+			circuitBreaker.onFailure();
+			throw e;
+		} finally {
+			Timer.builder("samuraitravel.stripe.requests")
+				.tag("operation", operation)
+				.tag("outcome", outcome)
+				.publishPercentileHistogram()
+				.register(meterRegistry)
+				.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+		}
+	}
+	
+	// Stripeに届かなかった・Stripe側の障害・混雑で断られた
+	private static boolean isUnavailable(StripeException e) {
+		return e instanceof APIConnectionException
+				|| e instanceof RateLimitException
+				|| (e.getStatusCode() != null && e.getStatusCode() >= 500);
+	}
+	
+	CircuitBreaker.State getCircuitState() {
+		return circuitBreaker.getState();
+	}
+	
+	@FunctionalInterface
+	private interface StripeCall<T> {
+		T call() throws StripeException;
+	}
+}
@@ -1,15 +1,20 @@
 package com.example.samuraitravel.service;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
 
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 
+import com.example.samuraitravel.entity.User;
 import com.example.samuraitravel.form.ReservationRegisterForm;
+import com.example.samuraitravel.repository.ReservationRepository;
+import com.example.samuraitravel.repository.UserRepository;
 import com.stripe.Stripe;
 import com.stripe.exception.StripeException;
 import com.stripe.model.Event;
+import com.stripe.model.Refund;
 import com.stripe.model.StripeObject;
 import com.stripe.model.checkout.Session;
 import com.stripe.param.checkout.SessionCreateParams;
@@ -19,19 +24,37 @@ import jakarta.servlet.http.HttpServletRequest;
 
 @Service
 public class StripeService{
-	@Value("${stripe.api-key}")
-	private String stripeApiKey;
+	// 予約を登録済みのCheckoutセッションのIDを覚えておく件数
+	private static final int RECENT_SESSION_IDS = 10000;
+	private static final String SENDER_ADDRESS = "springboot.samuraitravel@example.com";
 	
+	private final StripeGateway stripeGateway;
 	private final ReservationService reservationService;
+	private final ReservationRepository reservationRepository;
+	private final UserRepository userRepository;
+	private final MailOutbox mailOutbox;
+	private final RecentIdCache recentSessionIds = new RecentIdCache(RECENT_SESSION_IDS);
 	
-	public StripeService(ReservationService reservationService) {
+	public StripeService(StripeGateway stripeGateway, ReservationService reservationService, ReservationRepository reservationRepository, UserRepository userRepository, MailOutbox mailOutbox) {
+		this.stripeGateway = stripeGateway;
 		this.reservationService = reservationService;
+		this.reservationRepository = reservationRepository;
+		this.userRepository = userRepository;
+		this.mailOutbox = mailOutbox;
 	}
 	
 	// セッションを作成し、Stripeに必要な情報を返す
 	public String createStripeSession(String houseName, ReservationRegisterForm reservationRegisterForm, HttpServletRequest httpServletRequest) {
-		Stripe.apiKey = stripeApiKey;
 		String requestUrl = new String(httpServletRequest.getRequestURL());
+		// 予約情報はセッションにも持たせ、Webhookで受け取ったセッションから直接読めるようにする(Stripeに問い合わせ直さない)
+		Map<String, String> metadata = new LinkedHashMap<>();
+		metadata.put("houseId", reservationRegisterForm.getHouseId().toString());
+		metadata.put("userId", reservationRegisterForm.getUserId().toString());
+		metadata.put("checkinDate", reservationRegisterForm.getCheckinDate());
+		metadata.put("checkoutDate", reservationRegisterForm.getCheckoutDate());
+		metadata.put("numberOfPeople", reservationRegisterForm.getNumberOfPeople().toString());
+		metadata.put("amount", reservationRegisterForm.getAmount().toString());
+		
 		SessionCreateParams params =
 			SessionCreateParams.builder()
 			.addPaymentMethodType(SessionCreateParams.PaymentMethodType.CARD)
@@ -51,19 +74,15 @@ public class StripeService{
 			.setMode(SessionCreateParams.Mode.PAYMENT)	
 			.setSuccessUrl(requestUrl.replaceAll("/houses/[0-9]+/reservations/confirm", "") + "/reservations?reserved") 
 			.setCancelUrl(requestUrl.replace("/reservations/confirm", ""))
+			.putAllMetadata(metadata)
 			.setPaymentIntentData(
 				SessionCreateParams.PaymentIntentData.builder()
-					.putMetadata("houseId", reservationRegisterForm.getHouseId().toString())
-					.putMetadata("userId", reservationRegisterForm.getUserId().toString())
-					.putMetadata("checkinDate", reservationRegisterForm.getCheckinDate())
-					.putMetadata("checkoutDate", reservationRegisterForm.getCheckoutDate())
-					.putMetadata("numberOfPeople", reservationRegisterForm.getNumberOfPeople().toString())
-					.putMetadata("amount", reservationRegisterForm.getAmount().toString())
+					.putAllMetadata(metadata)
 					.build())
 				.build();
 		
 		try {
-			Session session = Session.create(params);
+			Session session = stripeGateway.createCheckoutSession(params);
 			return session.getId();
 		} catch (StripeException e) {
 			e.printStackTrace();
@@ -72,27 +91,64 @@ public class StripeService{
 	}
 	
 	// セッションから予約情報を取得し、ReservationServiceクラスを介してデータベースに登録する
-	public void processSessionCompleted(Event event) {
+	// StripeWebhookInboxのワーカーから呼び出される。失敗した場合は例外を投げ、受信箱に再試行させる
+	public void processSessionCompleted(Event event) throws StripeException {
 		Optional<StripeObject> optionalStripeObject = event.getDataObjectDeserializer().getObject();
-		optionalStripeObject.ifPresentOrElse(stripeObject -> {
-			Session session = (Session)stripeObject;
-			SessionRetrieveParams params = SessionRetrieveParams.builder().addExpand("payment_intent").build();
-			
-			try {
-				session = Session.retrieve(session.getId(),params,null);
-				Map<String, String> paymentIntentObject = session.getPaymentIntentObject().getMetadata();
-				reservationService.create(paymentIntentObject);
-			} catch (StripeException e) {
-				e.printStackTrace();
-			}
-			System.out.println("予約一覧ページの登録処理が成功しました。");
-			System.out.println("Stripe API Version: " + event.getApiVersion());
-			System.out.println("stripe-java Version: " + Stripe.VERSION);
-		},
-		() -> {
+		if (optionalStripeObject.isEmpty()) {
 			System.out.println("予約一覧ページの登録処理が失敗しました。");
 			System.out.println("Stripe API Version: " + event.getApiVersion());
 			System.out.println("stripe-java Version:" + Stripe.VERSION);
-		});
-	} 
+			throw new IllegalStateException("Stripeのイベント" + event.getId() + "のデータを読み込めません。");
+		}
+		
+		Session session = (Session)optionalStripeObject.get();
+		String sessionId = session.getId();
+		// 予約を登録済みのセッションは、Stripeに問い合わせずに済ませる
+		if (recentSessionIds.contains(sessionId)) {
+			return;
+		}
+		
+		Map<String, String> metadata = session.getMetadata();
+		// セッションに予約情報を持たせる前に作られたセッションは、これまでどおり支払い(PaymentIntent)から読む
+		if (metadata == null || metadata.isEmpty()) {
+			SessionRetrieveParams params = SessionRetrieveParams.builder().addExpand("payment_intent").build();
+			metadata = stripeGateway.retrieveCheckoutSession(sessionId, params).getPaymentIntentObject().getMetadata();
+		}
+		try {
+			reservationService.create(metadata, sessionId);
+		} catch (DataIntegrityViolationException e) {
+			// 同じセッションの予約を別のワーカーが同時に登録した場合だけ成功として扱う
+			// (それ以外の制約違反は受信箱に失敗として返し、再試行させる)
+			if (!reservationRepository.existsByStripeSessionId(sessionId)) {
+				throw e;
+			}
+		} catch (ReservationConflictException e) {
+			// 決済画面を作った後に、同じ宿泊日が他の予約で埋まった
+			throw refund(session, metadata, e);
+		}
+		recentSessionIds.add(sessionId);
+		
+		System.out.println("予約一覧ページの登録処理が成功しました。");
+		System.out.println("Stripe API Version: " + event.getApiVersion());
+		System.out.println("stripe-java Version: " + Stripe.VERSION);
+	}
+	
+	// 予約できなかった支払いを全額返金し、ユーザーにメールで知らせる
+	// 返金はセッションIDを冪等キーにするため、返金の途中で失敗して受信箱が再試行しても二重には返金されない
+	private ReservationConflictException refund(Session session, Map<String, String> metadata, ReservationConflictException conflict) throws StripeException {
+		if (session.getPaymentIntent() == null) {
+			// 支払いが見つからない場合は返金できないため、受信箱に失敗として残す
+			return conflict;
+		}
+		Refund refund = stripeGateway.refundPaymentIntent(session.getPaymentIntent(), "refund-" + session.getId());
+		
+		Optional<User> optionalUser = userRepository.findById(Integer.valueOf(metadata.get("userId")));
+		if (optionalUser.isPresent()) {
+			String message = "ご予約いただいた" + metadata.get("checkinDate") + "～" + metadata.get("checkoutDate") + "の宿泊は、"
+					+ "お支払いの手続き中に他のご予約で埋まってしまったため、お受けできませんでした。\n"
+					+ "お支払いいただいた" + metadata.get("amount") + "円は全額返金いたしました。カード会社によっては反映までに数日かかります。";
+			mailOutbox.enqueue(SENDER_ADDRESS, optionalUser.get().getEmail(), "ご予約をお受けできませんでした", message);
+		}
+		return new ReservationRefundedException(conflict.getMessage() + " 返金: " + refund.getId());
+	}
 }
@@ -0,0 +1,230 @@
+package com.example.samuraitravel.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+
+import com.example.samuraitravel.entity.StripeWebhookEvent;
+import com.example.samuraitravel.repository.StripeWebhookEventRepository;
+import com.stripe.model.Event;
+import com.stripe.net.ApiResource;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+
+// StripeのWebhookイベントの受信箱
+// Webhookのリクエストではイベントを保存するだけで応答し(Stripeの再送が重なってもTomcatのスレッドを待たせない)、
+// 予約の登録はワーカーが行う。失敗したイベントは間隔を空けて再試行する
+@Service
+public class StripeWebhookInbox {
+	private static final int WORKERS = 4;
+	private static final int QUEUE_CAPACITY = 1000;
+	// 1回の見回りで取り出す件数の上限
+	private static final int BATCH_SIZE = 100;
+	private static final long POLL_INTERVAL_SECONDS = 1;
+	// 処理中のイベントを他のワーカーが取らないようにしておく時間(処理中にサーバーが落ちた場合はこの時間の後に再試行される)
+	private static final Duration LEASE = Duration.ofMinutes(5);
+	// 再試行の間隔は5秒から倍々に延ばし、1時間で頭打ちにする。10回失敗したら諦める
+	private static final Duration INITIAL_BACKOFF = Duration.ofSeconds(5);
+	private static final Duration MAX_BACKOFF = Duration.ofHours(1);
+	private static final int MAX_ATTEMPTS = 10;
+	private static final int MAX_ERROR_LENGTH = 1000;
+	// メモリ上で覚えておく受け取り済みのイベントIDの件数
+	private static final int RECENT_EVENT_IDS = 10000;
+	
+	private final StripeWebhookEventRepository stripeWebhookEventRepository;
+	private final StripeService stripeService;
+	private final ThreadPoolExecutor executor;
+	private final ScheduledExecutorService poller;
+	// ワーカーに渡して処理を待っているイベントのID(同じイベントを二重に渡さない)
+	private final Set<Long> queuedIds = ConcurrentHashMap.newKeySet();
+	private final RecentIdCache recentEventIds = new RecentIdCache(RECENT_EVENT_IDS);
+	
+	private final AtomicLong pendingCount = new AtomicLong();
+	private final AtomicLong lagSeconds = new AtomicLong();
+	private final Timer processingTimer;
+	private final Timer deliveryTimer;
+	private final Counter retriedCounter;
+	private final Counter failedCounter;
+	private final Counter refundedCounter;
+	private final Counter rejectedCounter;
+	private final Counter duplicateCounter;
+	
+	public StripeWebhookInbox(StripeWebhookEventRepository stripeWebhookEventRepository, StripeService stripeService, MeterRegistry meterRegistry) {
+		this.stripeWebhookEventRepository = stripeWebhookEventRepository;
+		this.stripeService = stripeService;
+		
+		AtomicInteger threadNumber = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(WORKERS, WORKERS, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+			Thread thread = new Thread(runnable, "stripe-webhook-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "stripe-webhook-poller");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		// 処理待ちの件数と、最も古い処理待ちのイベントを受信してからの秒数(遅れ)
+		meterRegistry.gauge("samuraitravel.stripe_webhooks.pending", pendingCount);
+		meterRegistry.gauge("samuraitravel.stripe_webhooks.lag", lagSeconds);
+		meterRegistry.gauge("samuraitravel.stripe_webhooks.queue", executor, pool -> pool.getQueue().size());
+		this.processingTimer = meterRegistry.timer("samuraitravel.stripe_webhooks.processing");
+		// 受信してから処理し終えるまでの時間
+		this.deliveryTimer = meterRegistry.timer("samuraitravel.stripe_webhooks.delivery");
+		this.retriedCounter = meterRegistry.counter("samuraitravel.stripe_webhooks.retried");
+		this.failedCounter = meterRegistry.counter("samuraitravel.stripe_webhooks.failed");
+		// 宿泊日が他の予約と重なっていたため、予約を登録せずに返金した
+		this.refundedCounter = meterRegistry.counter("samuraitravel.stripe_webhooks.refunded");
+		this.rejectedCounter = meterRegistry.counter("samuraitravel.stripe_webhooks.rejected");
+		this.duplicateCounter = meterRegistry.counter("samuraitravel.stripe_webhooks.duplicates");
+	}
+	
+	// 起動したら処理待ちのイベント(前回の停止時に残っていたものや再試行待ちのもの)の見回りを始める
+	@EventListener(ApplicationReadyEvent.class)
+	public void start() {
+		poller.scheduleWithFixedDelay(this::poll, 0, POLL_INTERVAL_SECONDS, TimeUnit.SECONDS);
+	}
+	
+	// 署名を確認したイベントを受信箱に保存し、ワーカーに渡す。受け取り済みのイベント(Stripeの再送)の場合は何もせずfalseを返す
+	// 直近に受け取ったイベントはメモリ上で弾き、それ以外(忘れたものや他のサーバーが受け取ったもの)はevent_idの一意制約で弾く
+	public boolean receive(Event event, String payload) {
+		String eventId = event.getId();
+		if (!recentEventIds.add(eventId)) {
+			duplicateCounter.increment();
+			return false;
+		}
+		
+		LocalDateTime now = LocalDateTime.now();
+		StripeWebhookEvent stripeWebhookEvent = new StripeWebhookEvent();
+		stripeWebhookEvent.setEventId(eventId);
+		stripeWebhookEvent.setEventType(event.getType());
+		stripeWebhookEvent.setPayload(payload);
+		stripeWebhookEvent.setStatus(StripeWebhookEvent.STATUS_PENDING);
+		stripeWebhookEvent.setNextAttemptAt(now);
+		stripeWebhookEvent.setReceivedAt(now);
+		try {
+			stripeWebhookEventRepository.saveAndFlush(stripeWebhookEvent);
+		} catch (DataIntegrityViolationException e) {
+			duplicateCounter.increment();
+			return false;
+		} catch (RuntimeException e) {
+			// 保存できなかったイベントはStripeが再送してくるため、そのときに受け取れるよう忘れておく
+			recentEventIds.remove(eventId);
+			throw e;
+		}
+		
+		dispatch(stripeWebhookEvent.getId());
+		return true;
+	}
+	
+	// 処理してよい時刻を過ぎたイベントをワーカーの空きの分だけ渡し、遅れのメトリクスを更新する
+	private void poll() {
+		// 例外が外に出ると以降の見回りが止まってしまうため、ここで受け止める
+		try {
+			List<Object[]> backlog = stripeWebhookEventRepository.findPendingBacklog();
+			Object[] row = backlog.isEmpty() ? new Object[] { 0L, null } : backlog.get(0);
+			pendingCount.set(((Number)row[0]).longValue());
+			lagSeconds.set(row[1] == null ? 0 : Math.max(0, Duration.between((LocalDateTime)row[1], LocalDateTime.now()).toSeconds()));
+			
+			int room = Math.min(executor.getQueue().remainingCapacity(), BATCH_SIZE);
+			if (room == 0) {
+				return;
+			}
+			for (Long id : stripeWebhookEventRepository.findDueIds(LocalDateTime.now(), Limit.of(room))) {
+				dispatch(id);
+			}
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	// ワーカーが一杯の場合は処理待ちのまま残し、次の見回りで渡す
+	private void dispatch(Long id) {
+		if (!queuedIds.add(id)) {
+			return;
+		}
+		try {
+			executor.execute(() -> {
+				try {
+					process(id);
+				} finally {
+					queuedIds.remove(id);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			queuedIds.remove(id);
+			rejectedCounter.increment();
+		}
+	}
+	
+	private void process(Long id) {
+		LocalDateTime now = LocalDateTime.now();
+		// 他のワーカーが先に取っていた場合や、再試行の時刻になっていない場合は何もしない
+		if (stripeWebhookEventRepository.claim(id, now, now.plus(LEASE)) == 0) {
+			return;
+		}
+		StripeWebhookEvent stripeWebhookEvent = stripeWebhookEventRepository.findById(id).orElse(null);
+		if (stripeWebhookEvent == null) {
+			return;
+		}
+		
+		long startedAt = System.nanoTime();
+		try {
+			Event event = ApiResource.GSON.fromJson(stripeWebhookEvent.getPayload(), Event.class);
+			stripeService.processSessionCompleted(event);
+			
+			stripeWebhookEvent.setStatus(StripeWebhookEvent.STATUS_DONE);
+			stripeWebhookEvent.setProcessedAt(LocalDateTime.now());
+			stripeWebhookEvent.setLastError(null);
+			deliveryTimer.record(Duration.between(stripeWebhookEvent.getReceivedAt(), stripeWebhookEvent.getProcessedAt()));
+		} catch (Exception e) {
+			e.printStackTrace();
+			stripeWebhookEvent.setLastError(abbreviate(e.toString()));
+			// 宿泊日が他の予約と重なっている場合は再試行しても解消しない
+			// 返金できた場合はREFUNDED、それ以外で諦めた場合はFAILEDとして受信箱に残し、管理者が一覧(/admin/stripe-webhooks)で確認できるようにする
+			if (e instanceof ReservationRefundedException) {
+				stripeWebhookEvent.setStatus(StripeWebhookEvent.STATUS_REFUNDED);
+				refundedCounter.increment();
+			} else if (e instanceof ReservationConflictException || stripeWebhookEvent.getAttempts() >= MAX_ATTEMPTS) {
+				stripeWebhookEvent.setStatus(StripeWebhookEvent.STATUS_FAILED);
+				failedCounter.increment();
+			} else {
+				stripeWebhookEvent.setNextAttemptAt(LocalDateTime.now().plus(RetryBackoff.delay(stripeWebhookEvent.getAttempts(), INITIAL_BACKOFF, MAX_BACKOFF)));
+				retriedCounter.increment();
+			}
+		} finally {
+			processingTimer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+		}
+		stripeWebhookEventRepository.save(stripeWebhookEvent);
+	}
+	
+	private static String abbreviate(String message) {
+		return message.length() <= MAX_ERROR_LENGTH ? message : message.substring(0, MAX_ERROR_LENGTH);
+	}
+	
+	@PreDestroy
+	public void shutdown() {
+		poller.shutdown();
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,25 @@
+package com.example.samuraitravel.service;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+// メモリ上のインデックスやキャッシュを、データベースへの変更がコミットされてから更新するための補助
+final class TransactionCallbacks {
+	private TransactionCallbacks() {
+	}
+	
+	// トランザクション中ならコミット後に、そうでなければすぐに実行する(ロールバックされた変更を反映しないため)
+	static void afterCommit(Runnable action) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			action.run();
+			return;
+		}
+		
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCommit() {
+				action.run();
+			}
+		});
+	}
+}
@@ -0,0 +1,38 @@
+package com.example.samuraitravel.service;
+
+// 1人のユーザーがお気に入り登録した民宿IDとレビュー投稿済みの民宿IDの集合
+// UserHouseMembershipServiceが作り、お気に入り・レビューの登録/削除に合わせて更新する
+public class UserHouseMembership {
+	private final SortedIntList favoriteHouseIds;
+	private final SortedIntList reviewedHouseIds;
+	
+	UserHouseMembership(SortedIntList favoriteHouseIds, SortedIntList reviewedHouseIds) {
+		this.favoriteHouseIds = favoriteHouseIds;
+		this.reviewedHouseIds = reviewedHouseIds;
+	}
+	
+	// 一覧ページのカードごとに呼び出してもクエリは発行しない
+	public synchronized boolean isFavorite(int houseId) {
+		return favoriteHouseIds.contains(houseId);
+	}
+	
+	public synchronized boolean hasReviewed(int houseId) {
+		return reviewedHouseIds.contains(houseId);
+	}
+	
+	synchronized void setFavorite(int houseId, boolean favorite) {
+		if (favorite) {
+			favoriteHouseIds.add(houseId);
+		} else {
+			favoriteHouseIds.remove(houseId);
+		}
+	}
+	
+	synchronized void setReviewed(int houseId, boolean reviewed) {
+		if (reviewed) {
+			reviewedHouseIds.add(houseId);
+		} else {
+			reviewedHouseIds.remove(houseId);
+		}
+	}
+}
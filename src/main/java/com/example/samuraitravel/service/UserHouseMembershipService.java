@@ -0,0 +1,78 @@
+package com.example.samuraitravel.service;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.stereotype.Service;
+
+import com.example.samuraitravel.entity.User;
+import com.example.samuraitravel.repository.FavoriteRepository;
+import com.example.samuraitravel.repository.ReviewRepository;
+
+// ユーザーごとのお気に入り・レビュー投稿済みの民宿IDをメモリに持つ
+// 最初に参照したときに2回のクエリで読み込み、以降はFavoriteService・ReviewServiceからの通知で更新する
+@Service
+public class UserHouseMembershipService {
+	// 保持するユーザー数の上限。超えたら任意のユーザーの分を捨て、次に参照されたときに読み込み直す
+	private static final int MAX_USERS = 10000;
+	
+	private final FavoriteRepository favoriteRepository;
+	private final ReviewRepository reviewRepository;
+	
+	// ユーザーID → そのユーザーの民宿IDの集合
+	// 読み込みと更新は同じキーに対してcomputeIfAbsent/computeIfPresentで順番に行われるため、読み込み中のコミットを取りこぼさない
+	private final Map<Integer, UserHouseMembership> memberships = new ConcurrentHashMap<>();
+	
+	public UserHouseMembershipService(FavoriteRepository favoriteRepository, ReviewRepository reviewRepository) {
+		this.favoriteRepository = favoriteRepository;
+		this.reviewRepository = reviewRepository;
+	}
+	
+	public UserHouseMembership getMembership(User user) {
+		UserHouseMembership membership = memberships.get(user.getId());
+		if (membership != null) {
+			return membership;
+		}
+		
+		evictIfFull();
+		return memberships.computeIfAbsent(user.getId(), this::load);
+	}
+	
+	// お気に入りの登録・削除がコミットされたら反映する。まだ読み込んでいないユーザーは何もしない
+	void favoriteChanged(Integer userId, Integer houseId, boolean favorite) {
+		TransactionCallbacks.afterCommit(() -> memberships.computeIfPresent(userId, (key, membership) -> {
+			membership.setFavorite(houseId, favorite);
+			return membership;
+		}));
+	}
+	
+	// レビューの投稿・削除がコミットされたら反映する。まだ読み込んでいないユーザーは何もしない
+	void reviewChanged(Integer userId, Integer houseId, boolean reviewed) {
+		TransactionCallbacks.afterCommit(() -> memberships.computeIfPresent(userId, (key, membership) -> {
+			membership.setReviewed(houseId, reviewed);
+			return membership;
+		}));
+	}
+	
+	private UserHouseMembership load(Integer userId) {
+		return new UserHouseMembership(toSortedIntList(favoriteRepository.findHouseIdsByUserId(userId)),
+				toSortedIntList(reviewRepository.findHouseIdsByUserId(userId)));
+	}
+	
+	private void evictIfFull() {
+		Iterator<Integer> iterator = memberships.keySet().iterator();
+		while (memberships.size() >= MAX_USERS && iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();
+		}
+	}
+	
+	private static SortedIntList toSortedIntList(Iterable<Integer> houseIds) {
+		SortedIntList sortedIntList = new SortedIntList();
+		for (Integer houseId : houseIds) {
+			sortedIntList.add(houseId);
+		}
+		return sortedIntList;
+	}
+}
@@ -0,0 +1,159 @@
+package com.example.samuraitravel.service;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.springframework.stereotype.Service;
+
+import com.example.samuraitravel.entity.User;
+import com.example.samuraitravel.repository.UserRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+// ログインや会員情報ページで読み込むユーザー(ロールを含む)のキャッシュ。メールアドレスとIDのどちらからでも引ける
+// 件数の上限を超えたら最も長く使われていないものから、一定時間が過ぎたものは次に引かれたときに捨てる
+// ユーザーを変更したらコミット後にinvalidate()で捨てる。呼び出し元には毎回コピーを返すため、書き換えてもキャッシュには影響しない
+@Service
+public class UserPrincipalCache {
+	private static final int MAX_SIZE = 10000;
+	private static final Duration TTL = Duration.ofMinutes(5);
+	
+	private final UserRepository userRepository;
+	// ユーザーID → ユーザー(アクセス順)。emailToIdと合わせてthisで同期する
+	private final Map<Integer, Entry> entries;
+	private final Map<String, Integer> emailToId = new HashMap<>();
+	// invalidate()のたびに増やす。読み込み中に変更されたユーザーを古いままキャッシュしないために使う
+	private final AtomicLong version = new AtomicLong();
+	
+	private final Counter hitCounter;
+	private final Counter missCounter;
+	private final Counter evictionCounter;
+	
+	public UserPrincipalCache(UserRepository userRepository, MeterRegistry meterRegistry) {
+		this.userRepository = userRepository;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+				if (size() <= MAX_SIZE) {
+					return false;
+				}
+				emailToId.remove(eldest.getValue().user.getEmail());
+				evictionCounter.increment();
+				return true;
+			}
+		};
+		
+		this.hitCounter = meterRegistry.counter("samuraitravel.user_cache.requests", "result", "hit");
+		this.missCounter = meterRegistry.counter("samuraitravel.user_cache.requests", "result", "miss");
+		this.evictionCounter = meterRegistry.counter("samuraitravel.user_cache.evictions");
+		meterRegistry.gauge("samuraitravel.user_cache.size", this, cache -> cache.size());
+		meterRegistry.gauge("samuraitravel.user_cache.hit_ratio", this, cache -> cache.hitRatio());
+	}
+	
+	// 見つからなければnullを返す(UserRepository.findByEmail()と同じ)
+	public User findByEmail(String email) {
+		User user;
+		synchronized (this) {
+			Integer id = emailToId.get(email);
+			user = id != null ? get(id) : null;
+		}
+		return user != null ? hit(user) : load(() -> userRepository.findByEmail(email));
+	}
+	
+	// 見つからなければnullを返す
+	public User findById(Integer id) {
+		User user;
+		synchronized (this) {
+			user = get(id);
+		}
+		return user != null ? hit(user) : load(() -> userRepository.findById(id).orElse(null));
+	}
+	
+	// ユーザーを変更したトランザクションがコミットされてから捨てる
+	public void invalidate(Integer userId) {
+		TransactionCallbacks.afterCommit(() -> {
+			version.incrementAndGet();
+			synchronized (this) {
+				Entry entry = entries.remove(userId);
+				if (entry != null) {
+					emailToId.remove(entry.user.getEmail());
+				}
+			}
+		});
+	}
+	
+	synchronized int size() {
+		return entries.size();
+	}
+	
+	private double hitRatio() {
+		double requests = hitCounter.count() + missCounter.count();
+		return requests == 0 ? 0 : hitCounter.count() / requests;
+	}
+	
+	// thisで同期した状態で呼び出す。期限が切れていたら捨ててnullを返す
+	private User get(Integer id) {
+		Entry entry = entries.get(id);
+		if (entry == null) {
+			return null;
+		}
+		if (System.nanoTime() - entry.loadedAt > TTL.toNanos()) {
+			entries.remove(id);
+			emailToId.remove(entry.user.getEmail());
+			return null;
+		}
+		return entry.user;
+	}
+	
+	private User hit(User user) {
+		hitCounter.increment();
+		return copyOf(user);
+	}
+	
+	private User load(Supplier<User> loader) {
+		missCounter.increment();
+		long loadedVersion = version.get();
+		User user = loader.get();
+		if (user == null) {
+			return null;
+		}
+		
+		User cached = copyOf(user);
+		synchronized (this) {
+			// 読み込んでいる間にいずれかのユーザーが変更された場合は、古い値かもしれないためキャッシュしない
+			if (version.get() == loadedVersion) {
+				Entry previous = entries.put(cached.getId(), new Entry(cached, System.nanoTime()));
+				if (previous != null) {
+					emailToId.remove(previous.user.getEmail());
+				}
+				emailToId.put(cached.getEmail(), cached.getId());
+			}
+		}
+		return copyOf(cached);
+	}
+	
+	private static User copyOf(User user) {
+		User copy = new User();
+		copy.setId(user.getId());
+		copy.setName(user.getName());
+		copy.setFurigana(user.getFurigana());
+		copy.setPostalCode(user.getPostalCode());
+		copy.setAddress(user.getAddress());
+		copy.setPhoneNumber(user.getPhoneNumber());
+		copy.setEmail(user.getEmail());
+		copy.setPassword(user.getPassword());
+		copy.setRole(user.getRole());
+		copy.setEnabled(user.getEnabled());
+		copy.setCreatedAt(user.getCreatedAt());
+		copy.setUpdatedAt(user.getUpdatedAt());
+		return copy;
+	}
+	
+	private record Entry(User user, long loadedAt) {
+	}
+}
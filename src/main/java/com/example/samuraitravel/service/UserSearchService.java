@@ -0,0 +1,333 @@
+package com.example.samuraitravel.service;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.example.samuraitravel.entity.User;
+import com.example.samuraitravel.repository.UserRepository;
+
+// 管理者がユーザーを氏名・フリガナ・メールアドレスで探すためのメモリ上の検索インデックス
+// 全角・半角、ひらがな・カタカナ、大文字・小文字の違いを吸収したうえで、氏名・フリガナは1文字・2文字のN-gramで、
+// メールアドレスは先頭の1～4文字で索引化する。候補を絞り込んだ後、氏名・フリガナは部分一致、メールアドレスは前方一致で確認する
+@Service
+public class UserSearchService {
+	private static final int FIELD_NAME = 0;
+	private static final int FIELD_FURIGANA = 1;
+	private static final int FIELD_EMAIL = 2;
+	private static final int FIELD_COUNT = 3;
+	// メールアドレスを索引化する先頭の文字数の上限
+	private static final int MAX_EMAIL_PREFIX = 4;
+	// 検索結果として数えるユーザーの数の上限。ID順に先頭からこの件数まで集めたら打ち切る
+	// (多くのユーザーに一致するキーワードで、一致するユーザーをすべて集めて数えると時間がかかるため)
+	public static final int MAX_HITS = 1000;
+	
+	private final UserRepository userRepository;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	// 氏名・フリガナごとに、N-gram → そのN-gramを含むユーザーIDの昇順リスト
+	private final List<Map<Integer, SortedIntList>> postings = new ArrayList<>();
+	// メールアドレスの先頭の1～4文字 → その文字列で始まるユーザーIDの昇順リスト
+	private final Map<String, SortedIntList> emailPrefixes = new HashMap<>();
+	// ユーザーIDを添字とした、索引に登録した内容(一致の確認と削除時に使う)
+	// IDは連番のため、ボックス化やハッシュの計算が要らない配列で持つ
+	private IndexedUser[] indexedUsers = new IndexedUser[1024];
+	// 作り直しの最中に索引に加えた変更(作り直しで読み込んだ内容より新しいことがあるため、読み込んだ内容で置き換えた後にもう一度加える)
+	// 作り直しの最中でなければnull。書き込みロックを取得した状態で読み書きする
+	private List<Runnable> changesDuringRebuild;
+	
+	public UserSearchService(UserRepository userRepository) {
+		this.userRepository = userRepository;
+		for (int field = 0; field < FIELD_EMAIL; field++) {
+			postings.add(new HashMap<>());
+		}
+	}
+	
+	// 起動時にすべてのユーザーから索引を作り直す(エンティティは読み込まず、検索に使う列だけをID順に読む)
+	// 読み込んでいる間に登録・更新・削除されたユーザーは、読み込んだ内容で置き換えた後に変更を加え直して、古い内容に戻さない
+	// (同時に2回作り直すと変更の記録が混ざるため、作り直しは1つずつ行う)
+	@EventListener(ApplicationReadyEvent.class)
+	@Transactional(readOnly = true)
+	public synchronized void rebuild() {
+		lock.writeLock().lock();
+		try {
+			changesDuringRebuild = new ArrayList<>();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		
+		List<Object[]> rows = null;
+		try {
+			rows = userRepository.findSearchFields();
+		} finally {
+			lock.writeLock().lock();
+			try {
+				if (rows != null) {
+					postings.forEach(Map::clear);
+					emailPrefixes.clear();
+					Arrays.fill(indexedUsers, null);
+					for (Object[] row : rows) {
+						add(indexedUser((Integer)row[0], (String)row[1], (String)row[2], (String)row[3]));
+					}
+					changesDuringRebuild.forEach(Runnable::run);
+				}
+				changesDuringRebuild = null;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+	
+	// ユーザーの登録・更新がコミットされたら、そのユーザーの分だけ索引を差し替える
+	public void onUserChanged(User user) {
+		IndexedUser indexedUser = indexedUser(user.getId(), user.getName(), user.getFurigana(), user.getEmail());
+		TransactionCallbacks.afterCommit(() -> apply(() -> {
+			remove(indexedUser.id());
+			add(indexedUser);
+		}));
+	}
+	
+	// ユーザーの削除がコミットされたら、索引から取り除く
+	public void onUserDeleted(Integer userId) {
+		TransactionCallbacks.afterCommit(() -> apply(() -> remove(userId)));
+	}
+	
+	// 書き込みロックを取得して索引に変更を加える。作り直しの最中であれば、読み込みの後に加え直すよう記録しておく
+	// (変更は何度加えても同じ結果になる)
+	private void apply(Runnable change) {
+		lock.writeLock().lock();
+		try {
+			change.run();
+			if (changesDuringRebuild != null) {
+				changesDuringRebuild.add(change);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	// キーワード(氏名・フリガナ・メールアドレス)に一致するユーザーをID順に並べ、指定したページの分だけデータベースから読み込む
+	// 一致するユーザーがMAX_HITSより多い場合は、先頭のMAX_HITS件だけを結果とする(総件数もMAX_HITSになる)
+	public Page<User> search(String keyword, Pageable pageable) {
+		String query = normalize(keyword);
+		if (query.isEmpty()) {
+			return userRepository.findAll(pageable);
+		}
+		
+		int[] ids = find(query, MAX_HITS);
+		
+		int from = (int)Math.min(pageable.getOffset(), ids.length);
+		int to = Math.min(from + pageable.getPageSize(), ids.length);
+		List<Integer> pageIds = Arrays.stream(ids, from, to).boxed().toList();
+		
+		Map<Integer, User> users = new HashMap<>();
+		userRepository.findAllById(pageIds).forEach(user -> users.put(user.getId(), user));
+		// 索引に反映される前に削除されたユーザーは飛ばす
+		List<User> content = pageIds.stream().map(users::get).filter(user -> user != null).toList();
+		
+		return new PageImpl<>(content, pageable, ids.length);
+	}
+	
+	// 正規化したqueryに一致するユーザーIDを昇順に、先頭からlimit件まで返す
+	int[] find(String query, int limit) {
+		lock.readLock().lock();
+		try {
+			// それぞれの先頭limit件の和集合の先頭limit件は、すべての一致の和集合の先頭limit件と等しい
+			int[] ids = SortedIntList.union(SortedIntList.union(match(FIELD_NAME, query, limit), match(FIELD_FURIGANA, query, limit)), matchEmail(query, limit));
+			return ids.length > limit ? Arrays.copyOf(ids, limit) : ids;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	// 指定したフィールドにqueryを含むユーザーIDを昇順に、先頭からlimit件まで返す
+	private int[] match(int field, String query, int limit) {
+		List<SortedIntList> lists = new ArrayList<>();
+		for (int gram : grams(query)) {
+			SortedIntList posting = postings.get(field).get(gram);
+			if (posting == null) {
+				return new int[0];
+			}
+			lists.add(posting);
+		}
+		
+		// 1文字・2文字のキーワードはN-gramと一致すれば含まれているため、リストの先頭からそのまま取り出す
+		if (query.length() <= 2) {
+			return lists.get(0).toArray(limit);
+		}
+		
+		// 件数の少ないリストから順に共通部分を取り、大きなリストのコピーを避ける
+		lists.sort(Comparator.comparingInt(SortedIntList::size));
+		int[] candidates = lists.get(0).toArray();
+		for (int i = 1; i < lists.size() && candidates.length > 0; i++) {
+			candidates = lists.get(i).retain(candidates);
+		}
+		
+		// N-gramがすべて含まれていても連続しているとは限らないため、部分一致で確認する(limit件そろったら打ち切る)
+		int n = 0;
+		for (int i = 0; i < candidates.length && n < limit; i++) {
+			if (indexedUsers[candidates[i]].fields()[field].contains(query)) {
+				candidates[n++] = candidates[i];
+			}
+		}
+		return Arrays.copyOf(candidates, n);
+	}
+	
+	// メールアドレスがqueryで始まるユーザーIDを昇順に、先頭からlimit件まで返す
+	private int[] matchEmail(String query, int limit) {
+		SortedIntList posting = emailPrefixes.get(query.substring(0, Math.min(query.length(), MAX_EMAIL_PREFIX)));
+		if (posting == null) {
+			return new int[0];
+		}
+		if (query.length() <= MAX_EMAIL_PREFIX) {
+			return posting.toArray(limit);
+		}
+		
+		// 先頭の4文字が一致したユーザーを、リストをコピーせずにID順に確かめる(limit件そろったら打ち切る)
+		int[] matches = new int[Math.min(posting.size(), limit)];
+		int n = 0;
+		for (int i = 0; i < posting.size() && n < matches.length; i++) {
+			int id = posting.get(i);
+			if (indexedUsers[id].fields()[FIELD_EMAIL].startsWith(query)) {
+				matches[n++] = id;
+			}
+		}
+		return Arrays.copyOf(matches, n);
+	}
+	
+	// 書き込みロックを取得した状態で呼び出す
+	private void add(IndexedUser indexedUser) {
+		if (indexedUser.id() >= indexedUsers.length) {
+			indexedUsers = Arrays.copyOf(indexedUsers, Math.max(indexedUser.id() + 1, indexedUsers.length * 2));
+		}
+		indexedUsers[indexedUser.id()] = indexedUser;
+		
+		for (int field = 0; field < FIELD_EMAIL; field++) {
+			for (int gram : indexGrams(indexedUser.fields()[field])) {
+				postings.get(field).computeIfAbsent(gram, key -> new SortedIntList()).add(indexedUser.id());
+			}
+		}
+		for (String prefix : emailPrefixes(indexedUser.fields()[FIELD_EMAIL])) {
+			emailPrefixes.computeIfAbsent(prefix, key -> new SortedIntList()).add(indexedUser.id());
+		}
+	}
+	
+	// 書き込みロックを取得した状態で呼び出す
+	private void remove(Integer userId) {
+		IndexedUser indexedUser = userId < indexedUsers.length ? indexedUsers[userId] : null;
+		if (indexedUser == null) {
+			return;
+		}
+		indexedUsers[userId] = null;
+		
+		for (int field = 0; field < FIELD_EMAIL; field++) {
+			Map<Integer, SortedIntList> fieldPostings = postings.get(field);
+			for (int gram : indexGrams(indexedUser.fields()[field])) {
+				SortedIntList posting = fieldPostings.get(gram);
+				if (posting != null) {
+					posting.remove(userId);
+					if (posting.size() == 0) {
+						fieldPostings.remove(gram);
+					}
+				}
+			}
+		}
+		for (String prefix : emailPrefixes(indexedUser.fields()[FIELD_EMAIL])) {
+			SortedIntList posting = emailPrefixes.get(prefix);
+			if (posting != null) {
+				posting.remove(userId);
+				if (posting.size() == 0) {
+					emailPrefixes.remove(prefix);
+				}
+			}
+		}
+	}
+	
+	private static IndexedUser indexedUser(Integer id, String name, String furigana, String email) {
+		String[] fields = new String[FIELD_COUNT];
+		fields[FIELD_NAME] = normalize(name);
+		fields[FIELD_FURIGANA] = normalize(furigana);
+		fields[FIELD_EMAIL] = normalize(email);
+		return new IndexedUser(id, fields);
+	}
+	
+	// 登録時は1文字と2文字のN-gramをすべて索引に入れる
+	private static int[] indexGrams(String text) {
+		int[] grams = new int[text.length() * 2];
+		int n = 0;
+		for (int i = 0; i < text.length(); i++) {
+			grams[n++] = unigram(text.charAt(i));
+			if (i + 1 < text.length()) {
+				grams[n++] = bigram(text.charAt(i), text.charAt(i + 1));
+			}
+		}
+		return Arrays.stream(grams, 0, n).distinct().toArray();
+	}
+	
+	// メールアドレスの先頭の1～4文字
+	private static List<String> emailPrefixes(String email) {
+		List<String> prefixes = new ArrayList<>();
+		for (int length = 1; length <= Math.min(email.length(), MAX_EMAIL_PREFIX); length++) {
+			prefixes.add(email.substring(0, length));
+		}
+		return prefixes;
+	}
+	
+	// 検索時は1文字なら1文字のN-gram、2文字以上なら2文字のN-gramで候補を絞り込む
+	static int[] grams(String query) {
+		if (query.length() == 1) {
+			return new int[] { unigram(query.charAt(0)) };
+		}
+		
+		int[] grams = new int[Math.max(query.length() - 1, 0)];
+		for (int i = 0; i + 1 < query.length(); i++) {
+			grams[i] = bigram(query.charAt(i), query.charAt(i + 1));
+		}
+		return grams;
+	}
+	
+	static int unigram(char c) {
+		return c;
+	}
+	
+	static int bigram(char first, char second) {
+		return (first << 16) | second;
+	}
+	
+	// 全角・半角(半角カナを含む)、カタカナ・ひらがな、大文字・小文字の違いを吸収し、空白を取り除く
+	// 「ｻﾑﾗｲ」「サムライ」「さむらい」や「侍 太郎」「侍太郎」は同じ文字列になる
+	static String normalize(String text) {
+		if (text == null) {
+			return "";
+		}
+		
+		String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase();
+		StringBuilder builder = new StringBuilder(normalized.length());
+		for (int i = 0; i < normalized.length(); i++) {
+			char c = normalized.charAt(i);
+			if (Character.isWhitespace(c)) {
+				continue;
+			}
+			// カタカナ(ァ～ヶ)は対応するひらがなに揃える
+			builder.append(c >= 'ァ' && c <= 'ヶ' ? (char)(c - ('ァ' - 'ぁ')) : c);
+		}
+		return builder.toString();
+	}
+	
+	private record IndexedUser(int id, String[] fields) {
+	}
+}
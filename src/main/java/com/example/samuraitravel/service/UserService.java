@@ -19,11 +19,15 @@ public class UserService {
 	private final UserRepository userRepository;
 	private final RoleRepository roleRepository;
 	private final PasswordEncoder passwordEncoder;
+	private final UserPrincipalCache userPrincipalCache;
+	private final UserSearchService userSearchService;
 	 
-	public UserService(UserRepository userRepository, RoleRepository roleRepository, PasswordEncoder passwordEncoder){
+	public UserService(UserRepository userRepository, RoleRepository roleRepository, PasswordEncoder passwordEncoder, UserPrincipalCache userPrincipalCache, UserSearchService userSearchService){
 		 this.userRepository = userRepository;
 		 this.roleRepository = roleRepository;
 		 this.passwordEncoder = passwordEncoder;
+		 this.userPrincipalCache = userPrincipalCache;
+		 this.userSearchService = userSearchService;
 	 }
 	 
 	 @Transactional
@@ -41,7 +45,10 @@ public class UserService {
 		 user.setRole(role);
 		 user.setEnabled(false);
 		 
-		 return userRepository.save(user);
+		 User savedUser = userRepository.save(user);
+		 userSearchService.onUserChanged(savedUser);
+		 
+		 return savedUser;
 	 }
 	 
 	 @Transactional
@@ -56,6 +63,8 @@ public class UserService {
 		 user.setEmail(userEditForm.getEmail());
 		 
 		 userRepository.save(user);
+		 userPrincipalCache.invalidate(user.getId());
+		 userSearchService.onUserChanged(user);
 	 }
 	 
 	 // メールアドレスが登録済みかどうかをチェックする
@@ -74,6 +83,8 @@ public class UserService {
 	 public void enableUser(User user) {
 		 user.setEnabled(true);
 		 userRepository.save(user);
+		 // 有効にする前にログインを試みた場合、無効のままキャッシュされているため
+		 userPrincipalCache.invalidate(user.getId());
 	 }
 	 
 	 // メールアドレスが変更されたかどうかをチェックする
@@ -1,5 +1,14 @@
 package com.example.samuraitravel.service;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -7,27 +16,63 @@ import com.example.samuraitravel.entity.User;
 import com.example.samuraitravel.entity.VerificationToken;
 import com.example.samuraitravel.repository.VerificationTokenRepository;
 
+// メール認証のトークンを発行・確認する
+// データベースにはトークンのSHA-256ハッシュだけを保存し(固定長の一意インデックスで引ける)、有効期限を過ぎたものは無効とする
 @Service
 public class VerificationTokenService {
+	private static final int TOKEN_BYTES = 32;
+	
 	private final VerificationTokenRepository verificationTokenRepository;
+	private final UserService userService;
+	private final Duration expiry;
+	private final SecureRandom secureRandom = new SecureRandom();
 	
-	public VerificationTokenService(VerificationTokenRepository verificationTokenRepository) {
+	public VerificationTokenService(VerificationTokenRepository verificationTokenRepository, UserService userService,
+										@Value("${samuraitravel.verification-tokens.expiry}") Duration expiry)
+	{
 		this.verificationTokenRepository = verificationTokenRepository;
+		this.userService = userService;
+		this.expiry = expiry;
 	}
-
+	
+	// トークンを発行して保存し、メールで送るトークンの文字列を返す
 	@Transactional
-	public void create(User user, String token) {
+	public String create(User user) {
+		byte[] bytes = new byte[TOKEN_BYTES];
+		secureRandom.nextBytes(bytes);
+		String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+		
 		VerificationToken verificationToken = new VerificationToken();
 		
 		verificationToken.setUser(user);
-		verificationToken.setToken(token);
+		verificationToken.setTokenHash(hash(token));
+		verificationToken.setExpiresAt(LocalDateTime.now().plus(expiry));
 		
 		verificationTokenRepository.save(verificationToken);
+		
+		return token;
 	}
 	
-	// トークンの文字列で検索した結果を返す
-	public VerificationToken getVerificationToken(String token) {
-		return verificationTokenRepository.findByToken(token);
+	// トークンが期限内であればユーザーを有効にし、再び使えないようトークンを削除する。認証できた場合はtrueを返す
+	// トークンの確認からユーザーの有効化・トークンの削除までを1つのトランザクションで行い、トークンとユーザーの行をロックしておく
+	// (期限切れのトークンの掃除(VerificationTokenSweeper)と重なっても、どちらか一方が終わってから他方が進む)
+	@Transactional
+	public boolean verify(String token) {
+		VerificationToken verificationToken = verificationTokenRepository.findUsableForUpdate(hash(token), LocalDateTime.now());
+		if (verificationToken == null) {
+			return false;
+		}
+		
+		userService.enableUser(verificationToken.getUser());
+		verificationTokenRepository.delete(verificationToken);
+		return true;
+	}
+	
+	static byte[] hash(String token) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
 	}
 }
-
@@ -0,0 +1,81 @@
+package com.example.samuraitravel.service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.samuraitravel.repository.VerificationTokenRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+// 期限が切れたメール認証のトークンと、認証されないまま期限が切れたユーザーを削除する
+// 放っておくとverification_tokensとusersが増え続けるため、定期的に掃除する
+@Service
+public class VerificationTokenSweeper {
+	// 1つのトランザクションで削除する件数(行ロックを長く持たないよう小分けにする)
+	private static final int BATCH_SIZE = 500;
+	
+	private final VerificationTokenRepository verificationTokenRepository;
+	private final UserPrincipalCache userPrincipalCache;
+	private final UserSearchService userSearchService;
+	private final TransactionTemplate transactionTemplate;
+	
+	private final Timer sweepTimer;
+	private final Counter removedTokenCounter;
+	private final Counter removedUserCounter;
+	
+	public VerificationTokenSweeper(VerificationTokenRepository verificationTokenRepository, UserPrincipalCache userPrincipalCache,
+										UserSearchService userSearchService, TransactionTemplate transactionTemplate, MeterRegistry meterRegistry)
+	{
+		this.verificationTokenRepository = verificationTokenRepository;
+		this.userPrincipalCache = userPrincipalCache;
+		this.userSearchService = userSearchService;
+		this.transactionTemplate = transactionTemplate;
+		this.sweepTimer = meterRegistry.timer("samuraitravel.verification_tokens.sweep");
+		// 削除した行数(テーブルごと)
+		this.removedTokenCounter = meterRegistry.counter("samuraitravel.verification_tokens.removed", "table", "verification_tokens");
+		this.removedUserCounter = meterRegistry.counter("samuraitravel.verification_tokens.removed", "table", "users");
+	}
+	
+	// 決まった時刻に実行する。複数のサーバーで同時に動いても、同じ行は1回だけ削除される
+	@Scheduled(cron = "${samuraitravel.verification-tokens.sweep-cron}")
+	public void sweep() {
+		sweepTimer.record(() -> sweepExpiredBefore(LocalDateTime.now()));
+	}
+	
+	// nowの時点で期限が切れているトークンと、そのうち認証されていないユーザーを削除し、削除したトークンの件数を返す
+	// 削除するユーザーはトークンとユーザーの行をロックしてから決めるため、期限の直前に始まった認証と重なっても、
+	// 認証されたユーザーを削除したり、削除したユーザーを認証したりすることはない(VerificationTokenService.verifyを参照)
+	public int sweepExpiredBefore(LocalDateTime now) {
+		int removedCount = 0;
+		while (true) {
+			List<Integer> ids = verificationTokenRepository.findIdsExpiredBefore(now, Limit.of(BATCH_SIZE));
+			if (ids.isEmpty()) {
+				return removedCount;
+			}
+			
+			Integer deleted = transactionTemplate.execute(status -> {
+				List<Integer> userIds = verificationTokenRepository.findUnverifiedUserIdsForUpdate(ids);
+				int deletedTokens = verificationTokenRepository.deleteExpired(ids);
+				if (!userIds.isEmpty()) {
+					removedUserCounter.increment(verificationTokenRepository.deleteUnverifiedUsers(userIds));
+					userIds.forEach(userPrincipalCache::invalidate);
+					userIds.forEach(userSearchService::onUserDeleted);
+				}
+				return deletedTokens;
+			});
+			removedCount += deleted;
+			removedTokenCounter.increment(deleted);
+			
+			if (ids.size() < BATCH_SIZE) {
+				return removedCount;
+			}
+		}
+	}
+}
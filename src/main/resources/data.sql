@@ -114,3 +114,8 @@ INSERT IGNORE INTO favorites (id, house_id, user_id) VALUES (9, 9, 1);
 INSERT IGNORE INTO favorites (id, house_id, user_id) VALUES (10, 10, 1);
 INSERT IGNORE INTO favorites (id, house_id, user_id) VALUES (11, 11, 1);
 INSERT IGNORE INTO favorites (id, house_id, user_id) VALUES (12, 12, 1);
+
+-- house_review_statsテーブル(まだ集計がない民宿だけ、reviewsテーブルから作成する)
+INSERT IGNORE INTO house_review_stats (house_id, review_count, rating_sum, star1_count, star2_count, star3_count, star4_count, star5_count) SELECT house_id, COUNT(*), SUM(rating), SUM(rating = 1), SUM(rating = 2), SUM(rating = 3), SUM(rating = 4), SUM(rating = 5) FROM reviews GROUP BY house_id;
+-- 評価順の一覧は集計の行から民宿をたどるため、レビューがない民宿にもすべて0の集計を作る
+INSERT IGNORE INTO house_review_stats (house_id) SELECT id FROM houses;
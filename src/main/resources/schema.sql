@@ -2,6 +2,7 @@ CREATE TABLE IF NOT EXISTS houses (
    id INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
    name VARCHAR(50) NOT NULL,  
    image_name VARCHAR(255),
+   image_variants_ready BOOLEAN NOT NULL DEFAULT FALSE,
    description VARCHAR(255) NOT NULL,
    price INT NOT NULL,
    capacity INT NOT NULL,
@@ -9,7 +10,9 @@ CREATE TABLE IF NOT EXISTS houses (
    address VARCHAR(255) NOT NULL,
    phone_number VARCHAR(50) NOT NULL,
    created_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
-   updated_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
+   updated_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+   INDEX idx_houses_created_at_id (created_at DESC, id),
+   INDEX idx_houses_price_id (price, id)
 );
 
 CREATE TABLE IF NOT EXISTS roles(
@@ -36,9 +39,11 @@ CREATE TABLE IF NOT EXISTS users (
 CREATE TABLE IF NOT EXISTS verification_tokens(
 	id INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
 	user_id INT NOT NULL UNIQUE,
-	token VARCHAR(255) NOT NULL,
+	token_hash BINARY(32) NOT NULL UNIQUE,
+	expires_at DATETIME NOT NULL,
 	created_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
 	updated_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+	INDEX idx_verification_tokens_expires_at (expires_at),
 	FOREIGN KEY (user_id) REFERENCES users(id)
 );
 
@@ -50,13 +55,48 @@ CREATE TABLE IF NOT EXISTS reservations (
 	checkout_date DATE NOT NULL,
 	number_of_people INT NOT NULL,
 	amount INT NOT NULL,
+	stripe_session_id VARCHAR(255) UNIQUE,
+	house_name VARCHAR(50),
+	house_image_name VARCHAR(255),
+	house_price INT,
 	created_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
 	updated_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+	INDEX idx_reservations_user_id_created_at (user_id, created_at),
+	INDEX idx_reservations_checkout_date (checkout_date),
 	FOREIGN KEY (house_id) REFERENCES houses(id),
 	FOREIGN KEY (user_id) REFERENCES users(id)
 	
 );
 
+-- チェックアウトから保存期間が過ぎた予約(ReservationArchiveServiceがreservationsから移す)
+-- 民宿名などは移した時点の値で埋めてあり、民宿が削除されても予約一覧に表示できるよう外部キーは付けない
+CREATE TABLE IF NOT EXISTS reservations_archive (
+	id INT NOT NULL PRIMARY KEY,
+	house_id INT NOT NULL,
+	user_id INT NOT NULL,
+	checkin_date DATE NOT NULL,
+	checkout_date DATE NOT NULL,
+	number_of_people INT NOT NULL,
+	amount INT NOT NULL,
+	stripe_session_id VARCHAR(255),
+	house_name VARCHAR(50),
+	house_image_name VARCHAR(255),
+	house_price INT,
+	created_at DATETIME NOT NULL,
+	updated_at DATETIME NOT NULL,
+	archived_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+	INDEX idx_reservations_archive_user_id_created_at (user_id, created_at)
+);
+
+CREATE TABLE IF NOT EXISTS reservation_nights (
+	house_id INT NOT NULL,
+	night DATE NOT NULL,
+	reservation_id INT NOT NULL,
+	PRIMARY KEY (house_id, night),
+	FOREIGN KEY (house_id) REFERENCES houses(id),
+	FOREIGN KEY (reservation_id) REFERENCES reservations(id) ON DELETE CASCADE
+);
+
 CREATE TABLE IF NOT EXISTS reviews(
 	id INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
 	house_id INT NOT NULL,
@@ -79,4 +119,150 @@ CREATE TABLE IF NOT EXISTS favorites(
 	UNIQUE (house_id, user_id),
 	FOREIGN KEY (house_id) REFERENCES houses (id),
 	FOREIGN KEY (user_id) REFERENCES users (id)
-);
\ No newline at end of file
+);
+
+CREATE TABLE IF NOT EXISTS house_review_stats(
+	house_id INT NOT NULL PRIMARY KEY,
+	review_count INT NOT NULL DEFAULT 0,
+	rating_sum INT NOT NULL DEFAULT 0,
+	star1_count INT NOT NULL DEFAULT 0,
+	star2_count INT NOT NULL DEFAULT 0,
+	star3_count INT NOT NULL DEFAULT 0,
+	star4_count INT NOT NULL DEFAULT 0,
+	star5_count INT NOT NULL DEFAULT 0,
+	-- 評価順のキー(HouseOrder.ratingKey()と同じ値)。集計を更新するたびにMySQLが計算し直す
+	rating_key BIGINT AS (IF(review_count = 0, 0, rating_sum * 1000000 DIV review_count)) STORED NOT NULL,
+	updated_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+	FOREIGN KEY (house_id) REFERENCES houses (id) ON DELETE CASCADE,
+	INDEX idx_house_review_stats_rating_key_house_id (rating_key DESC, house_id)
+);
+
+CREATE TABLE IF NOT EXISTS house_price_rules(
+	id INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+	house_id INT NOT NULL,
+	start_date DATE,
+	end_date DATE,
+	days_of_week INT NOT NULL DEFAULT 0,
+	price INT NOT NULL,
+	created_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+	updated_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+	FOREIGN KEY (house_id) REFERENCES houses (id) ON DELETE CASCADE
+);
+
+CREATE TABLE IF NOT EXISTS stripe_webhook_events(
+	id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+	event_id VARCHAR(255) NOT NULL UNIQUE,
+	event_type VARCHAR(255) NOT NULL,
+	payload MEDIUMTEXT NOT NULL,
+	status VARCHAR(20) NOT NULL,
+	attempts INT NOT NULL DEFAULT 0,
+	next_attempt_at DATETIME NOT NULL,
+	last_error VARCHAR(1000),
+	received_at DATETIME NOT NULL,
+	processed_at DATETIME,
+	INDEX idx_stripe_webhook_events_status_next_attempt_at (status, next_attempt_at)
+);
+
+CREATE TABLE IF NOT EXISTS mail_outbox(
+	id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+	sender VARCHAR(255) NOT NULL,
+	recipient VARCHAR(255) NOT NULL,
+	subject VARCHAR(255) NOT NULL,
+	body TEXT NOT NULL,
+	status VARCHAR(20) NOT NULL,
+	attempts INT NOT NULL DEFAULT 0,
+	next_attempt_at DATETIME NOT NULL,
+	last_error VARCHAR(1000),
+	created_at DATETIME NOT NULL,
+	sent_at DATETIME,
+	INDEX idx_mail_outbox_status_next_attempt_at (status, next_attempt_at)
+);
+
+-- 既存のデータベースへの列・インデックスの追加
+-- CREATE TABLE IF NOT EXISTSは作成済みのテーブルを変更しないため、起動のたびにinformation_schemaで確かめて足りないものだけを追加する
+-- (MySQLのALTER TABLEにはIF NOT EXISTSがないため、実行する文を組み立ててPREPAREで実行する。追加済みの場合はDO 0で何もしない)
+
+-- housesの並び順(新着順・料金順)とキーセットページネーション用のインデックス
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = 'houses' AND index_name = 'idx_houses_created_at_id') = 0,
+	'ALTER TABLE houses ADD INDEX idx_houses_created_at_id (created_at DESC, id)', 'DO 0');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = 'houses' AND index_name = 'idx_houses_price_id') = 0,
+	'ALTER TABLE houses ADD INDEX idx_houses_price_id (price, id)', 'DO 0');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+-- 縮小画像を作り終えたかどうか(既存の民宿はFALSEで追加し、起動時に縮小画像を作る)
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = DATABASE() AND table_name = 'houses' AND column_name = 'image_variants_ready') = 0,
+	'ALTER TABLE houses ADD COLUMN image_variants_ready BOOLEAN NOT NULL DEFAULT FALSE AFTER image_name', 'DO 0');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+-- Stripeの決済(Checkoutセッション)ID。同じセッションの予約を二重に登録しないよう一意にする(既存の予約はNULL)
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = DATABASE() AND table_name = 'reservations' AND column_name = 'stripe_session_id') = 0,
+	'ALTER TABLE reservations ADD COLUMN stripe_session_id VARCHAR(255) UNIQUE AFTER amount', 'DO 0');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+-- 予約した時点の民宿名・画像・料金(既存の予約はNULLのままで、予約一覧では現在の民宿の値を表示する)と、予約一覧用のインデックス
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = DATABASE() AND table_name = 'reservations' AND column_name = 'house_name') = 0,
+	'ALTER TABLE reservations ADD COLUMN house_name VARCHAR(50) AFTER stripe_session_id, ADD COLUMN house_image_name VARCHAR(255) AFTER house_name, ADD COLUMN house_price INT AFTER house_image_name', 'DO 0');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = 'reservations' AND index_name = 'idx_reservations_user_id_created_at') = 0,
+	'ALTER TABLE reservations ADD INDEX idx_reservations_user_id_created_at (user_id, created_at)', 'DO 0');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+-- アーカイブする予約をチェックアウト日の古い順に探すためのインデックス
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = 'reservations' AND index_name = 'idx_reservations_checkout_date') = 0,
+	'ALTER TABLE reservations ADD INDEX idx_reservations_checkout_date (checkout_date)', 'DO 0');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+-- メール認証のトークンを、トークンそのもの(token列)からSHA-256のハッシュと有効期限で持つ形に移す(token列が残っている場合だけ)
+-- 送信済みのトークンはハッシュに置き換えるため、メールのリンクはそのまま使える。有効期限は発行から24時間
+-- (samuraitravel.verification-tokens.expiryの既定値)とし、すでに過ぎているものは次の掃除で認証されなかったユーザーと一緒に削除される
+-- 途中で止まっても、次の起動で残りの手順から続けられる
+SET @legacy_tokens = (SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = DATABASE() AND table_name = 'verification_tokens' AND column_name = 'token');
+
+SET @ddl = IF(@legacy_tokens > 0 AND (SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = DATABASE() AND table_name = 'verification_tokens' AND column_name = 'token_hash') = 0,
+	'ALTER TABLE verification_tokens ADD COLUMN token_hash BINARY(32) AFTER user_id, ADD COLUMN expires_at DATETIME AFTER token_hash', 'DO 0');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+SET @ddl = IF(@legacy_tokens > 0,
+	'UPDATE verification_tokens SET token_hash = UNHEX(SHA2(token, 256)), expires_at = created_at + INTERVAL 24 HOUR WHERE token_hash IS NULL', 'DO 0');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+SET @ddl = IF(@legacy_tokens > 0,
+	'ALTER TABLE verification_tokens DROP COLUMN token, MODIFY token_hash BINARY(32) NOT NULL, MODIFY expires_at DATETIME NOT NULL, ADD UNIQUE INDEX token_hash (token_hash), ADD INDEX idx_verification_tokens_expires_at (expires_at)', 'DO 0');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+-- 民宿一覧の評価順とキーセットページネーション用に、評価順のキーを集計の列として持たせ、インデックスを付ける
+-- (式で並べると、評価順のページを開くたびに全件を読んでソートすることになる)
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = DATABASE() AND table_name = 'house_review_stats' AND column_name = 'rating_key') = 0,
+	'ALTER TABLE house_review_stats ADD COLUMN rating_key BIGINT AS (IF(review_count = 0, 0, rating_sum * 1000000 DIV review_count)) STORED NOT NULL AFTER star5_count', 'DO 0');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = 'house_review_stats' AND index_name = 'idx_house_review_stats_rating_key_house_id') = 0,
+	'ALTER TABLE house_review_stats ADD INDEX idx_house_review_stats_rating_key_house_id (rating_key DESC, house_id)', 'DO 0');
+PREPARE stmt FROM @ddl;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
@@ -1,9 +1,70 @@
-let maxDate = new Date();
-maxDate = maxDate.setMonth(maxDate.getMonth() + 3);
+// 予約を受け付ける期間(HousePricingService.QUOTE_DAYSと合わせる)
+const maxDate = new Date().fp_incr(90);
 
-flatpickr('#fromCheckinDateToCheckoutDate',{
-	mode: "range",
-	locale: 'ja',
-	minDate:'today',
-	maxDate:maxDate
-});
\ No newline at end of file
+const fromCheckinDateToCheckoutDate = document.getElementById('fromCheckinDateToCheckoutDate');
+const stayAmount = document.getElementById('stayAmount');
+
+// 予約フォームはログインしているときの民宿の詳細ページにしかないため、ない場合は何もしない
+if (fromCheckinDateToCheckoutDate) {
+	// 日付(YYYY-MM-DD) → 1泊の料金・選択中のチェックイン日からの宿泊料金
+	let quotes = new Map();
+	
+	const toDateString = date => flatpickr.formatDate(date, 'Y-m-d');
+	
+	const fetchQuotes = checkinDate => {
+		const url = new URL(fromCheckinDateToCheckoutDate.dataset.quotesUrl, location.href);
+		if (checkinDate) {
+			url.searchParams.set('checkin', toDateString(checkinDate));
+		}
+		return fetch(url)
+			.then(response => response.json())
+			.then(stayQuotes => {
+				quotes = new Map(stayQuotes.map(stayQuote => [stayQuote.date, stayQuote]));
+			});
+	};
+	
+	const showStayAmount = selectedDates => {
+		if (!stayAmount) {
+			return;
+		}
+		stayAmount.textContent = '';
+		if (selectedDates.length !== 2) {
+			return;
+		}
+		const stayQuote = quotes.get(toDateString(selectedDates[1]));
+		if (stayQuote && stayQuote.amount !== null) {
+			stayAmount.textContent = '宿泊料金: ' + stayQuote.amount.toLocaleString() + '円';
+		}
+	};
+	
+	const checkinDatePicker = flatpickr(fromCheckinDateToCheckoutDate,{
+		mode: "range",
+		locale: 'ja',
+		minDate:'today',
+		maxDate:maxDate,
+		// 各日の下にその夜の1泊の料金を表示する
+		onDayCreate: (selectedDates, dateStr, instance, dayElement) => {
+			const stayQuote = quotes.get(toDateString(dayElement.dateObj));
+			if (stayQuote) {
+				const price = document.createElement('span');
+				price.className = 'd-block small text-muted lh-1';
+				price.textContent = stayQuote.price.toLocaleString();
+				dayElement.appendChild(price);
+			}
+		},
+		// チェックイン日を選んだら、その日からの宿泊料金を取り直す
+		onChange: (selectedDates, dateStr, instance) => {
+			if (selectedDates.length === 1) {
+				fetchQuotes(selectedDates[0]).then(() => instance.redraw());
+			}
+			showStayAmount(selectedDates);
+		}
+	});
+	
+	// 予約で埋まっている夜をカレンダーで選べなくする
+	fetch(fromCheckinDateToCheckoutDate.dataset.bookedRangesUrl)
+		.then(response => response.json())
+		.then(bookedRanges => checkinDatePicker.set('disable', bookedRanges));
+	
+	fetchQuotes(null).then(() => checkinDatePicker.redraw());
+}
@@ -0,0 +1,38 @@
+// 画像を選択した時点で画像だけを先に送って保存し、フォームの送信時にはファイル名だけを送る
+// 送れなかった場合はフォームと一緒に画像を送る(サーバー側で同じ確認をする)
+const uploadImageInput = document.getElementById('imageFile');
+const uploadedImageNameInput = document.getElementById('uploadedImageName');
+const imageUploadMessage = document.getElementById('imageUploadMessage');
+
+uploadImageInput.addEventListener('change', () => {
+	uploadedImageNameInput.value = '';
+	uploadImageInput.setAttribute('name', 'imageFile');
+	imageUploadMessage.textContent = '';
+	
+	const file = uploadImageInput.files[0];
+	if (!file) {
+		return;
+	}
+	
+	fetch(uploadImageInput.dataset.uploadUrl, {
+		method: 'POST',
+		headers: {
+			'Content-Type': file.type || 'application/octet-stream',
+			[uploadImageInput.dataset.csrfHeader]: uploadImageInput.dataset.csrfToken
+		},
+		body: file
+	})
+		.then(response => response.json().then(result => ({ ok: response.ok, result: result })))
+		.then(({ ok, result }) => {
+			if (!ok) {
+				imageUploadMessage.textContent = result.message;
+				return;
+			}
+			// 保存できたら、フォームの送信時に画像を送らないようにする
+			uploadedImageNameInput.value = result.imageName;
+			uploadImageInput.removeAttribute('name');
+		})
+		.catch(() => {
+			// 通信できなかった場合は、フォームの送信時に画像も一緒に送る
+		});
+});
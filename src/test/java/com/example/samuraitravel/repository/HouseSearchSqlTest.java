@@ -0,0 +1,118 @@
+package com.example.samuraitravel.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDate;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.samuraitravel.dto.HouseSearchCriteria;
+
+// 検索条件の形ごとに組み立てられるSQLを確認する(インデックスの使われ方をレビューするため)
+class HouseSearchSqlTest {
+	private static final String HOUSE_IDS = "h.id IN (SELECT j.id FROM JSON_TABLE(:houseIds, '$[*]' COLUMNS (id INT PATH '$')) j)";
+	private static final String STAY = "NOT EXISTS (SELECT 1 FROM reservation_nights n WHERE n.house_id = h.id AND n.night >= :checkinDate AND n.night < :checkoutDate)";
+	private static final String SELECT = "SELECT " + HouseSearchSql.COLUMNS + " FROM houses h LEFT JOIN house_review_stats s ON s.house_id = h.id";
+	
+	@Test
+	void noFilter() {
+		assertThat(HouseSearchSql.select(0))
+			.isEqualTo(SELECT + " ORDER BY h.created_at DESC, h.id ASC");
+		assertThat(HouseSearchSql.select(HouseSearchSql.PRICE_ASC))
+			.isEqualTo(SELECT + " ORDER BY h.price ASC, h.id ASC");
+		assertThat(HouseSearchSql.count(0))
+			.isEqualTo("SELECT COUNT(*) FROM houses h");
+	}
+	
+	@Test
+	void keywordOrArea() {
+		assertThat(HouseSearchSql.select(HouseSearchSql.HOUSE_IDS))
+			.isEqualTo(SELECT + " WHERE " + HOUSE_IDS + " ORDER BY h.created_at DESC, h.id ASC");
+		assertThat(HouseSearchSql.count(HouseSearchSql.HOUSE_IDS))
+			.isEqualTo("SELECT COUNT(*) FROM houses h WHERE " + HOUSE_IDS);
+	}
+	
+	@Test
+	void houseIdsAreBoundAsOneJsonArray() {
+		// 民宿の数によらず、プレースホルダーは1つ
+		assertThat(HouseSearchSql.toJsonArray(new int[] { 3, 15, 2048 })).isEqualTo("[3,15,2048]");
+		assertThat(HouseSearchSql.toJsonArray(new int[] { 7 })).isEqualTo("[7]");
+		assertThat(HouseSearchSql.toJsonArray(new int[0])).isEqualTo("[]");
+	}
+	
+	@Test
+	void stay() {
+		assertThat(HouseSearchSql.select(HouseSearchSql.STAY | HouseSearchSql.PRICE_ASC))
+			.isEqualTo(SELECT + " WHERE " + STAY + " ORDER BY h.price ASC, h.id ASC");
+		assertThat(HouseSearchSql.count(HouseSearchSql.STAY | HouseSearchSql.AFTER))
+			.isEqualTo("SELECT COUNT(*) FROM houses h WHERE " + STAY);
+	}
+	
+	@Test
+	void maxPrice() {
+		assertThat(HouseSearchSql.select(HouseSearchSql.MAX_PRICE | HouseSearchSql.PRICE_ASC))
+			.isEqualTo(SELECT + " WHERE h.price <= :maxPrice ORDER BY h.price ASC, h.id ASC");
+	}
+	
+	@Test
+	void minCapacity() {
+		assertThat(HouseSearchSql.select(HouseSearchSql.MIN_CAPACITY))
+			.isEqualTo(SELECT + " WHERE h.capacity >= :minCapacity ORDER BY h.created_at DESC, h.id ASC");
+	}
+	
+	@Test
+	void allFilters() {
+		int shape = HouseSearchSql.HOUSE_IDS | HouseSearchSql.MAX_PRICE | HouseSearchSql.MIN_CAPACITY | HouseSearchSql.STAY;
+		assertThat(HouseSearchSql.select(shape))
+			.isEqualTo(SELECT + " WHERE " + HOUSE_IDS + " AND h.price <= :maxPrice AND h.capacity >= :minCapacity AND " + STAY + " ORDER BY h.created_at DESC, h.id ASC");
+		assertThat(HouseSearchSql.count(shape | HouseSearchSql.PRICE_ASC | HouseSearchSql.AFTER))
+			.isEqualTo("SELECT COUNT(*) FROM houses h WHERE " + HOUSE_IDS + " AND h.price <= :maxPrice AND h.capacity >= :minCapacity AND " + STAY);
+	}
+	
+	@Test
+	void afterCursor() {
+		assertThat(HouseSearchSql.select(HouseSearchSql.AFTER))
+			.isEqualTo(SELECT + " WHERE (h.created_at < :afterCreatedAt OR (h.created_at = :afterCreatedAt AND h.id > :afterId)) ORDER BY h.created_at DESC, h.id ASC");
+		assertThat(HouseSearchSql.select(HouseSearchSql.MAX_PRICE | HouseSearchSql.AFTER | HouseSearchSql.PRICE_ASC))
+			.isEqualTo(SELECT + " WHERE h.price <= :maxPrice AND (h.price > :afterPrice OR (h.price = :afterPrice AND h.id > :afterId)) ORDER BY h.price ASC, h.id ASC");
+	}
+	
+	@Test
+	void ratingDesc() {
+		// 評価順はレビュー集計のインデックスから民宿をたどる
+		String select = "SELECT " + HouseSearchSql.COLUMNS + " FROM house_review_stats s STRAIGHT_JOIN houses h ON h.id = s.house_id";
+		assertThat(HouseSearchSql.select(HouseSearchSql.RATING_DESC))
+			.isEqualTo(select + " ORDER BY s.rating_key DESC, s.house_id ASC");
+		assertThat(HouseSearchSql.select(HouseSearchSql.AFTER | HouseSearchSql.RATING_DESC))
+			.isEqualTo(select + " WHERE (s.rating_key < :afterRating OR (s.rating_key = :afterRating AND s.house_id > :afterId)) ORDER BY s.rating_key DESC, s.house_id ASC");
+	}
+	
+	@Test
+	void shapeOfCriteria() {
+		HouseSearchCriteria criteria = new HouseSearchCriteria();
+		assertThat(HouseSearchSql.shapeOf(criteria, false)).isZero();
+		
+		criteria.setHouseIds(new int[] { 1, 2 });
+		criteria.setMaxPrice(8000);
+		criteria.setMinCapacity(3);
+		criteria.setOrder("priceAsc");
+		assertThat(HouseSearchSql.shapeOf(criteria, true)).isEqualTo(
+				HouseSearchSql.HOUSE_IDS | HouseSearchSql.MAX_PRICE | HouseSearchSql.MIN_CAPACITY | HouseSearchSql.AFTER | HouseSearchSql.PRICE_ASC);
+		
+		criteria.setOrder("ratingDesc");
+		assertThat(HouseSearchSql.shapeOf(criteria, false)).isEqualTo(
+				HouseSearchSql.HOUSE_IDS | HouseSearchSql.MAX_PRICE | HouseSearchSql.MIN_CAPACITY | HouseSearchSql.RATING_DESC);
+		
+		// 宿泊日はチェックイン日とチェックアウト日がそろった場合だけ
+		criteria.setCheckinDate(LocalDate.of(2025, 4, 1));
+		assertThat(HouseSearchSql.shapeOf(criteria, false) & HouseSearchSql.STAY).isZero();
+		criteria.setCheckoutDate(LocalDate.of(2025, 4, 3));
+		assertThat(HouseSearchSql.shapeOf(criteria, false) & HouseSearchSql.STAY).isEqualTo(HouseSearchSql.STAY);
+	}
+	
+	@Test
+	void sameShapeReturnsCachedStatement() {
+		int shape = HouseSearchSql.HOUSE_IDS | HouseSearchSql.MAX_PRICE;
+		assertThat(HouseSearchSql.select(shape)).isSameAs(HouseSearchSql.select(shape));
+	}
+}
@@ -0,0 +1,126 @@
+package com.example.samuraitravel.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.example.samuraitravel.dto.BookedRange;
+import com.example.samuraitravel.entity.House;
+import com.example.samuraitravel.repository.HouseRepository;
+import com.example.samuraitravel.repository.ReservationRepository;
+
+// 他のサーバーで登録された予約や、索引を作り直している間にコミットされた予約が、差分の更新で空室インデックスに入ることを確認する
+class HouseAvailabilityServiceTest {
+	private static final Duration REFRESH_WINDOW = Duration.ofMinutes(5);
+	
+	private final LocalDate today = LocalDate.now();
+	// reservationsテーブルの代わり。[予約ID, 民宿ID, チェックイン日, チェックアウト日]
+	private final List<Object[]> stays = new ArrayList<>();
+	private ReservationRepository reservationRepository;
+	private HouseAvailabilityService houseAvailabilityService;
+	
+	@BeforeEach
+	void setUp() {
+		HouseRepository houseRepository = mock(HouseRepository.class);
+		when(houseRepository.findAll()).thenReturn(List.of(house(1), house(2)));
+		
+		reservationRepository = mock(ReservationRepository.class);
+		when(reservationRepository.findStaysEndingAfter(any(LocalDate.class))).thenAnswer(invocation -> staysAfter(0, invocation.getArgument(0)));
+		when(reservationRepository.findStaysAddedAfter(anyInt(), any(LocalDate.class))).thenAnswer(invocation -> staysAfter(invocation.getArgument(0), invocation.getArgument(1)));
+		
+		houseAvailabilityService = new HouseAvailabilityService(houseRepository, reservationRepository, REFRESH_WINDOW);
+	}
+	
+	@Test
+	void refreshAddsStaysBookedOnOtherServers() {
+		houseAvailabilityService.rebuild();
+		stay(1, 1, today.plusDays(3), today.plusDays(5));
+		assertThat(houseAvailabilityService.isAvailable(1, today.plusDays(4), today.plusDays(6))).isTrue();
+		
+		houseAvailabilityService.refresh();
+		
+		assertThat(houseAvailabilityService.isAvailable(1, today.plusDays(4), today.plusDays(6))).isFalse();
+		assertThat(houseAvailabilityService.isAvailable(1, today.plusDays(5), today.plusDays(6))).isTrue();
+		assertThat(houseAvailabilityService.isAvailable(2, today.plusDays(3), today.plusDays(5))).isTrue();
+		assertThat(houseAvailabilityService.findBookedRanges(1)).containsExactly(new BookedRange(today.plusDays(3), today.plusDays(4)));
+	}
+	
+	@Test
+	void stayCommittedDuringRebuildIsAddedByNextRefresh() {
+		stay(1, 1, today.plusDays(1), today.plusDays(2));
+		// 予約を読み込んだ後、索引を置き換える前に、2件目の予約がコミットされる
+		when(reservationRepository.findStaysEndingAfter(any(LocalDate.class))).thenAnswer(invocation -> {
+			List<Object[]> snapshot = staysAfter(0, invocation.getArgument(0));
+			stay(2, 2, today.plusDays(1), today.plusDays(2));
+			return snapshot;
+		});
+		houseAvailabilityService.rebuild();
+		assertThat(houseAvailabilityService.isAvailable(2, today.plusDays(1), today.plusDays(2))).isTrue();
+		
+		houseAvailabilityService.refresh();
+		
+		assertThat(houseAvailabilityService.isAvailable(1, today.plusDays(1), today.plusDays(2))).isFalse();
+		assertThat(houseAvailabilityService.isAvailable(2, today.plusDays(1), today.plusDays(2))).isFalse();
+	}
+	
+	@Test
+	void refreshRereadsStaysRegisteredWithinWindow() {
+		// refreshWindowより前に登録された最後の予約(ID 41)の後から読む。それより前の予約はすでに索引に入っている
+		when(reservationRepository.findLastIdCreatedBefore(anyLong())).thenReturn(41);
+		stay(41, 1, today.plusDays(1), today.plusDays(2));
+		stay(43, 1, today.plusDays(2), today.plusDays(3));
+		houseAvailabilityService.rebuild();
+		// 42はIDを43より先に振られたが、後からコミットされた
+		stay(42, 2, today.plusDays(1), today.plusDays(2));
+		
+		houseAvailabilityService.refresh();
+		
+		verify(reservationRepository).findStaysAddedAfter(41, today);
+		assertThat(houseAvailabilityService.isAvailable(2, today.plusDays(1), today.plusDays(2))).isFalse();
+		assertThat(houseAvailabilityService.findBookedRanges(1)).containsExactly(new BookedRange(today.plusDays(1), today.plusDays(2)));
+		
+		// 古い予約がなければ最初から読む
+		when(reservationRepository.findLastIdCreatedBefore(anyLong())).thenReturn(null);
+		houseAvailabilityService.refresh();
+		verify(reservationRepository).findStaysAddedAfter(0, today);
+	}
+	
+	// 予約の登録と同じく、reservation_nightsに1泊ずつ記録されているかどうかで判断する
+	@Test
+	void databaseCheckCountsBookedNights() {
+		when(reservationRepository.countBookedNights(1, today.plusDays(1), today.plusDays(3))).thenReturn(1L);
+		
+		assertThat(houseAvailabilityService.isAvailableInDatabase(1, today.plusDays(1), today.plusDays(3))).isFalse();
+		assertThat(houseAvailabilityService.isAvailableInDatabase(2, today.plusDays(1), today.plusDays(3))).isTrue();
+	}
+	
+	private List<Object[]> staysAfter(int afterId, LocalDate date) {
+		return stays.stream()
+			.filter(stay -> (Integer) stay[0] > afterId && ((LocalDate) stay[3]).isAfter(date))
+			.map(stay -> new Object[] { stay[1], stay[2], stay[3] })
+			.toList();
+	}
+	
+	private void stay(int id, int houseId, LocalDate checkinDate, LocalDate checkoutDate) {
+		stays.add(new Object[] { id, houseId, checkinDate, checkoutDate });
+	}
+	
+	private static House house(int id) {
+		House house = new House();
+		house.setId(id);
+		house.setCapacity(4);
+		return house;
+	}
+}
@@ -0,0 +1,110 @@
+package com.example.samuraitravel.service;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.samuraitravel.entity.House;
+import com.example.samuraitravel.entity.Reservation;
+import com.example.samuraitravel.entity.User;
+import com.example.samuraitravel.repository.HouseRepository;
+import com.example.samuraitravel.repository.ReservationRepository;
+import com.example.samuraitravel.repository.UserRepository;
+
+// ReservationServiceを、reservationsとreservation_nightsの代わりのInMemoryTableの上で動かすテスト用の部品
+// newServerで作ったReservationServiceはサーバーごとに別々の空室インデックスを持ち、テーブルは共有する
+class InMemoryReservations {
+	final InMemoryTable<Integer, Reservation> reservations = new InMemoryTable<>("PRIMARY");
+	// キーは「民宿ID:夜」
+	final InMemoryTable<String, Integer> reservationNights = new InMemoryTable<>("PRIMARY");
+	
+	private final AtomicInteger sessionIds = new AtomicInteger();
+	private final ReservationRepository reservationRepository;
+	private final HouseRepository houseRepository;
+	private final UserRepository userRepository;
+	private final TransactionTemplate transactionTemplate = InMemoryTransactionManager.transactionTemplate();
+	// 予約のINSERTの中で実行する処理(INSERTにかかる時間の代わりなど)
+	private volatile InsertHook insertHook = () -> {};
+	
+	InMemoryReservations(int houseCount) {
+		// 呼び出しを記録しないモックにして、モック自体がスレッドを直列にしないようにする
+		reservationRepository = mock(ReservationRepository.class, withSettings().stubOnly());
+		when(reservationRepository.existsByStripeSessionId(anyString())).thenReturn(false);
+		when(reservationRepository.findStaysEndingAfter(any())).thenReturn(List.of());
+		when(reservationRepository.save(any(Reservation.class))).thenAnswer(invocation -> {
+			insertHook.run();
+			Reservation reservation = invocation.getArgument(0);
+			reservation.setId((int) reservations.nextId());
+			return reservations.insert(reservation.getId(), reservation);
+		});
+		when(reservationRepository.insertNight(anyInt(), any(LocalDate.class), anyInt())).thenAnswer(invocation -> {
+			reservationNights.insert(invocation.getArgument(0) + ":" + invocation.getArgument(1), invocation.getArgument(2));
+			return 1;
+		});
+		
+		List<House> houses = new ArrayList<>();
+		for (int id = 1; id <= houseCount; id++) {
+			houses.add(house(id));
+		}
+		houseRepository = mock(HouseRepository.class, withSettings().stubOnly());
+		when(houseRepository.findAll()).thenReturn(houses);
+		when(houseRepository.getReferenceById(anyInt())).thenAnswer(invocation -> house(invocation.getArgument(0)));
+		
+		userRepository = mock(UserRepository.class, withSettings().stubOnly());
+		when(userRepository.getReferenceById(anyInt())).thenReturn(new User());
+	}
+	
+	void onInsert(InsertHook insertHook) {
+		this.insertHook = insertHook;
+	}
+	
+	// 1台のサーバーの代わりに、空室インデックスを作ったReservationServiceを返す
+	ReservationService newServer() {
+		HouseAvailabilityService houseAvailabilityService = new HouseAvailabilityService(houseRepository, reservationRepository, Duration.ofMinutes(5));
+		houseAvailabilityService.rebuild();
+		return new ReservationService(reservationRepository, houseRepository, userRepository, houseAvailabilityService, transactionTemplate);
+	}
+	
+	// 予約を登録し、登録できた場合はtrue、他の予約と重なっていた場合はfalseを返す
+	boolean book(ReservationService server, int houseId, LocalDate checkinDate, LocalDate checkoutDate) {
+		try {
+			return server.create(metadata(houseId, checkinDate, checkoutDate), "cs_test_" + sessionIds.incrementAndGet());
+		} catch (ReservationConflictException e) {
+			return false;
+		}
+	}
+	
+	private static Map<String, String> metadata(int houseId, LocalDate checkinDate, LocalDate checkoutDate) {
+		return Map.of(
+				"houseId", String.valueOf(houseId),
+				"userId", "1",
+				"checkinDate", checkinDate.toString(),
+				"checkoutDate", checkoutDate.toString(),
+				"numberOfPeople", "2",
+				"amount", "6000");
+	}
+	
+	private static House house(int id) {
+		House house = new House();
+		house.setId(id);
+		house.setCapacity(6);
+		return house;
+	}
+	
+	@FunctionalInterface
+	interface InsertHook {
+		void run() throws Exception;
+	}
+}
@@ -0,0 +1,73 @@
+package com.example.samuraitravel.service;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.dao.DataIntegrityViolationException;
+
+// テストでリポジトリのモックの裏に置く、テーブルの代わり
+// キー(主キーまたは一意キー)ごとに行を持ち、IDの採番と一意制約の違反を再現する
+// InMemoryTransactionManagerのトランザクションの中で加えた変更は、ロールバックすると取り消される
+class InMemoryTable<K, V> {
+	private final Map<K, V> rows = new ConcurrentHashMap<>();
+	private final AtomicLong sequence = new AtomicLong();
+	// 一意制約の違反のメッセージに使うキーの名前
+	private final String keyName;
+	
+	InMemoryTable(String keyName) {
+		this.keyName = keyName;
+	}
+	
+	// AUTO_INCREMENTの代わりに、次のIDを発行する
+	long nextId() {
+		return sequence.incrementAndGet();
+	}
+	
+	// 行を追加する。同じキーの行がすでにある場合は、データベースと同じくDataIntegrityViolationExceptionを投げる
+	V insert(K key, V row) {
+		if (rows.putIfAbsent(key, row) != null) {
+			throw new DataIntegrityViolationException("Duplicate entry '" + key + "' for key '" + keyName + "'");
+		}
+		InMemoryTransactionManager.onRollback(() -> rows.remove(key, row));
+		return row;
+	}
+	
+	// 行を追加または置き換える(JPAのsaveの代わり)
+	V save(K key, V row) {
+		V previous = rows.put(key, row);
+		InMemoryTransactionManager.onRollback(() -> {
+			if (previous == null) {
+				rows.remove(key, row);
+			} else {
+				rows.replace(key, row, previous);
+			}
+		});
+		return row;
+	}
+	
+	// 行を削除し、削除した行数を返す
+	int delete(K key) {
+		V removed = rows.remove(key);
+		if (removed == null) {
+			return 0;
+		}
+		InMemoryTransactionManager.onRollback(() -> rows.putIfAbsent(key, removed));
+		return 1;
+	}
+	
+	V get(K key) {
+		return rows.get(key);
+	}
+	
+	Collection<V> values() {
+		return Collections.unmodifiableCollection(rows.values());
+	}
+	
+	// AssertJで中身を確かめるための、読み取り専用のビュー
+	Map<K, V> rows() {
+		return Collections.unmodifiableMap(rows);
+	}
+}
@@ -0,0 +1,50 @@
+package com.example.samuraitravel.service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+// テスト用のトランザクションマネージャー。トランザクションの中でInMemoryTableに加えた変更を、ロールバックしたときに逆順に取り消す
+// 取り消しはスレッドごとに記録するため、複数のスレッドから並行してトランザクションを実行できる
+// (コミット後の処理(TransactionCallbacks.afterCommit)も本物と同じくコミットしてから実行される)
+class InMemoryTransactionManager extends AbstractPlatformTransactionManager {
+	private static final ThreadLocal<Deque<Runnable>> undoLog = new ThreadLocal<>();
+	
+	// トランザクションの外で呼ばれた場合は、すぐに確定したものとして何もしない
+	static void onRollback(Runnable undo) {
+		Deque<Runnable> undos = undoLog.get();
+		if (undos != null) {
+			undos.push(undo);
+		}
+	}
+	
+	static TransactionTemplate transactionTemplate() {
+		return new TransactionTemplate(new InMemoryTransactionManager());
+	}
+	
+	@Override
+	protected Object doGetTransaction() {
+		return new Object();
+	}
+	
+	@Override
+	protected void doBegin(Object transaction, TransactionDefinition definition) {
+		undoLog.set(new ArrayDeque<>());
+	}
+	
+	@Override
+	protected void doCommit(DefaultTransactionStatus status) {
+		undoLog.remove();
+	}
+	
+	@Override
+	protected void doRollback(DefaultTransactionStatus status) {
+		Deque<Runnable> undos = undoLog.get();
+		undoLog.remove();
+		undos.forEach(Runnable::run);
+	}
+}
@@ -0,0 +1,342 @@
+package com.example.samuraitravel.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Limit;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import com.example.samuraitravel.entity.MailOutboxMessage;
+import com.example.samuraitravel.repository.MailOutboxMessageRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// ローカルのSMTPサーバーの代わりに送らせて、MailOutboxのまとめ送り・再試行・再起動後の送信を確認する
+class MailOutboxTest {
+	private static final String SENDER = "springboot.samuraitravel@example.com";
+	
+	// mail_outboxテーブルの代わり
+	private final InMemoryTable<Long, MailOutboxMessage> table = new InMemoryTable<>("PRIMARY");
+	private MailOutboxMessageRepository repository;
+	
+	private SmtpStandIn smtp;
+	private SimpleMeterRegistry meterRegistry;
+	private MailOutbox mailOutbox;
+	
+	@BeforeEach
+	void setUp() throws IOException {
+		repository = mock(MailOutboxMessageRepository.class);
+		when(repository.save(any(MailOutboxMessage.class))).thenAnswer(invocation -> {
+			MailOutboxMessage message = invocation.getArgument(0);
+			if (message.getId() == null) {
+				message.setId(table.nextId());
+			}
+			return table.save(message.getId(), message);
+		});
+		when(repository.saveAll(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+		when(repository.findAllById(anyList())).thenAnswer(invocation -> {
+			List<Long> ids = invocation.getArgument(0);
+			return ids.stream().map(table::get).toList();
+		});
+		when(repository.claim(anyLong(), any(LocalDateTime.class), any(LocalDateTime.class))).thenAnswer(invocation -> {
+			MailOutboxMessage message = table.get(invocation.getArgument(0));
+			LocalDateTime now = invocation.getArgument(1);
+			synchronized (message) {
+				if (!message.getStatus().equals(MailOutboxMessage.STATUS_PENDING) || message.getNextAttemptAt().isAfter(now)) {
+					return 0;
+				}
+				message.setAttempts(message.getAttempts() + 1);
+				message.setNextAttemptAt(invocation.getArgument(2));
+				return 1;
+			}
+		});
+		when(repository.findDueIds(any(LocalDateTime.class), any(Limit.class))).thenAnswer(invocation -> {
+			LocalDateTime now = invocation.getArgument(0);
+			return table.values().stream()
+				.filter(message -> message.getStatus().equals(MailOutboxMessage.STATUS_PENDING) && !message.getNextAttemptAt().isAfter(now))
+				.sorted(Comparator.comparing(MailOutboxMessage::getId))
+				.map(MailOutboxMessage::getId)
+				.toList();
+		});
+		when(repository.deleteFinishedBefore(any(LocalDateTime.class), anyInt())).thenAnswer(invocation -> {
+			LocalDateTime before = invocation.getArgument(0);
+			int limit = invocation.getArgument(1);
+			List<Long> ids = table.values().stream()
+				.filter(message -> !message.getStatus().equals(MailOutboxMessage.STATUS_PENDING) && message.getCreatedAt().isBefore(before))
+				.map(MailOutboxMessage::getId)
+				.sorted()
+				.limit(limit)
+				.toList();
+			ids.forEach(table::delete);
+			return ids.size();
+		});
+		when(repository.findPendingBacklog()).thenAnswer(invocation -> {
+			long count = table.values().stream().filter(message -> message.getStatus().equals(MailOutboxMessage.STATUS_PENDING)).count();
+			return List.<Object[]>of(new Object[] { count, null });
+		});
+		
+		smtp = new SmtpStandIn();
+		meterRegistry = new SimpleMeterRegistry();
+		mailOutbox = newMailOutbox();
+	}
+	
+	@AfterEach
+	void tearDown() throws IOException {
+		mailOutbox.shutdown();
+		smtp.close();
+	}
+	
+	@Test
+	void queuedMessagesAreSentInFewSessions() throws Exception {
+		// ワーカーを動かす前にためておき、まとめて送られることを確かめる
+		for (int i = 0; i < 20; i++) {
+			mailOutbox.enqueue(SENDER, "user" + i + "@example.com", "メール認証", "本文" + i);
+		}
+		mailOutbox.start();
+		
+		await(() -> smtp.recipients.size() == 20);
+		await(() -> table.values().stream().allMatch(message -> message.getStatus().equals(MailOutboxMessage.STATUS_SENT)));
+		assertThat(smtp.sessions.get()).isLessThan(20);
+		assertThat(meterRegistry.get("samuraitravel.mail_outbox.sent").counter().count()).isEqualTo(20);
+	}
+	
+	@Test
+	void failedMessageIsRetriedAfterBackoff() {
+		smtp.rejectData = true;
+		mailOutbox.enqueue(SENDER, "user@example.com", "メール認証", "本文");
+		MailOutboxMessage message = table.get(1L);
+		
+		mailOutbox.deliver(List.of(1L));
+		
+		assertThat(message.getStatus()).isEqualTo(MailOutboxMessage.STATUS_PENDING);
+		assertThat(message.getAttempts()).isEqualTo(1);
+		assertThat(message.getLastError()).isNotNull();
+		assertThat(message.getNextAttemptAt()).isAfter(LocalDateTime.now().plusSeconds(20));
+		
+		// 再試行の時刻になる前は送らない
+		mailOutbox.deliver(List.of(1L));
+		assertThat(message.getAttempts()).isEqualTo(1);
+		
+		smtp.rejectData = false;
+		message.setNextAttemptAt(LocalDateTime.now());
+		mailOutbox.deliver(List.of(1L));
+		
+		assertThat(message.getStatus()).isEqualTo(MailOutboxMessage.STATUS_SENT);
+		assertThat(message.getAttempts()).isEqualTo(2);
+		assertThat(smtp.recipients).containsExactly("user@example.com");
+	}
+	
+	@Test
+	void onlyRejectedRecipientsInBatchAreRetried() {
+		mailOutbox.enqueue(SENDER, "a@example.com", "メール認証", "本文");
+		mailOutbox.enqueue(SENDER, "bounce@example.com", "メール認証", "本文");
+		mailOutbox.enqueue(SENDER, "c@example.com", "メール認証", "本文");
+		
+		mailOutbox.deliver(List.of(1L, 2L, 3L));
+		
+		assertThat(smtp.sessions.get()).isEqualTo(1);
+		assertThat(smtp.recipients).containsExactlyInAnyOrder("a@example.com", "c@example.com");
+		assertThat(table.get(1L).getStatus()).isEqualTo(MailOutboxMessage.STATUS_SENT);
+		assertThat(table.get(2L).getStatus()).isEqualTo(MailOutboxMessage.STATUS_PENDING);
+		assertThat(table.get(3L).getStatus()).isEqualTo(MailOutboxMessage.STATUS_SENT);
+	}
+	
+	@Test
+	void sentMessageBodyIsNotKept() {
+		mailOutbox.enqueue(SENDER, "a@example.com", "メール認証", "http://localhost:8080/signup/verify?token=secret");
+		mailOutbox.enqueue(SENDER, "bounce@example.com", "メール認証", "http://localhost:8080/signup/verify?token=retry");
+		
+		mailOutbox.deliver(List.of(1L, 2L));
+		
+		assertThat(table.get(1L).getBody()).isEmpty();
+		// 再試行するメールは本文を残す
+		assertThat(table.get(2L).getBody()).contains("token=retry");
+	}
+	
+	@Test
+	void sweepRemovesOnlyFinishedMessagesPastRetention() {
+		LocalDateTime now = LocalDateTime.now();
+		// 1～1200: 保存期間を過ぎた送信済み、1201: 保存期間を過ぎた失敗、1202: 保存期間内の送信済み、1203: 古い送信待ち
+		for (int i = 0; i < 1200; i++) {
+			saveMessage(MailOutboxMessage.STATUS_SENT, now.minusDays(8));
+		}
+		saveMessage(MailOutboxMessage.STATUS_FAILED, now.minusDays(8));
+		saveMessage(MailOutboxMessage.STATUS_SENT, now.minusDays(1));
+		saveMessage(MailOutboxMessage.STATUS_PENDING, now.minusDays(8));
+		
+		assertThat(mailOutbox.sweepCreatedBefore(now.minusDays(7))).isEqualTo(1201);
+		
+		assertThat(table.values()).extracting(MailOutboxMessage::getId).containsExactlyInAnyOrder(1202L, 1203L);
+		assertThat(meterRegistry.get("samuraitravel.mail_outbox.removed").counter().count()).isEqualTo(1201);
+	}
+	
+	@Test
+	void pendingMessagesLeftBeforeRestartAreSent() throws Exception {
+		// 前回の停止時に送れずに残っていたメール
+		MailOutboxMessage message = new MailOutboxMessage();
+		message.setSender(SENDER);
+		message.setRecipient("user@example.com");
+		message.setSubject("メール認証");
+		message.setBody("本文");
+		message.setStatus(MailOutboxMessage.STATUS_PENDING);
+		message.setNextAttemptAt(LocalDateTime.now().minusMinutes(1));
+		message.setCreatedAt(LocalDateTime.now().minusMinutes(1));
+		repository.save(message);
+		
+		mailOutbox.start();
+		
+		await(() -> message.getStatus().equals(MailOutboxMessage.STATUS_SENT));
+		assertThat(smtp.recipients).containsExactly("user@example.com");
+	}
+	
+	private void saveMessage(String status, LocalDateTime createdAt) {
+		MailOutboxMessage message = new MailOutboxMessage();
+		message.setSender(SENDER);
+		message.setRecipient("user@example.com");
+		message.setSubject("メール認証");
+		message.setBody("");
+		message.setStatus(status);
+		message.setNextAttemptAt(createdAt);
+		message.setCreatedAt(createdAt);
+		repository.save(message);
+	}
+	
+	private MailOutbox newMailOutbox() {
+		JavaMailSenderImpl javaMailSender = new JavaMailSenderImpl();
+		javaMailSender.setHost("127.0.0.1");
+		javaMailSender.setPort(smtp.getPort());
+		Properties properties = new Properties();
+		properties.setProperty("mail.smtp.connectiontimeout", "2000");
+		properties.setProperty("mail.smtp.timeout", "2000");
+		javaMailSender.setJavaMailProperties(properties);
+		return new MailOutbox(repository, javaMailSender, Duration.ofDays(7), meterRegistry);
+	}
+	
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+		while (!condition.getAsBoolean()) {
+			assertThat(System.nanoTime()).as("10秒以内に条件を満たすこと").isLessThan(deadline);
+			Thread.sleep(20);
+		}
+	}
+	
+	// 必要なコマンドだけに応答するSMTPサーバー。受け取ったメールの宛先と、つながったセッションの数を記録する
+	// 宛先にbounceを含むメールはRCPTで、rejectDataがtrueの間はすべてのメールをDATAの後で断る
+	private static class SmtpStandIn implements AutoCloseable {
+		private final ServerSocket serverSocket;
+		private final AtomicInteger sessions = new AtomicInteger();
+		private final Queue<String> recipients = new ConcurrentLinkedQueue<>();
+		private volatile boolean rejectData;
+		
+		private SmtpStandIn() throws IOException {
+			serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+			Thread acceptor = new Thread(this::accept, "smtp-stand-in");
+			acceptor.setDaemon(true);
+			acceptor.start();
+		}
+		
+		private int getPort() {
+			return serverSocket.getLocalPort();
+		}
+		
+		private void accept() {
+			while (!serverSocket.isClosed()) {
+				try {
+					Socket socket = serverSocket.accept();
+					Thread session = new Thread(() -> serve(socket), "smtp-stand-in-session");
+					session.setDaemon(true);
+					session.start();
+				} catch (SocketException e) {
+					return;
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		
+		private void serve(Socket socket) {
+			sessions.incrementAndGet();
+			try (socket;
+					BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+					PrintWriter writer = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.US_ASCII)) {
+				reply(writer, "220 localhost ESMTP stand-in");
+				List<String> messageRecipients = new ArrayList<>();
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String command = line.toUpperCase();
+					if (command.startsWith("EHLO") || command.startsWith("HELO")) {
+						reply(writer, "250 localhost");
+					} else if (command.startsWith("MAIL FROM")) {
+						messageRecipients.clear();
+						reply(writer, "250 OK");
+					} else if (command.startsWith("RCPT TO")) {
+						String recipient = line.substring(line.indexOf('<') + 1, line.indexOf('>'));
+						if (recipient.contains("bounce")) {
+							reply(writer, "550 5.1.1 No such user");
+						} else {
+							messageRecipients.add(recipient);
+							reply(writer, "250 OK");
+						}
+					} else if (command.equals("DATA")) {
+						reply(writer, "354 End data with <CR><LF>.<CR><LF>");
+						while ((line = reader.readLine()) != null && !line.equals(".")) {
+							// 本文は読み捨てる
+						}
+						if (rejectData) {
+							reply(writer, "451 4.3.0 Try again later");
+						} else {
+							recipients.addAll(messageRecipients);
+							reply(writer, "250 OK");
+						}
+					} else if (command.equals("QUIT")) {
+						reply(writer, "221 Bye");
+						return;
+					} else {
+						// RSET・NOOPなど
+						reply(writer, "250 OK");
+					}
+				}
+			} catch (IOException e) {
+				// クライアントが先に切断した
+			}
+		}
+		
+		private static void reply(PrintWriter writer, String line) {
+			writer.print(line + "\r\n");
+			writer.flush();
+		}
+		
+		@Override
+		public void close() throws IOException {
+			serverSocket.close();
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package com.example.samuraitravel.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import com.example.samuraitravel.repository.ReservationRepository;
+
+// 予約1,000万件のMySQLで、予約一覧の応答時間をアーカイブの前後で比べ、アーカイブにかかる時間を測る
+// benchmark/reservations-10m.sqlで予約を作り直すため、名前が_benchmarkで終わる専用のデータベースでだけ実行する
+// 実行する場合: ./mvnw test -Dtest=ReservationArchiveBenchmarkTest -Dsamuraitravel.benchmark=true
+//     -Dspring.datasource.url=jdbc:mysql://localhost:3306/samuraitravel_benchmark -Dspring.datasource.username=... -Dspring.datasource.password=...
+@SpringBootTest
+@EnabledIfSystemProperty(named = "samuraitravel.benchmark", matches = "true")
+class ReservationArchiveBenchmarkTest {
+	private static final long RESERVATIONS = 10_000_000;
+	// reservations-10m.sqlで、1001は1万件、1002は100件の予約を持つ
+	private static final int[] USER_IDS = { 1001, 1002 };
+	private static final int PAGE_SIZE = 10;
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int MEASURED_ROUNDS = 50;
+	
+	@Autowired
+	private DataSource dataSource;
+	
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	
+	@Autowired
+	private ReservationRepository reservationRepository;
+	
+	@Autowired
+	private ReservationArchiveService reservationArchiveService;
+	
+	@Value("${samuraitravel.reservations.archive-after-days}")
+	private int archiveAfterDays;
+	
+	@Test
+	void historyBeforeAndAfterArchiving() {
+		assertThat(jdbcTemplate.queryForObject("SELECT DATABASE()", String.class)).as("接続先のデータベース").endsWith("_benchmark");
+		
+		long startedAt = System.nanoTime();
+		ResourceDatabasePopulator populator = new ResourceDatabasePopulator(new ClassPathResource("benchmark/reservations-10m.sql"));
+		populator.setSqlScriptEncoding("UTF-8");
+		populator.execute(dataSource);
+		assertThat(count("reservations")).isEqualTo(RESERVATIONS);
+		System.out.printf("予約の作成: %d件, %d秒%n", RESERVATIONS, (System.nanoTime() - startedAt) / 1_000_000_000);
+		
+		Map<Integer, Long> totalsBefore = measureHistory("アーカイブ前");
+		
+		startedAt = System.nanoTime();
+		int archived = reservationArchiveService.archiveCheckedOutBefore(LocalDate.now().minusDays(archiveAfterDays));
+		double archiveSeconds = (System.nanoTime() - startedAt) / 1_000_000_000.0;
+		System.out.printf("アーカイブ: %d件, %.0f秒 (%.0f件/秒), reservationsの残り: %d件%n",
+				archived, archiveSeconds, archived / archiveSeconds, count("reservations"));
+		assertThat(count("reservations_archive")).isEqualTo(archived);
+		assertThat(count("reservations") + archived).isEqualTo(RESERVATIONS);
+		
+		// アーカイブの後も、ユーザーごとの予約の件数は変わらない
+		assertThat(measureHistory("アーカイブ後")).isEqualTo(totalsBefore);
+	}
+	
+	// ユーザーごとに、予約一覧の1ページ目と最後のページ(アーカイブ後はreservations_archiveから読む)の応答時間を表示し、予約の件数を返す
+	private Map<Integer, Long> measureHistory(String label) {
+		Map<Integer, Long> totals = new HashMap<>();
+		for (int userId : USER_IDS) {
+			long total = reservationRepository.findHistoryByUserId(userId, PageRequest.of(0, PAGE_SIZE)).getTotalElements();
+			totals.put(userId, total);
+			for (int page : new int[] { 0, (int)((total - 1) / PAGE_SIZE) }) {
+				Pageable pageable = PageRequest.of(page, PAGE_SIZE);
+				for (int round = 0; round < WARMUP_ROUNDS; round++) {
+					reservationRepository.findHistoryByUserId(userId, pageable);
+				}
+				long startedAt = System.nanoTime();
+				for (int round = 0; round < MEASURED_ROUNDS; round++) {
+					reservationRepository.findHistoryByUserId(userId, pageable);
+				}
+				double millis = (System.nanoTime() - startedAt) / 1_000_000.0 / MEASURED_ROUNDS;
+				System.out.printf("%s ユーザー%d(%d件) %4dページ目 %7.2fミリ秒%n", label, userId, total, page + 1, millis);
+			}
+		}
+		return totals;
+	}
+	
+	private long count(String table) {
+		return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table, Long.class);
+	}
+}
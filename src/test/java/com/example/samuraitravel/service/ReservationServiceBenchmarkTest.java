@@ -0,0 +1,47 @@
+package com.example.samuraitravel.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDate;
+import java.util.function.IntUnaryOperator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+// 予約の登録の1秒あたりの件数を、同じ民宿に集中した場合と別々の民宿に分かれた場合で測る
+// 実行時間はマシンによって変わるため、普段のテストでは実行しない
+// 実行する場合: ./mvnw test -Dtest=ReservationServiceBenchmarkTest -Dsamuraitravel.benchmark=true
+@EnabledIfSystemProperty(named = "samuraitravel.benchmark", matches = "true")
+class ReservationServiceBenchmarkTest {
+	private static final int THREADS = 32;
+	private static final int ATTEMPTS_PER_THREAD = 50;
+	// 予約のINSERTにかかる時間の代わり
+	private static final long INSERT_MILLIS = 1;
+	
+	private final LocalDate firstNight = LocalDate.now().plusDays(1);
+	
+	@Test
+	void sameHouseVersusDistinctHouses() throws Exception {
+		double sameHouse = throughput(thread -> 1);
+		double distinctHouses = throughput(thread -> thread + 1);
+		
+		System.out.printf("予約の登録件数/秒: 同じ民宿 %.0f件, 別々の民宿 %.0f件%n", sameHouse, distinctHouses);
+	}
+	
+	// THREADS個のスレッドから、それぞれhouseIdOf(スレッドの番号)の民宿に重ならない1泊の予約をATTEMPTS_PER_THREAD件ずつ登録し、1秒あたりの件数を返す
+	private double throughput(IntUnaryOperator houseIdOf) throws Exception {
+		InMemoryReservations database = new InMemoryReservations(THREADS);
+		database.onInsert(() -> Thread.sleep(INSERT_MILLIS));
+		ReservationService server = database.newServer();
+		
+		long startedAt = System.nanoTime();
+		ReservationServiceStressTest.run(THREADS, thread -> {
+			for (int i = 0; i < ATTEMPTS_PER_THREAD; i++) {
+				LocalDate checkinDate = firstNight.plusDays(thread * ATTEMPTS_PER_THREAD + i);
+				assertThat(database.book(server, houseIdOf.applyAsInt(thread), checkinDate, checkinDate.plusDays(1))).isTrue();
+			}
+		});
+		double seconds = (System.nanoTime() - startedAt) / 1_000_000_000.0;
+		return THREADS * ATTEMPTS_PER_THREAD / seconds;
+	}
+}
@@ -0,0 +1,162 @@
+package com.example.samuraitravel.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.example.samuraitravel.entity.Reservation;
+
+// 同じ民宿に多数のスレッドから同時に予約を登録しても同じ夜に2件の予約が入らないこと、別々の民宿の予約は並行して登録できることを確認する
+// 実行時間には依存しない(1秒あたりの件数はReservationServiceBenchmarkTestで測る)
+class ReservationServiceStressTest {
+	private static final int THREADS = 32;
+	private static final int ATTEMPTS_PER_THREAD = 50;
+	// 全スレッドで奪い合う、互いに重ならない2泊の予約の数
+	private static final int CONTENDED_STAYS = 20;
+	
+	private final LocalDate firstNight = LocalDate.now().plusDays(1);
+	private InMemoryReservations database;
+	
+	@BeforeEach
+	void setUp() {
+		database = new InMemoryReservations(THREADS + 1);
+	}
+	
+	@Test
+	void oneHouseFromManyThreadsNeverDoubleBooks() throws Exception {
+		int booked = hammer(List.of(database.newServer()), 1);
+		
+		assertThat(booked).isPositive();
+		assertNoDoubleBookedNights(booked);
+	}
+	
+	@Test
+	void oneHouseFromSeveralServersNeverDoubleBooks() throws Exception {
+		// サーバーごとに空室インデックスは別々のため、他のサーバーの予約との重なりはreservation_nightsの主キーで弾かれる
+		List<ReservationService> servers = List.of(database.newServer(), database.newServer(), database.newServer(), database.newServer());
+		int booked = hammer(servers, 1);
+		
+		assertThat(booked).isPositive();
+		assertNoDoubleBookedNights(booked);
+	}
+	
+	@Test
+	void eachContendedStayHasExactlyOneWinner() throws Exception {
+		// 全スレッドが同じ順に同じ予約を登録しようとし、それぞれちょうど1件だけが登録されること
+		List<ReservationService> servers = List.of(database.newServer(), database.newServer(), database.newServer(), database.newServer());
+		AtomicIntegerArray winners = new AtomicIntegerArray(CONTENDED_STAYS);
+		run(thread -> {
+			ReservationService server = servers.get(thread % servers.size());
+			for (int stay = 0; stay < CONTENDED_STAYS; stay++) {
+				LocalDate checkinDate = firstNight.plusDays(stay * 3);
+				if (database.book(server, 1, checkinDate, checkinDate.plusDays(2))) {
+					winners.incrementAndGet(stay);
+				}
+			}
+		});
+		
+		for (int stay = 0; stay < CONTENDED_STAYS; stay++) {
+			assertThat(winners.get(stay)).as("%d件目の予約を登録できたスレッドの数", stay).isEqualTo(1);
+		}
+		assertNoDoubleBookedNights(CONTENDED_STAYS);
+	}
+	
+	@Test
+	void distinctHousesAreBookedInParallel() throws Exception {
+		// 2件の予約がどちらもINSERTの途中で待ち合わせる。民宿ごとにロックが分かれていれば両方が同時にそこまで進む
+		CountDownLatch bothInserting = new CountDownLatch(2);
+		database.onInsert(() -> {
+			bothInserting.countDown();
+			assertThat(bothInserting.await(10, TimeUnit.SECONDS)).as("別の民宿の予約を待たずに登録できること").isTrue();
+		});
+		ReservationService server = database.newServer();
+		AtomicInteger booked = new AtomicInteger();
+		
+		run(2, thread -> {
+			if (database.book(server, thread + 1, firstNight, firstNight.plusDays(1))) {
+				booked.incrementAndGet();
+			}
+		});
+		
+		assertThat(booked.get()).isEqualTo(2);
+		assertNoDoubleBookedNights(2);
+	}
+	
+	// THREADS個のスレッドから同じ民宿に、ランダムな1～3泊の予約を一斉に登録させ、登録できた件数を返す
+	private int hammer(List<ReservationService> servers, int houseId) throws Exception {
+		AtomicInteger booked = new AtomicInteger();
+		run(thread -> {
+			ReservationService server = servers.get(thread % servers.size());
+			Random random = new Random(thread);
+			for (int i = 0; i < ATTEMPTS_PER_THREAD; i++) {
+				LocalDate checkinDate = firstNight.plusDays(random.nextInt(60));
+				if (database.book(server, houseId, checkinDate, checkinDate.plusDays(1 + random.nextInt(3)))) {
+					booked.incrementAndGet();
+				}
+			}
+		});
+		return booked.get();
+	}
+	
+	// 登録できたと答えた件数だけ予約が残っていて、どの民宿のどの夜にも予約が2件入っておらず、
+	// reservation_nightsが残った予約の夜をちょうど記録していること(弾かれた予約の行はロールバックされている)
+	private void assertNoDoubleBookedNights(int booked) {
+		assertThat(database.reservations.rows()).hasSize(booked);
+		
+		Map<String, Integer> nights = new HashMap<>();
+		for (Reservation reservation : database.reservations.values()) {
+			for (LocalDate night = reservation.getCheckinDate(); night.isBefore(reservation.getCheckoutDate()); night = night.plusDays(1)) {
+				String key = reservation.getHouse().getId() + ":" + night;
+				assertThat(nights.put(key, reservation.getId())).as("%sの予約", key).isNull();
+			}
+		}
+		assertThat(database.reservationNights.rows()).isEqualTo(nights);
+	}
+	
+	private static void run(ThreadTask task) throws Exception {
+		run(THREADS, task);
+	}
+	
+	// threads個のスレッドで一斉にtaskを実行し、すべて終わるまで待つ
+	static void run(int threads, ThreadTask task) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int thread = 0; thread < threads; thread++) {
+				int threadNumber = thread;
+				futures.add(pool.submit(() -> {
+					start.await();
+					task.run(threadNumber);
+					return null;
+				}));
+			}
+			start.countDown();
+			for (Future<?> future : futures) {
+				future.get(60, TimeUnit.SECONDS);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	@FunctionalInterface
+	interface ThreadTask {
+		void run(int thread) throws Exception;
+	}
+}
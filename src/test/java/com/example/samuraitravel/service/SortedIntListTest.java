@@ -0,0 +1,63 @@
+package com.example.samuraitravel.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+// 検索インデックスのポスティングリストの挿入・削除と、共通部分・和集合を確認する
+class SortedIntListTest {
+	@Test
+	void addKeepsValuesSortedAndUnique() {
+		SortedIntList list = list(5, 1, 3, 3, 9, 1);
+		
+		assertThat(list.toArray()).containsExactly(1, 3, 5, 9);
+		assertThat(list.remove(3)).isTrue();
+		assertThat(list.remove(4)).isFalse();
+		assertThat(list.toArray()).containsExactly(1, 5, 9);
+		assertThat(list.toArray(2)).containsExactly(1, 5);
+	}
+	
+	@Test
+	void retainMergesArraysOfSimilarSize() {
+		SortedIntList list = list(1, 2, 4, 6, 8, 10);
+		
+		assertThat(list.retain(new int[] { 2, 3, 4, 5, 10, 11 })).containsExactly(2, 4, 10);
+		assertThat(list.retain(new int[0])).isEmpty();
+	}
+	
+	@Test
+	void retainBinarySearchesWhenArrayIsMuchShorter() {
+		// 配列の長さの16倍よりリストが長いと、配列の要素ごとに二分探索する
+		SortedIntList list = list(IntStream.rangeClosed(1, 1000).map(i -> i * 2).toArray());
+		
+		assertThat(list.retain(new int[] { 0, 2, 3, 1000, 2000, 2001 })).containsExactly(2, 1000, 2000);
+	}
+	
+	@Test
+	void bothRetainStrategiesAgreeWithIntersect() {
+		Random random = new Random(1);
+		for (int round = 0; round < 200; round++) {
+			int[] large = random.ints(random.nextInt(5000), 0, 20000).sorted().distinct().toArray();
+			int[] small = random.ints(random.nextInt(round % 2 == 0 ? 20 : 5000), 0, 20000).sorted().distinct().toArray();
+			
+			assertThat(list(large).retain(small)).containsExactly(SortedIntList.intersect(large, small));
+		}
+	}
+	
+	@Test
+	void unionMergesWithoutDuplicates() {
+		assertThat(SortedIntList.union(new int[] { 1, 3, 5 }, new int[] { 2, 3, 6 })).containsExactly(1, 2, 3, 5, 6);
+		assertThat(SortedIntList.union(new int[0], new int[] { 4 })).containsExactly(4);
+	}
+	
+	private static SortedIntList list(int... values) {
+		SortedIntList list = new SortedIntList();
+		for (int value : values) {
+			list.add(value);
+		}
+		return list;
+	}
+}
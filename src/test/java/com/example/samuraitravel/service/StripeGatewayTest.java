@@ -0,0 +1,176 @@
+package com.example.samuraitravel.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.stripe.exception.APIConnectionException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.Refund;
+import com.stripe.model.checkout.Session;
+import com.stripe.param.checkout.SessionRetrieveParams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// ローカルのスタブサーバーに遅延や障害を起こさせて、StripeGatewayのタイムアウト・サーキットブレーカー・メトリクスを確認する
+class StripeGatewayTest {
+	private static final String SESSION_JSON = "{\"id\":\"cs_test_1\",\"object\":\"checkout.session\",\"metadata\":{\"houseId\":\"1\"}}";
+	private static final String REFUND_JSON = "{\"id\":\"re_test_1\",\"object\":\"refund\",\"payment_intent\":\"pi_test_1\",\"status\":\"succeeded\"}";
+	private static final String ERROR_JSON = "{\"error\":{\"type\":\"api_error\",\"message\":\"stub failure\"}}";
+	
+	private HttpServer server;
+	private ExecutorService serverExecutor;
+	private final AtomicInteger requestCount = new AtomicInteger();
+	// スタブサーバーが返すステータスと、応答するまでの遅延
+	private volatile int status = 200;
+	private volatile long delayMillis = 0;
+	// 返金のリクエストに付いていた冪等キーと本文
+	private volatile String idempotencyKey;
+	private volatile String refundRequestBody;
+	
+	private SimpleMeterRegistry meterRegistry;
+	private StripeGateway stripeGateway;
+	
+	@BeforeEach
+	void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/v1/checkout/sessions/", this::handle);
+		server.createContext("/v1/refunds", this::handleRefund);
+		serverExecutor = Executors.newCachedThreadPool();
+		server.setExecutor(serverExecutor);
+		server.start();
+		
+		meterRegistry = new SimpleMeterRegistry();
+		stripeGateway = new StripeGateway("sk_test_stub", "whsec_stub", "http://127.0.0.1:" + server.getAddress().getPort(),
+				Duration.ofSeconds(1), Duration.ofMillis(300), Duration.ofMillis(300), 0, meterRegistry);
+	}
+	
+	@AfterEach
+	void tearDown() {
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+	
+	@Test
+	void retrievesSessionWithMetadata() throws StripeException {
+		Session session = retrieve();
+		
+		assertThat(session.getId()).isEqualTo("cs_test_1");
+		assertThat(session.getMetadata()).containsEntry("houseId", "1");
+		assertThat(meterRegistry.get("samuraitravel.stripe.requests").tag("outcome", "success").timer().count()).isEqualTo(1);
+	}
+	
+	@Test
+	void refundsPaymentIntentWithIdempotencyKey() throws StripeException {
+		Refund refund = stripeGateway.refundPaymentIntent("pi_test_1", "refund-cs_test_1");
+		
+		assertThat(refund.getId()).isEqualTo("re_test_1");
+		assertThat(idempotencyKey).isEqualTo("refund-cs_test_1");
+		assertThat(refundRequestBody).contains("payment_intent=pi_test_1");
+		assertThat(meterRegistry.get("samuraitravel.stripe.requests").tag("operation", "refunds.create").tag("outcome", "success").timer().count()).isEqualTo(1);
+	}
+	
+	@Test
+	void slowResponseTimesOut() {
+		delayMillis = 2000;
+		
+		long startedAt = System.nanoTime();
+		assertThatThrownBy(this::retrieve).isInstanceOf(APIConnectionException.class);
+		assertThat(Duration.ofNanos(System.nanoTime() - startedAt)).isLessThan(Duration.ofMillis(1500));
+	}
+	
+	@Test
+	void consecutiveFailuresOpenTheCircuit() {
+		status = 500;
+		
+		for (int i = 0; i < 5; i++) {
+			assertThatThrownBy(this::retrieve).isInstanceOf(StripeException.class);
+		}
+		assertThat(stripeGateway.getCircuitState()).isEqualTo(CircuitBreaker.State.OPEN);
+		
+		// 開いている間はスタブサーバーに届かずにすぐ失敗する
+		assertThatThrownBy(this::retrieve).isInstanceOf(APIConnectionException.class);
+		assertThat(requestCount.get()).isEqualTo(5);
+		assertThat(meterRegistry.get("samuraitravel.stripe.requests").tag("outcome", "error").timer().count()).isEqualTo(5);
+		assertThat(meterRegistry.get("samuraitravel.stripe.rejected").counter().count()).isEqualTo(1);
+	}
+	
+	@Test
+	void circuitClosesAfterSuccessfulTrial() {
+		AtomicLong now = new AtomicLong();
+		CircuitBreaker circuitBreaker = new CircuitBreaker(2, Duration.ofSeconds(30), now::get);
+		
+		circuitBreaker.onFailure();
+		assertThat(circuitBreaker.tryAcquire()).isTrue();
+		circuitBreaker.onFailure();
+		assertThat(circuitBreaker.tryAcquire()).isFalse();
+		
+		// 30秒たったら1件だけ試す
+		now.addAndGet(Duration.ofSeconds(30).toNanos());
+		assertThat(circuitBreaker.tryAcquire()).isTrue();
+		assertThat(circuitBreaker.tryAcquire()).isFalse();
+		
+		// 試した1件が失敗したらまた開き、成功したら閉じる
+		circuitBreaker.onFailure();
+		assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+		now.addAndGet(Duration.ofSeconds(30).toNanos());
+		assertThat(circuitBreaker.tryAcquire()).isTrue();
+		circuitBreaker.onSuccess();
+		assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+	}
+	
+	private Session retrieve() throws StripeException {
+		return stripeGateway.retrieveCheckoutSession("cs_test_1", SessionRetrieveParams.builder().build());
+	}
+	
+	private void handleRefund(HttpExchange exchange) throws IOException {
+		idempotencyKey = exchange.getRequestHeaders().getFirst("Idempotency-Key");
+		refundRequestBody = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+		
+		byte[] body = REFUND_JSON.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream outputStream = exchange.getResponseBody()) {
+			outputStream.write(body);
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	private void handle(HttpExchange exchange) throws IOException {
+		requestCount.incrementAndGet();
+		try {
+			Thread.sleep(delayMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
+		byte[] body = (status == 200 ? SESSION_JSON : ERROR_JSON).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		try {
+			exchange.sendResponseHeaders(status, body.length);
+			try (OutputStream outputStream = exchange.getResponseBody()) {
+				outputStream.write(body);
+			}
+		} catch (IOException e) {
+			// タイムアウトしたクライアントが先に切断した
+		} finally {
+			exchange.close();
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package com.example.samuraitravel.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.example.samuraitravel.entity.StripeWebhookEvent;
+import com.example.samuraitravel.repository.StripeWebhookEventRepository;
+import com.stripe.model.Event;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// 同じWebhookイベントが同時に何度も届いても、受信箱に保存されるのは1回だけであることを確認する
+class StripeWebhookInboxTest {
+	private static final int THREADS = 32;
+	
+	// stripe_webhook_eventsテーブルの代わり(event_idの一意制約を再現する)
+	private final InMemoryTable<String, StripeWebhookEvent> table = new InMemoryTable<>("event_id");
+	private StripeWebhookEventRepository repository;
+	
+	@BeforeEach
+	void setUp() {
+		repository = mock(StripeWebhookEventRepository.class);
+		when(repository.saveAndFlush(any(StripeWebhookEvent.class))).thenAnswer(invocation -> {
+			StripeWebhookEvent stripeWebhookEvent = invocation.getArgument(0);
+			table.insert(stripeWebhookEvent.getEventId(), stripeWebhookEvent);
+			stripeWebhookEvent.setId(table.nextId());
+			return stripeWebhookEvent;
+		});
+	}
+	
+	@Test
+	void sameEventFromManyThreadsIsStoredOnce() throws Exception {
+		StripeWebhookInbox inbox = newInbox();
+		try {
+			assertThat(fire(List.of(inbox), event("evt_1"))).isEqualTo(1);
+		} finally {
+			inbox.shutdown();
+		}
+		
+		assertThat(table.rows()).hasSize(1);
+		// 2回目以降はメモリ上で弾かれ、データベースには問い合わせない
+		verify(repository, times(1)).saveAndFlush(any(StripeWebhookEvent.class));
+	}
+	
+	@Test
+	void sameEventOnSeveralServersIsStoredOnce() throws Exception {
+		// サーバーごとにメモリ上の記録は別々のため、一意制約で弾かれる
+		List<StripeWebhookInbox> inboxes = List.of(newInbox(), newInbox(), newInbox(), newInbox());
+		try {
+			assertThat(fire(inboxes, event("evt_2"))).isEqualTo(1);
+		} finally {
+			inboxes.forEach(StripeWebhookInbox::shutdown);
+		}
+		
+		assertThat(table.rows()).hasSize(1);
+	}
+	
+	@Test
+	void differentEventsAreAllStored() throws Exception {
+		StripeWebhookInbox inbox = newInbox();
+		try {
+			assertThat(inbox.receive(event("evt_3"), "{}")).isTrue();
+			assertThat(inbox.receive(event("evt_4"), "{}")).isTrue();
+			assertThat(inbox.receive(event("evt_3"), "{}")).isFalse();
+		} finally {
+			inbox.shutdown();
+		}
+		
+		assertThat(table.rows()).containsOnlyKeys("evt_3", "evt_4");
+	}
+	
+	@Test
+	void recentIdCacheForgetsOldestIds() {
+		RecentIdCache recentIdCache = new RecentIdCache(2);
+		assertThat(recentIdCache.add("a")).isTrue();
+		assertThat(recentIdCache.add("b")).isTrue();
+		assertThat(recentIdCache.add("b")).isFalse();
+		assertThat(recentIdCache.add("c")).isTrue();
+		
+		assertThat(recentIdCache.contains("a")).isFalse();
+		assertThat(recentIdCache.contains("c")).isTrue();
+		assertThat(recentIdCache.size()).isEqualTo(2);
+	}
+	
+	private StripeWebhookInbox newInbox() {
+		return new StripeWebhookInbox(repository, mock(StripeService.class), new SimpleMeterRegistry());
+	}
+	
+	private static Event event(String eventId) {
+		Event event = mock(Event.class);
+		when(event.getId()).thenReturn(eventId);
+		when(event.getType()).thenReturn("checkout.session.completed");
+		return event;
+	}
+	
+	// THREADS個のスレッドから一斉にeventを受け取らせ、保存された(trueを返した)回数を返す
+	private static int fire(List<StripeWebhookInbox> inboxes, Event event) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicInteger accepted = new AtomicInteger();
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < THREADS; i++) {
+				StripeWebhookInbox inbox = inboxes.get(i % inboxes.size());
+				futures.add(pool.submit(() -> {
+					start.await();
+					if (inbox.receive(event, "{}")) {
+						accepted.incrementAndGet();
+					}
+					return null;
+				}));
+			}
+			start.countDown();
+			for (Future<?> future : futures) {
+				future.get(10, TimeUnit.SECONDS);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return accepted.get();
+	}
+}
@@ -0,0 +1,88 @@
+package com.example.samuraitravel.service;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import com.example.samuraitravel.repository.UserRepository;
+
+// 100万人の会員で、索引の作成にかかる時間とメモリ、キーワードごとの検索時間を測る
+// 実行時間はマシンによって変わるため、普段のテストでは実行しない
+// 実行する場合: ./mvnw test -Dtest=UserSearchServiceBenchmarkTest -Dsamuraitravel.benchmark=true
+@EnabledIfSystemProperty(named = "samuraitravel.benchmark", matches = "true")
+class UserSearchServiceBenchmarkTest {
+	private static final int USERS = 1_000_000;
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int MEASURED_ROUNDS = 50;
+	
+	private static final String[] FAMILY_NAMES = { "侍", "佐藤", "鈴木", "高橋", "田中", "伊藤", "渡辺", "山本", "中村", "小林", "加藤", "吉田", "山田", "佐々木", "山口", "松本", "井上", "木村", "林", "清水" };
+	private static final String[] FAMILY_FURIGANA = { "さむらい", "さとう", "すずき", "たかはし", "たなか", "いとう", "わたなべ", "やまもと", "なかむら", "こばやし", "かとう", "よしだ", "やまだ", "ささき", "やまぐち", "まつもと", "いのうえ", "きむら", "はやし", "しみず" };
+	private static final String[] GIVEN_NAMES = { "太郎", "花子", "一郎", "次郎", "美咲", "翔", "結衣", "大輔", "愛", "健" };
+	private static final String[] GIVEN_FURIGANA = { "たろう", "はなこ", "いちろう", "じろう", "みさき", "しょう", "ゆい", "だいすけ", "あい", "けん" };
+	
+	// 半角カナ・全角・ひらがな・カタカナ・漢字、1文字・2文字・3文字以上、メールアドレスの前方一致
+	// 最後の2つは、先頭の4文字がほぼ全員と一致し、その先が一致しないメールアドレス(候補をすべて確かめるため最も遅い)
+	private static final String[] KEYWORDS = { "ｻﾑﾗｲﾀﾛｳ", "さむらいたろう", "サムライ", "侍 太郎", "TARO.S", "taro", "た", "みさき", "ｽｽﾞｷ", "user1", "userzzzz", "user.nobody" };
+	
+	@Test
+	void searchOneMillionUsers() {
+		UserRepository userRepository = mock(UserRepository.class);
+		when(userRepository.findSearchFields()).thenReturn(users());
+		UserSearchService userSearchService = new UserSearchService(userRepository);
+		
+		long startedAt = System.nanoTime();
+		userSearchService.rebuild();
+		long buildMillis = (System.nanoTime() - startedAt) / 1_000_000;
+		System.gc();
+		long heapMegabytes = (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) >> 20;
+		System.out.printf("索引の作成: %dミリ秒, ヒープ: %dMB%n", buildMillis, heapMegabytes);
+		
+		for (int round = 0; round < WARMUP_ROUNDS; round++) {
+			for (String keyword : KEYWORDS) {
+				userSearchService.find(UserSearchService.normalize(keyword), UserSearchService.MAX_HITS);
+			}
+		}
+		for (String keyword : KEYWORDS) {
+			String query = UserSearchService.normalize(keyword);
+			int hits = 0;
+			startedAt = System.nanoTime();
+			for (int round = 0; round < MEASURED_ROUNDS; round++) {
+				hits = userSearchService.find(query, UserSearchService.MAX_HITS).length;
+			}
+			double millis = (System.nanoTime() - startedAt) / 1_000_000.0 / MEASURED_ROUNDS;
+			System.out.printf("%-12s %5d件 %6.2fミリ秒%n", keyword, hits, millis);
+		}
+	}
+	
+	// 氏名・フリガナは上の組み合わせから、フリガナは半分をカタカナで、メールアドレスはすべて「user」で始める
+	private static List<Object[]> users() {
+		Random random = new Random(1);
+		List<Object[]> rows = new ArrayList<>(USERS + 1);
+		for (int id = 1; id <= USERS; id++) {
+			int family = random.nextInt(FAMILY_NAMES.length);
+			int given = random.nextInt(GIVEN_NAMES.length);
+			String furigana = FAMILY_FURIGANA[family] + " " + GIVEN_FURIGANA[given];
+			if (id % 2 == 0) {
+				furigana = toKatakana(furigana);
+			}
+			String email = "user" + Integer.toString(random.nextInt(1 << 30), 36) + id + "@example.com";
+			rows.add(new Object[] { id, FAMILY_NAMES[family] + " " + GIVEN_NAMES[given], furigana, email });
+		}
+		rows.add(new Object[] { USERS + 1, "侍 太郎", "サムライ タロウ", "taro.samurai@example.com" });
+		return rows;
+	}
+	
+	private static String toKatakana(String hiragana) {
+		StringBuilder builder = new StringBuilder(hiragana.length());
+		for (char c : hiragana.toCharArray()) {
+			builder.append(c >= 'ぁ' && c <= 'ゖ' ? (char)(c + ('ァ' - 'ぁ')) : c);
+		}
+		return builder.toString();
+	}
+}
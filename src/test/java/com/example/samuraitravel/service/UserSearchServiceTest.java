@@ -0,0 +1,143 @@
+package com.example.samuraitravel.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import com.example.samuraitravel.entity.User;
+import com.example.samuraitravel.repository.UserRepository;
+
+// 会員検索の正規化(全角・半角、ひらがな・カタカナ)、N-gramの作り方、検索結果の件数の上限を確認する
+class UserSearchServiceTest {
+	// usersテーブルの代わり
+	private final InMemoryTable<Integer, User> users = new InMemoryTable<>("PRIMARY");
+	private UserRepository userRepository;
+	private UserSearchService userSearchService;
+	
+	@BeforeEach
+	void setUp() {
+		userRepository = mock(UserRepository.class);
+		when(userRepository.findSearchFields()).thenAnswer(invocation -> searchFields());
+		when(userRepository.findAllById(anyList())).thenAnswer(invocation -> {
+			List<Integer> ids = invocation.getArgument(0);
+			return ids.stream().map(users::get).toList();
+		});
+		userSearchService = new UserSearchService(userRepository);
+	}
+	
+	@Test
+	void normalizeFoldsWidthKanaAndCase() {
+		assertThat(UserSearchService.normalize("ｻﾑﾗｲ ﾀﾛｳ")).isEqualTo("さむらいたろう");
+		assertThat(UserSearchService.normalize("サムライ　タロウ")).isEqualTo("さむらいたろう");
+		assertThat(UserSearchService.normalize("ＴＡＲＯ.Samurai@Example.com")).isEqualTo("taro.samurai@example.com");
+		assertThat(UserSearchService.normalize(null)).isEmpty();
+	}
+	
+	@Test
+	void normalizeComposesHalfWidthVoicedMarks() {
+		// 半角の濁点・半濁点は前の文字と合わせて1文字になる
+		assertThat(UserSearchService.normalize("ｶﾞｯﾂ ﾎﾟﾝ ｳﾞｨ")).isEqualTo("がっつぽんゔぃ");
+		assertThat(UserSearchService.normalize("ｶﾞ")).isEqualTo(UserSearchService.normalize("ガ")).hasSize(1);
+	}
+	
+	@Test
+	void normalizeFoldsSmallKaAndKeToHiragana() {
+		// ヵ・ヶもカタカナの範囲に含まれ、対応するひらがな(ゕ・ゖ)に揃う。「ケ」とは別の文字として扱う
+		assertThat(UserSearchService.normalize("ヵヶ")).isEqualTo("ゕゖ");
+		assertThat(UserSearchService.normalize("一ヶ谷")).isNotEqualTo(UserSearchService.normalize("一ケ谷"));
+	}
+	
+	@Test
+	void oneAndTwoCharacterQueriesUseOneGram() {
+		assertThat(UserSearchService.grams("さ")).containsExactly(UserSearchService.unigram('さ'));
+		assertThat(UserSearchService.grams("さむ")).containsExactly(UserSearchService.bigram('さ', 'む'));
+		assertThat(UserSearchService.grams("さむら")).containsExactly(UserSearchService.bigram('さ', 'む'), UserSearchService.bigram('む', 'ら'));
+		assertThat(UserSearchService.grams("")).isEmpty();
+	}
+	
+	@Test
+	void keywordMatchesAcrossKanaAndWidth() {
+		user(1, "侍 太郎", "サムライ タロウ", "taro.samurai@example.com");
+		user(2, "侍 花子", "サムライ ハナコ", "hanako@example.com");
+		user(3, "村井 太郎", "ムライ タロウ", "murai@example.com");
+		user(4, "来夢 村", "ライム ムラ", "raimu@example.com");
+		userSearchService.rebuild();
+		
+		assertThat(userSearchService.find(UserSearchService.normalize("ｻﾑﾗｲ"), 10)).containsExactly(1, 2);
+		assertThat(userSearchService.find(UserSearchService.normalize("たろう"), 10)).containsExactly(1, 3);
+		assertThat(userSearchService.find(UserSearchService.normalize("侍"), 10)).containsExactly(1, 2);
+		assertThat(userSearchService.find(UserSearchService.normalize("TARO."), 10)).containsExactly(1);
+		// 4は「むら」「らい」をどちらも含むが、「むらい」と続いてはいない
+		assertThat(userSearchService.find(UserSearchService.normalize("むらい"), 10)).containsExactly(1, 2, 3);
+	}
+	
+	@Test
+	void manyMatchesAreCappedAtMaxHits() {
+		for (int id = 1; id <= UserSearchService.MAX_HITS + 500; id++) {
+			user(id, "侍 太郎" + id, "サムライ タロウ", "user" + id + "@example.com");
+		}
+		userSearchService.rebuild();
+		
+		// 1文字・2文字・3文字以上、メールアドレスの前方一致のいずれでも先頭のMAX_HITS件で打ち切る
+		for (String keyword : List.of("侍", "たろ", "さむらい", "user")) {
+			int[] ids = userSearchService.find(UserSearchService.normalize(keyword), UserSearchService.MAX_HITS);
+			assertThat(ids).as(keyword).hasSize(UserSearchService.MAX_HITS).startsWith(1, 2, 3).isSorted();
+		}
+		assertThat(userSearchService.find("user1", 5)).containsExactly(1, 10, 11, 12, 13);
+		
+		Page<User> page = userSearchService.search("さむらい", PageRequest.of(2, 10));
+		assertThat(page.getTotalElements()).isEqualTo(UserSearchService.MAX_HITS);
+		assertThat(page.getContent()).extracting(User::getId).containsExactly(21, 22, 23, 24, 25, 26, 27, 28, 29, 30);
+	}
+	
+	@Test
+	void changesCommittedDuringRebuildAreKept() {
+		user(1, "侍 太郎", "サムライ タロウ", "taro@example.com");
+		user(2, "侍 花子", "サムライ ハナコ", "hanako@example.com");
+		userSearchService.rebuild();
+		
+		// 読み込んだ後、索引を置き換える前に、1の氏名の変更・2の削除・3の登録がコミットされる
+		when(userRepository.findSearchFields()).thenAnswer(invocation -> {
+			List<Object[]> rows = searchFields();
+			User renamed = user(1, "村井 太郎", "ムライ タロウ", "taro@example.com");
+			users.delete(2);
+			User added = user(3, "侍 次郎", "サムライ ジロウ", "jiro@example.com");
+			userSearchService.onUserChanged(renamed);
+			userSearchService.onUserDeleted(2);
+			userSearchService.onUserChanged(added);
+			return rows;
+		});
+		userSearchService.rebuild();
+		
+		assertThat(userSearchService.find(UserSearchService.normalize("村井"), 10)).containsExactly(1);
+		assertThat(userSearchService.find(UserSearchService.normalize("侍"), 10)).containsExactly(3);
+		assertThat(userSearchService.find(UserSearchService.normalize("hanako"), 10)).isEmpty();
+		
+		// 作り直しの後の変更は、そのまま反映される
+		userSearchService.onUserDeleted(3);
+		assertThat(userSearchService.find(UserSearchService.normalize("侍"), 10)).isEmpty();
+	}
+	
+	private List<Object[]> searchFields() {
+		return users.values().stream()
+			.map(user -> new Object[] { user.getId(), user.getName(), user.getFurigana(), user.getEmail() })
+			.toList();
+	}
+	
+	private User user(int id, String name, String furigana, String email) {
+		User user = new User();
+		user.setId(id);
+		user.setName(name);
+		user.setFurigana(furigana);
+		user.setEmail(email);
+		return users.save(id, user);
+	}
+}
@@ -0,0 +1,104 @@
+package com.example.samuraitravel.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.example.samuraitravel.entity.User;
+import com.example.samuraitravel.entity.VerificationToken;
+import com.example.samuraitravel.repository.VerificationTokenRepository;
+
+// メール認証のトークンが、ハッシュで保存され、期限内に1回だけ使えることを確認する
+class VerificationTokenServiceTest {
+	private static final Duration EXPIRY = Duration.ofHours(24);
+	
+	// verification_tokensテーブルの代わり
+	private final InMemoryTable<Integer, VerificationToken> table = new InMemoryTable<>("PRIMARY");
+	private VerificationTokenService verificationTokenService;
+	
+	@BeforeEach
+	void setUp() {
+		VerificationTokenRepository repository = mock(VerificationTokenRepository.class);
+		when(repository.save(any(VerificationToken.class))).thenAnswer(invocation -> {
+			VerificationToken verificationToken = invocation.getArgument(0);
+			verificationToken.setId((int) table.nextId());
+			return table.insert(verificationToken.getId(), verificationToken);
+		});
+		when(repository.findUsableForUpdate(any(byte[].class), any(LocalDateTime.class))).thenAnswer(invocation -> {
+			byte[] tokenHash = invocation.getArgument(0);
+			LocalDateTime now = invocation.getArgument(1);
+			return table.values().stream()
+				.filter(verificationToken -> Arrays.equals(verificationToken.getTokenHash(), tokenHash) && verificationToken.getExpiresAt().isAfter(now))
+				.findFirst()
+				.orElse(null);
+		});
+		doAnswer(invocation -> table.delete(invocation.<VerificationToken>getArgument(0).getId()))
+			.when(repository).delete(any(VerificationToken.class));
+		
+		UserService userService = mock(UserService.class);
+		doAnswer(invocation -> {
+			invocation.<User>getArgument(0).setEnabled(true);
+			return null;
+		}).when(userService).enableUser(any(User.class));
+		
+		verificationTokenService = new VerificationTokenService(repository, userService, EXPIRY);
+	}
+	
+	@Test
+	void onlyHashOfTokenIsStored() {
+		LocalDateTime before = LocalDateTime.now();
+		String token = verificationTokenService.create(user());
+		
+		VerificationToken stored = table.get(1);
+		assertThat(stored.getTokenHash()).isEqualTo(VerificationTokenService.hash(token)).hasSize(32);
+		assertThat(stored.getExpiresAt()).isBetween(before.plus(EXPIRY), LocalDateTime.now().plus(EXPIRY));
+	}
+	
+	@Test
+	void tokenEnablesUserOnce() {
+		User user = user();
+		String token = verificationTokenService.create(user);
+		
+		assertThat(verificationTokenService.verify(token)).isTrue();
+		assertThat(user.getEnabled()).isTrue();
+		assertThat(table.rows()).isEmpty();
+		
+		// 使ったトークンは削除されているため、2回目は認証できない
+		assertThat(verificationTokenService.verify(token)).isFalse();
+	}
+	
+	@Test
+	void expiredTokenIsRejected() {
+		User user = user();
+		String token = verificationTokenService.create(user);
+		table.get(1).setExpiresAt(LocalDateTime.now().minusSeconds(1));
+		
+		assertThat(verificationTokenService.verify(token)).isFalse();
+		assertThat(user.getEnabled()).isFalse();
+		// 期限切れのトークンは掃除(VerificationTokenSweeper)で削除する
+		assertThat(table.rows()).hasSize(1);
+	}
+	
+	@Test
+	void unknownTokenIsRejected() {
+		verificationTokenService.create(user());
+		
+		assertThat(verificationTokenService.verify("not-a-token")).isFalse();
+	}
+	
+	private static User user() {
+		User user = new User();
+		user.setId(1);
+		user.setEnabled(false);
+		return user;
+	}
+}
@@ -0,0 +1,145 @@
+package com.example.samuraitravel.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Limit;
+
+import com.example.samuraitravel.entity.User;
+import com.example.samuraitravel.entity.VerificationToken;
+import com.example.samuraitravel.repository.VerificationTokenRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// 期限が切れたトークンと、認証されないまま期限が切れたユーザーだけが削除されることを確認する
+class VerificationTokenSweeperTest {
+	// usersテーブルとverification_tokensテーブルの代わり
+	private final InMemoryTable<Integer, User> users = new InMemoryTable<>("PRIMARY");
+	private final InMemoryTable<Integer, VerificationToken> tokens = new InMemoryTable<>("PRIMARY");
+	private final LocalDateTime now = LocalDateTime.now();
+	
+	private UserPrincipalCache userPrincipalCache;
+	private UserSearchService userSearchService;
+	private SimpleMeterRegistry meterRegistry;
+	private VerificationTokenSweeper sweeper;
+	
+	@BeforeEach
+	void setUp() {
+		VerificationTokenRepository repository = mock(VerificationTokenRepository.class);
+		when(repository.findIdsExpiredBefore(any(LocalDateTime.class), any(Limit.class))).thenAnswer(invocation -> {
+			LocalDateTime before = invocation.getArgument(0);
+			Limit limit = invocation.getArgument(1);
+			return tokens.values().stream()
+				.filter(token -> token.getExpiresAt().isBefore(before))
+				.sorted(Comparator.comparing(VerificationToken::getExpiresAt).thenComparing(VerificationToken::getId))
+				.limit(limit.max())
+				.map(VerificationToken::getId)
+				.toList();
+		});
+		when(repository.findUnverifiedUserIdsForUpdate(anyList())).thenAnswer(invocation -> {
+			List<Integer> ids = invocation.getArgument(0);
+			return ids.stream()
+				.map(tokens::get)
+				.filter(token -> token != null && !users.get(token.getUser().getId()).getEnabled())
+				.map(token -> token.getUser().getId())
+				.toList();
+		});
+		when(repository.deleteExpired(anyList())).thenAnswer(invocation -> {
+			List<Integer> ids = invocation.getArgument(0);
+			return ids.stream().mapToInt(tokens::delete).sum();
+		});
+		when(repository.deleteUnverifiedUsers(anyList())).thenAnswer(invocation -> {
+			List<Integer> ids = invocation.getArgument(0);
+			return ids.stream().filter(id -> !users.get(id).getEnabled()).mapToInt(users::delete).sum();
+		});
+		
+		userPrincipalCache = mock(UserPrincipalCache.class);
+		userSearchService = mock(UserSearchService.class);
+		meterRegistry = new SimpleMeterRegistry();
+		sweeper = new VerificationTokenSweeper(repository, userPrincipalCache, userSearchService, InMemoryTransactionManager.transactionTemplate(), meterRegistry);
+	}
+	
+	@Test
+	void expiredUnverifiedUsersAreRemoved() {
+		token(user(false), now.minusHours(1));
+		
+		assertThat(sweeper.sweepExpiredBefore(now)).isEqualTo(1);
+		
+		assertThat(tokens.rows()).isEmpty();
+		assertThat(users.rows()).isEmpty();
+		verify(userPrincipalCache).invalidate(1);
+		verify(userSearchService).onUserDeleted(1);
+		assertThat(removed("verification_tokens")).isEqualTo(1);
+		assertThat(removed("users")).isEqualTo(1);
+	}
+	
+	@Test
+	void tokensWithinExpiryAreKept() {
+		token(user(false), now.plusSeconds(1));
+		
+		assertThat(sweeper.sweepExpiredBefore(now)).isZero();
+		
+		assertThat(tokens.rows()).hasSize(1);
+		assertThat(users.rows()).hasSize(1);
+	}
+	
+	@Test
+	void verifiedUsersAreKept() {
+		// 認証の後に残ったトークン(認証と同時に削除されるため、通常は残らない)
+		token(user(true), now.minusHours(1));
+		
+		assertThat(sweeper.sweepExpiredBefore(now)).isEqualTo(1);
+		
+		assertThat(tokens.rows()).isEmpty();
+		assertThat(users.rows()).hasSize(1);
+		verify(userSearchService, never()).onUserDeleted(anyInt());
+		assertThat(removed("users")).isZero();
+	}
+	
+	@Test
+	void manyExpiredTokensAreRemovedInBatches() {
+		// 1回に削除する件数(500件)を超える分は、次のバッチで削除する
+		for (int i = 0; i < 1234; i++) {
+			token(user(i % 2 == 0), now.minusMinutes(i + 1));
+		}
+		token(user(false), now.plusHours(1));
+		
+		assertThat(sweeper.sweepExpiredBefore(now)).isEqualTo(1234);
+		
+		assertThat(tokens.rows()).hasSize(1);
+		assertThat(users.rows()).hasSize(617 + 1);
+		assertThat(removed("verification_tokens")).isEqualTo(1234);
+		assertThat(removed("users")).isEqualTo(617);
+	}
+	
+	private User user(boolean enabled) {
+		User user = new User();
+		user.setId((int) users.nextId());
+		user.setEnabled(enabled);
+		return users.insert(user.getId(), user);
+	}
+	
+	private void token(User user, LocalDateTime expiresAt) {
+		VerificationToken token = new VerificationToken();
+		token.setId((int) tokens.nextId());
+		token.setUser(user);
+		token.setExpiresAt(expiresAt);
+		tokens.insert(token.getId(), token);
+	}
+	
+	private double removed(String table) {
+		return meterRegistry.get("samuraitravel.verification_tokens.removed").tag("table", table).counter().count();
+	}
+}
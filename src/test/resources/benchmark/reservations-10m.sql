@@ -0,0 +1,63 @@
+-- 予約一覧とアーカイブのベンチマーク用のデータ(ReservationArchiveBenchmarkTestが実行する)
+-- 既存の予約をすべて削除するため、schema.sqlとdata.sqlを実行した後の、ベンチマーク専用のデータベースで実行する
+-- mysqlコマンドで直接流すこともできる: mysql samuraitravel_benchmark < reservations-10m.sql
+
+-- 前回の実行で作った予約とユーザーを削除する
+SET FOREIGN_KEY_CHECKS = 0;
+TRUNCATE TABLE reservation_nights;
+TRUNCATE TABLE reservations;
+TRUNCATE TABLE reservations_archive;
+SET FOREIGN_KEY_CHECKS = 1;
+DELETE FROM users WHERE id > 1000;
+
+-- 0〜9の数字を掛け合わせて連番を作る
+DROP TABLE IF EXISTS benchmark_digits;
+CREATE TABLE benchmark_digits (d INT NOT NULL PRIMARY KEY);
+INSERT INTO benchmark_digits (d) VALUES (0), (1), (2), (3), (4), (5), (6), (7), (8), (9);
+
+-- ユーザー1001〜101000(10万人)
+INSERT INTO users (id, name, furigana, postal_code, address, phone_number, email, password, role_id, enabled)
+SELECT 1001 + n, CONCAT('侍 ', n), 'サムライ', '101-0022', '東京都千代田区神田練塀町300番地', '090-1234-5678', CONCAT('bench', n, '@example.com'), 'password', 1, TRUE
+FROM (SELECT d5.d * 10000 + d4.d * 1000 + d3.d * 100 + d2.d * 10 + d1.d AS n
+	FROM benchmark_digits d1, benchmark_digits d2, benchmark_digits d3, benchmark_digits d4, benchmark_digits d5) s;
+
+-- 予約1,000万件を100万件ずつ登録する(n = 0〜9,999,999)
+-- ユーザー1001は1万件(nが1000の倍数)、それ以外のユーザーは約100件の予約を持つ
+-- チェックインは5年前から90日先までに散らし、1〜3泊、予約日はチェックインの0〜89日前にする
+-- 1割は民宿名などを記録する前の予約として、house_nameなどをNULLにする
+-- reservation_nightsは作らない(民宿が57軒しかなく夜が重なるため)。予約一覧のクエリはreservation_nightsを読まないが、
+-- アーカイブで予約を削除するときのON DELETE CASCADEの分だけ、本番よりアーカイブが速く測られる
+SET @houses = (SELECT COUNT(*) FROM houses);
+PREPARE stmt FROM 'INSERT INTO reservations (house_id, user_id, checkin_date, checkout_date, number_of_people, amount,
+		house_name, house_image_name, house_price, created_at, updated_at)
+	SELECT h.id, IF(s.n % 1000 = 0, 1001, 1001 + s.n % 100000), s.checkin, s.checkin + INTERVAL s.nights DAY, 1 + s.n % 4, h.price * s.nights,
+		IF(s.n % 10 = 0, NULL, h.name), IF(s.n % 10 = 0, NULL, h.image_name), IF(s.n % 10 = 0, NULL, h.price), s.created_at, s.created_at
+	FROM (SELECT n, CURDATE() - INTERVAL 1826 DAY + INTERVAL ((n * 7919) % 1916) DAY AS checkin, 1 + n % 3 AS nights,
+			CAST(CURDATE() - INTERVAL 1826 DAY + INTERVAL ((n * 7919) % 1916) DAY AS DATETIME) - INTERVAL (n % 90) DAY + INTERVAL (n % 86400) SECOND AS created_at
+		FROM (SELECT ? * 1000000 + d6.d * 100000 + d5.d * 10000 + d4.d * 1000 + d3.d * 100 + d2.d * 10 + d1.d AS n
+			FROM benchmark_digits d1, benchmark_digits d2, benchmark_digits d3, benchmark_digits d4, benchmark_digits d5, benchmark_digits d6) t) s
+	JOIN houses h ON h.id = 1 + s.n % ?';
+SET @chunk = 0;
+EXECUTE stmt USING @chunk, @houses;
+SET @chunk = 1;
+EXECUTE stmt USING @chunk, @houses;
+SET @chunk = 2;
+EXECUTE stmt USING @chunk, @houses;
+SET @chunk = 3;
+EXECUTE stmt USING @chunk, @houses;
+SET @chunk = 4;
+EXECUTE stmt USING @chunk, @houses;
+SET @chunk = 5;
+EXECUTE stmt USING @chunk, @houses;
+SET @chunk = 6;
+EXECUTE stmt USING @chunk, @houses;
+SET @chunk = 7;
+EXECUTE stmt USING @chunk, @houses;
+SET @chunk = 8;
+EXECUTE stmt USING @chunk, @houses;
+SET @chunk = 9;
+EXECUTE stmt USING @chunk, @houses;
+DEALLOCATE PREPARE stmt;
+
+DROP TABLE benchmark_digits;
+ANALYZE TABLE users, reservations, reservations_archive;